@@ -0,0 +1,79 @@
+package irisbench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Parsing consensus alignments and scoring the insertions in them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlignmentBenchmarks {
+
+	static final MethodHandle PARSE = Hooks.method("AlignmentRecord", "parse", String.class);
+	static final MethodHandle FIND_BEST_INSERT = Hooks.method("BestInsertFinder", "findBestInsertFromOffset", ArrayList.class, long.class);
+
+	static final long OFFSET = 10000;
+
+	// The number of alignment records for the variant, like the coverage of a consensus
+	@Param({"10", "100", "500"})
+	int records;
+
+	String[] lines;
+	ArrayList<Object> parsed;
+
+	@Setup
+	public void setup() throws Throwable
+	{
+		lines = BenchData.samLines(records, 1000, 70, OFFSET);
+		parsed = new ArrayList<Object>();
+		for(String line : lines)
+		{
+			parsed.add(PARSE.invoke(line));
+		}
+	}
+
+	@Benchmark
+	public void parseSamRecords(Blackhole bh) throws Throwable
+	{
+		for(String line : lines)
+		{
+			bh.consume(PARSE.invoke(line));
+		}
+	}
+
+	@Benchmark
+	public Object scoreInsertions() throws Throwable
+	{
+		return FIND_BEST_INSERT.invoke(parsed, OFFSET);
+	}
+
+	@Benchmark
+	public Object parseAndScore() throws Throwable
+	{
+		ArrayList<Object> res = new ArrayList<Object>();
+		for(String line : lines)
+		{
+			res.add(PARSE.invoke(line));
+		}
+		return FIND_BEST_INSERT.invoke(res, OFFSET);
+	}
+}
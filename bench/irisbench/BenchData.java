@@ -0,0 +1,177 @@
+package irisbench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Deterministic synthetic inputs built from the small simulation in test/smallsimtest, so that
+ * results are comparable across commits.  The directory can be changed with -Diris.smallsim=<dir>.
+ */
+public class BenchData {
+
+	static final long SEED = 20200101L;
+
+	static Path simDir()
+	{
+		return Paths.get(System.getProperty("iris.smallsim", "test/smallsimtest"));
+	}
+
+	/*
+	 * A copy of the simulated genome in a temporary directory, so its index isn't written into the repo
+	 */
+	static String genomeCopy() throws Exception
+	{
+		Path dir = Files.createTempDirectory("irisbench");
+		dir.toFile().deleteOnExit();
+		Path copy = dir.resolve("genome.fa");
+		Files.copy(simDir().resolve("genome.fa"), copy, StandardCopyOption.REPLACE_EXISTING);
+		copy.toFile().deleteOnExit();
+		new File(copy.toString() + ".fai").deleteOnExit();
+		return copy.toString();
+	}
+
+	/*
+	 * The first sequence of the simulated genome
+	 */
+	static String genomeSequence() throws Exception
+	{
+		StringBuilder sb = new StringBuilder();
+		boolean inFirst = false;
+		for(String line : Files.readAllLines(simDir().resolve("genome.fa")))
+		{
+			if(line.startsWith(">"))
+			{
+				if(inFirst) break;
+				inFirst = true;
+				continue;
+			}
+			sb.append(line.trim());
+		}
+		return sb.toString();
+	}
+
+	static String genomeName() throws Exception
+	{
+		String header = Files.readAllLines(simDir().resolve("genome.fa")).get(0).substring(1);
+		int space = header.indexOf(' ');
+		return space == -1 ? header : header.substring(0, space);
+	}
+
+	/*
+	 * The variant lines of the simulated Sniffles VCF
+	 */
+	static List<String> vcfRecords() throws Exception
+	{
+		ArrayList<String> res = new ArrayList<String>();
+		for(String line : Files.readAllLines(simDir().resolve("sniffles.vcf")))
+		{
+			if(line.length() > 0 && !line.startsWith("#"))
+			{
+				res.add(line);
+			}
+		}
+		return res;
+	}
+
+	/*
+	 * count VCF lines made from the simulated records with shifted positions and distinct IDs
+	 */
+	static String[] vcfLines(int count) throws Exception
+	{
+		List<String> records = vcfRecords();
+		Random r = new Random(SEED);
+		String[] res = new String[count];
+		for(int i = 0; i<count; i++)
+		{
+			String[] tokens = records.get(i % records.size()).split("\t");
+			tokens[1] = (1000 + r.nextInt(14000)) + "";
+			tokens[2] = i + "";
+			res[i] = String.join("\t", tokens);
+		}
+		return res;
+	}
+
+	/*
+	 * SAM lines which look like consensus sequences aligned back to the genome around an insertion:
+	 * reference flanks with some substitutions, an insertion near the middle, and soft-clipped ends
+	 * Positions are relative to the start of the genome, which is how offset is interpreted
+	 */
+	static String[] samLines(int count, int flank, int insertLength, long offset) throws Exception
+	{
+		String genome = genomeSequence();
+		Random r = new Random(SEED);
+		String[] res = new String[count];
+		for(int i = 0; i<count; i++)
+		{
+			int pos = (int)offset - flank + r.nextInt(11) - 5;
+			int left = flank, right = flank;
+			int clipStart = r.nextInt(20), clipEnd = r.nextInt(20);
+			int len = insertLength + r.nextInt(7) - 3;
+			StringBuilder query = new StringBuilder();
+			query.append(randomBases(r, clipStart));
+			query.append(mutate(r, genome.substring(pos - 1, pos - 1 + left), 0.02));
+			query.append(randomBases(r, len));
+			query.append(mutate(r, genome.substring(pos - 1 + left, pos - 1 + left + right), 0.02));
+			query.append(randomBases(r, clipEnd));
+			String cigar = (clipStart > 0 ? clipStart + "S" : "") + left + "M" + len + "I" + right + "M" + (clipEnd > 0 ? clipEnd + "S" : "");
+			res[i] = "consensus" + i + "\t0\tchr\t" + pos + "\t60\t" + cigar + "\t*\t0\t0\t" + query + "\t*";
+		}
+		return res;
+	}
+
+	static String randomBases(Random r, int length)
+	{
+		char[] res = new char[length];
+		for(int i = 0; i<length; i++)
+		{
+			res[i] = "ACGT".charAt(r.nextInt(4));
+		}
+		return new String(res);
+	}
+
+	/*
+	 * Adds substitutions to a sequence at the given rate, keeping its length the same
+	 */
+	static String mutate(Random r, String s, double rate)
+	{
+		char[] res = s.toCharArray();
+		for(int i = 0; i<res.length; i++)
+		{
+			if(r.nextDouble() < rate)
+			{
+				res[i] = "ACGT".charAt(r.nextInt(4));
+			}
+		}
+		return new String(res);
+	}
+
+	/*
+	 * A pair of sequences of the given length taken from the genome (repeated if needed) and a copy with ~10% divergence
+	 */
+	static String[] editDistancePair(int length) throws Exception
+	{
+		String genome = genomeSequence();
+		StringBuilder a = new StringBuilder();
+		while(a.length() < length)
+		{
+			a.append(genome);
+		}
+		String from = a.substring(0, length);
+		Random r = new Random(SEED);
+		StringBuilder to = new StringBuilder();
+		for(int i = 0; i<from.length(); i++)
+		{
+			double x = r.nextDouble();
+			if(x < 0.04) continue;
+			to.append(x < 0.08 ? "ACGT".charAt(r.nextInt(4)) : from.charAt(i));
+			if(x > 0.98) to.append("ACGT".charAt(r.nextInt(4)));
+		}
+		return new String[] {from, to.toString()};
+	}
+}
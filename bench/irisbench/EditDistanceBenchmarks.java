@@ -0,0 +1,69 @@
+package irisbench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Edit distance between an original and refined sequence, as computed for the results table
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditDistanceBenchmarks {
+
+	static final MethodHandle TABLE_EDIT_DISTANCE = Hooks.method("ResultsTableWriter", "editDistance", String.class, String.class);
+	static final MethodHandle BANDED = Hooks.method("EditDistance", "distance", byte[].class, byte[].class, int.class);
+	static final MethodHandle SEARCH = Hooks.method("EditDistance", "searchDistance", String.class, String.class);
+
+	@Param({"1000", "10000"})
+	int length;
+
+	String from, to;
+	byte[] fromBytes, toBytes;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		String[] pair = BenchData.editDistancePair(length);
+		from = pair[0];
+		to = pair[1];
+		fromBytes = from.getBytes();
+		toBytes = to.getBytes();
+	}
+
+	@Benchmark
+	public Object resultsTableDistance() throws Throwable
+	{
+		return TABLE_EDIT_DISTANCE.invoke(from, to);
+	}
+
+	/*
+	 * With the cutoff EvaluateSimulatedAccuracy uses at its default similarity threshold
+	 */
+	@Benchmark
+	public Object bandedDistance() throws Throwable
+	{
+		return BANDED.invoke(fromBytes, toBytes, length / 2 + 1);
+	}
+
+	@Benchmark
+	public Object searchDistance() throws Throwable
+	{
+		return SEARCH.invoke(from, to);
+	}
+}
@@ -0,0 +1,65 @@
+package irisbench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Reading regions of the reference genome
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenomeBenchmarks {
+
+	static final MethodHandle NEW_QUERY = Hooks.constructor("IrisGenomeQuery", String.class);
+	static final MethodHandle SUBSTRING = Hooks.method("IrisGenomeQuery", "genomeSubstring", String.class, long.class, long.class);
+
+	static final int STARTS = 1024;
+
+	// The length of the region - padding bases, a racon window, and a genome sample
+	@Param({"1", "2000", "100000"})
+	int length;
+
+	Object gq;
+	String chr;
+	long[] starts;
+	int next;
+
+	@Setup
+	public void setup() throws Throwable
+	{
+		gq = NEW_QUERY.invoke(BenchData.genomeCopy());
+		chr = BenchData.genomeName();
+		int genomeLength = BenchData.genomeSequence().length();
+		Random r = new Random(BenchData.SEED);
+		starts = new long[STARTS];
+		for(int i = 0; i<STARTS; i++)
+		{
+			starts[i] = 1 + r.nextInt(Math.max(1, genomeLength - length));
+		}
+	}
+
+	@Benchmark
+	public Object genomeSubstring() throws Throwable
+	{
+		next = (next + 1) & (STARTS - 1);
+		long start = starts[next];
+		return SUBSTRING.invoke(gq, chr, start, start + length - 1);
+	}
+}
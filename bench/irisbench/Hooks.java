@@ -0,0 +1,65 @@
+package irisbench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/*
+ * Access to the Iris classes from the benchmarks.  JMH requires benchmarks to be in a named package,
+ * but Iris is in the default package, which can't be imported, so methods are looked up reflectively
+ * once and stored in static final method handles, which the JIT compiles like direct calls.
+ */
+public class Hooks {
+
+	static Class<?> irisClass(String name)
+	{
+		try {
+			return Class.forName(name);
+		} catch(ClassNotFoundException e) {
+			throw new IllegalStateException("Iris class not on the classpath: " + name, e);
+		}
+	}
+
+	/*
+	 * A handle to a method of an Iris class, which is static or takes the object as its first argument
+	 */
+	static MethodHandle method(String className, String methodName, Class<?>... paramTypes)
+	{
+		try {
+			Method m = irisClass(className).getDeclaredMethod(methodName, paramTypes);
+			m.setAccessible(true);
+			return MethodHandles.lookup().unreflect(m);
+		} catch(Exception e) {
+			throw new IllegalStateException("Could not find " + className + "." + methodName, e);
+		}
+	}
+
+	/*
+	 * A handle to a constructor of an Iris class
+	 */
+	static MethodHandle constructor(String className, Class<?>... paramTypes)
+	{
+		try {
+			Constructor<?> c = irisClass(className).getDeclaredConstructor(paramTypes);
+			c.setAccessible(true);
+			return MethodHandles.lookup().unreflectConstructor(c);
+		} catch(Exception e) {
+			throw new IllegalStateException("Could not find constructor of " + className, e);
+		}
+	}
+
+	/*
+	 * Sets a static field such as one of the IrisSettings
+	 */
+	static void setStatic(String className, String fieldName, Object value)
+	{
+		try {
+			java.lang.reflect.Field f = irisClass(className).getDeclaredField(fieldName);
+			f.setAccessible(true);
+			f.set(null, value);
+		} catch(Exception e) {
+			throw new IllegalStateException("Could not set " + className + "." + fieldName, e);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package irisbench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Parsing, querying, editing, and printing VCF records, per record
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VcfBenchmarks {
+
+	static final MethodHandle NEW_ENTRY = Hooks.constructor("IrisVcfEntry", String.class);
+	static final MethodHandle GET_INFO = Hooks.method("IrisVcfEntry", "getInfo", String.class);
+	static final MethodHandle SET_INFO = Hooks.method("IrisVcfEntry", "setInfo", String.class, String.class);
+	static final MethodHandle GET_KEY = Hooks.method("IrisVcfEntry", "getKey");
+	static final MethodHandle GET_LENGTH = Hooks.method("IrisVcfEntry", "getLength");
+
+	static final int LINES = 1024;
+
+	String[] lines;
+	int next;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		lines = BenchData.vcfLines(LINES);
+	}
+
+	String nextLine()
+	{
+		next = (next + 1) & (LINES - 1);
+		return lines[next];
+	}
+
+	@Benchmark
+	public Object parseLine() throws Throwable
+	{
+		return NEW_ENTRY.invoke(nextLine());
+	}
+
+	@Benchmark
+	public void getInfoFields(Blackhole bh) throws Throwable
+	{
+		Object entry = NEW_ENTRY.invoke(nextLine());
+		bh.consume(GET_INFO.invoke(entry, "SVTYPE"));
+		bh.consume(GET_INFO.invoke(entry, "SVLEN"));
+		bh.consume(GET_INFO.invoke(entry, "RNAMES"));
+		bh.consume(GET_INFO.invoke(entry, "END"));
+		bh.consume(GET_KEY.invoke(entry));
+		bh.consume(GET_LENGTH.invoke(entry));
+	}
+
+	@Benchmark
+	public Object setInfoFields() throws Throwable
+	{
+		Object entry = NEW_ENTRY.invoke(nextLine());
+		SET_INFO.invoke(entry, "IRIS_PROCESSED", "1");
+		SET_INFO.invoke(entry, "END", "12345");
+		SET_INFO.invoke(entry, "SVLEN", "70");
+		SET_INFO.invoke(entry, "IRIS_REFINED", "1");
+		return entry;
+	}
+
+	/*
+	 * What VcfEditor does to every record: parse, look up the key, mark it processed, and print it
+	 */
+	@Benchmark
+	public Object roundTrip() throws Throwable
+	{
+		Object entry = NEW_ENTRY.invoke(nextLine());
+		GET_KEY.invoke(entry);
+		SET_INFO.invoke(entry, "IRIS_PROCESSED", "1");
+		SET_INFO.invoke(entry, "IRIS_REFINED", "0");
+		return entry.toString();
+	}
+}
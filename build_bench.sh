@@ -0,0 +1,52 @@
+if [ "$(uname -s)" = 'Linux' ]; then
+    BINDIR=$(dirname "$(readlink -f "$0" || echo "$(echo "$0" | sed -e 's,\\,/,g')")")
+else
+    BINDIR=$(dirname "$(readlink "$0" || echo "$(echo "$0" | sed -e 's,\\,/,g')")")
+fi
+
+# Builds bench/benchmarks.jar, a runnable JMH jar with the Iris classes and the benchmarks in bench/irisbench
+# The JMH jars are downloaded into bench/lib the first time
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+LIBDIR=$BINDIR/bench/lib
+BUILDDIR=$BINDIR/bench/build
+
+# Each jar is checked against its SHA-256 sum from Maven Central (for JMH_VERSION), whether it was just downloaded
+# or left from an earlier build
+if command -v sha256sum > /dev/null; then
+    SHA256="sha256sum"
+else
+    SHA256="shasum -a 256"
+fi
+
+mkdir -p $LIBDIR
+while read sum dep
+do
+    jar=$LIBDIR/$(basename $dep)
+    if [ ! -f $jar ]; then
+        curl -sSfL -o $jar $MAVEN/$dep || exit 1
+    fi
+    if [ "$($SHA256 $jar | cut -d ' ' -f 1)" != "$sum" ]; then
+        echo "Checksum mismatch for $jar - deleting it" >&2
+        rm -f $jar
+        exit 1
+    fi
+done << EOF
+dc0eaf2bbf0036a70b60798c785d6e03a9daf06b68b8edb0f1ba9eb3421baeb3 org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar
+6a5604b5b804e0daca1145df1077609321687734a8b49387e49f10557c186c77 org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar
+df26cc58f235f477db07f753ba5a3ab243ebe5789d9f89ecf68dd62ea9a66c28 net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar
+1e56d7b058d28b65abd256b8458e3885b674c1d588fa43cd7d1cbb9c7ef2b308 org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar
+EOF
+
+rm -rf $BUILDDIR
+mkdir -p $BUILDDIR
+javac -cp "$LIBDIR/*" -d $BUILDDIR $BINDIR/src/*.java $BINDIR/bench/irisbench/*.java || exit 1
+
+# Unpack the runtime dependencies so the jar is self-contained
+cd $BUILDDIR
+for dep in jmh-core jopt-simple commons-math3
+do
+    unzip -qo $LIBDIR/$dep-*.jar -x 'META-INF/MANIFEST.MF'
+done
+jar -c -e org.openjdk.jmh.Main -f $BINDIR/bench/benchmarks.jar .
+cd $BINDIR
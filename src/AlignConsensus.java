@@ -1,5 +1,6 @@
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Scanner;
@@ -12,32 +13,98 @@ public class AlignConsensus {
 	/*
 	 * Given the assembled sequences, align them to a region of the reference with ngmlr
 	 */
-	static ArrayList<String> getConsensusAlignmentRecords(String id, ArrayList<String> consensusSequences, IrisGenomeQuery gq) throws Exception
+	static ArrayList<AlignmentRecord> getConsensusAlignmentRecords(String id, ArrayList<String> consensusSequences, IrisGenomeQuery gq) throws Exception
 	{
-		String alignInFn = IrisSettings.addOutDir(id + ".align.in");
-		String alignOutFn = IrisSettings.addOutDir(id + ".align.out");
-		String genomeSampleFn = IrisSettings.addOutDir(id + ".region.fa");
-		writeMinimapInput(consensusSequences, alignInFn);
-		writeGenomeSample(id, genomeSampleFn, gq);
+		if(IrisSettings.CONSENSUS_ALIGNER.equals("embedded"))
+		{
+			ArrayList<AlignmentRecord> res = EmbeddedAligner.getConsensusAlignmentRecords(id, consensusSequences, gq);
+			if(res != null)
+			{
+				return res;
+			}
+		}
 		
-		executeMinimap(alignInFn, genomeSampleFn, alignOutFn);
+		if(!MinimapIndexCache.enabled())
+		{
+			return alignToReference(id, consensusSequences, gq, null);
+		}
 		
-		ArrayList<String> res = getMinimapAlignmentStrings(alignOutFn);
+		MinimapIndexCache cache = MinimapIndexCache.get();
+		MinimapIndexCache.Index index = cache.acquire(id, gq);
+		try {
+			ArrayList<AlignmentRecord> res = alignToReference(id, consensusSequences, gq, index.fileName);
+			
+			// The index covers more of the genome than the variant's own sample, so shift the alignments to be relative to that
+			long shift = index.start - genomeSampleStart(id);
+			for(AlignmentRecord record : res)
+			{
+				if(record.isAligned())
+				{
+					record.pos += shift;
+				}
+			}
+			return res;
+		} finally {
+			cache.release(index);
+		}
+	}
+	
+	/*
+	 * Aligns the assembled sequences with minimap2 to a prebuilt index, or to the region around the variant if the index is null
+	 */
+	static ArrayList<AlignmentRecord> alignToReference(String id, ArrayList<String> consensusSequences, IrisGenomeQuery gq, String index) throws Exception
+	{
+		String genomeSampleFn = IrisSettings.addScratchDir(id + ".region.fa");
+		String reference = index == null ? genomeSampleFn : index;
+		if(IrisSettings.CLEAN_INTERMEDIATE_FILES && !ExternalTool.pooled())
+		{
+			// Stream the consensus sequences in and the alignments out so only the genome sample needs a file
+			if(index == null)
+			{
+				writeGenomeSample(id, genomeSampleFn, gq);
+			}
+			try {
+				return executeMinimapPiped(makeMinimapInput(consensusSequences), reference);
+			} finally {
+				new File(genomeSampleFn).delete();
+			}
+		}
 		
-		if(IrisSettings.CLEAN_INTERMEDIATE_FILES)
+		// Helper shells from the tool pool can only pass data through files
+		String alignInFn = IrisSettings.addScratchDir(id + ".align.in");
+		String alignOutFn = IrisSettings.addScratchDir(id + ".align.out");
+		writeMinimapInput(consensusSequences, alignInFn);
+		if(index == null)
 		{
-			new File(alignInFn).delete();
-			new File(alignOutFn).delete();
-			new File(genomeSampleFn).delete();
+			writeGenomeSample(id, genomeSampleFn, gq);
+		}
+		
+		try {
+			executeMinimap(alignInFn, reference, alignOutFn);
+			return getMinimapAlignments(alignOutFn);
+		} finally {
+			if(IrisSettings.CLEAN_INTERMEDIATE_FILES)
+			{
+				new File(alignInFn).delete();
+				new File(alignOutFn).delete();
+				new File(genomeSampleFn).delete();
+			}
 		}
-		return res;
+	}
+	
+	/*
+	 * The 1-based genome position where the region a variant's consensus sequences are aligned to starts
+	 */
+	static long genomeSampleStart(String id)
+	{
+		return Math.max(1, IrisVcfEntry.getPosFromKey(id) - IrisSettings.GENOME_REGION_BUFFER);
 	}
 	
 	static void writeGenomeSample(String id, String gsFn, IrisGenomeQuery gq) throws Exception
 	{
 		String chr = IrisVcfEntry.getChrFromKey(id);
 		long pos = IrisVcfEntry.getPosFromKey(id);
-		long start = Math.max(1, pos - IrisSettings.GENOME_REGION_BUFFER);
+		long start = genomeSampleStart(id);
 		long end = pos + IrisSettings.GENOME_REGION_BUFFER;
 		String sample = gq.genomeSubstring(chr, start, end);
 		
@@ -52,12 +119,22 @@ public class AlignConsensus {
 	static void writeMinimapInput(ArrayList<String> seqs, String minimapInputFileName) throws Exception
 	{
 		PrintWriter out = new PrintWriter(new File(minimapInputFileName));
+		out.print(makeMinimapInput(seqs));
+		out.close();
+	}
+	
+	/*
+	 * Makes the FASTA-format text of the assembled sequences
+	 */
+	static String makeMinimapInput(ArrayList<String> seqs)
+	{
+		StringBuilder sb = new StringBuilder();
 		int n = seqs.size();
 		for(int i = 0; i<n; i++)
 		{
-			out.println(String.format(">consensus%d\n%s", i, seqs.get(i)));
+			sb.append(">consensus" + i + "\n" + seqs.get(i) + "\n");
 		}
-		out.close();
+		return sb.toString();
 	}
 	
 	/*
@@ -65,26 +142,70 @@ public class AlignConsensus {
 	 */
 	static void executeMinimap(String minimapIn, String genomeSample, String minimapOut) throws Exception
 	{
-		String minimapCommand = String.format(
-				 "%s -L -c -a -x %s -t %d %s %s -o %s", 
-				 IrisSettings.MINIMAP_PATH, IrisSettings.MINIMAP_MODE, IrisSettings.ALIGNMENT_THREADS,
-				 genomeSample, minimapIn, minimapOut);
-		ArrayList<String> fullMinimapCommand = new ArrayList<String>();
-		for(String s : minimapCommand.split(" ")) fullMinimapCommand.add(s);
-		Process child = new ProcessBuilder()
-				.command(fullMinimapCommand)
-				.start();
-		int p = child.waitFor();
-		if(p != 0)
-		{
-			throw new Exception("error running minimap on " + minimapIn);
+		int threads = ExternalTool.claimThreads();
+		try {
+			String minimapCommand = String.format(
+					 "%s -L -c -a -x %s -t %d %s %s -o %s", 
+					 IrisSettings.MINIMAP_PATH, IrisSettings.MINIMAP_MODE, threads,
+					 genomeSample, minimapIn, minimapOut);
+			int p = ExternalTool.runShell(ExternalTool.MINIMAP, minimapCommand);
+			if(p != 0)
+			{
+				throw new Exception("error running minimap on " + minimapIn);
+			}
+		} finally {
+			ExternalTool.releaseThreads(threads);
+		}
+	}
+	
+	/*
+	 * Run minimap2 with the query sequences passed through standard input, and return the alignment records it outputs
+	 */
+	static ArrayList<AlignmentRecord> executeMinimapPiped(final String minimapIn, String genomeSample) throws Exception
+	{
+		int threads = ExternalTool.claimThreads();
+		try {
+			String minimapCommand = String.format(
+					 "%s -L -c -a -x %s -t %d %s -", 
+					 IrisSettings.MINIMAP_PATH, IrisSettings.MINIMAP_MODE, threads,
+					 genomeSample);
+			ArrayList<String> fullMinimapCommand = new ArrayList<String>();
+			for(String s : minimapCommand.split(" ")) fullMinimapCommand.add(s);
+			final ExternalTool.Handle child = ExternalTool.start(ExternalTool.MINIMAP, new ProcessBuilder()
+					.command(fullMinimapCommand)
+					.redirectError(ProcessBuilder.Redirect.DISCARD));
+		
+			// Write the input on a separate thread so a full output pipe can't block it
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						OutputStream stdin = child.process.getOutputStream();
+						stdin.write(minimapIn.getBytes());
+						stdin.close();
+					} catch (Exception e) {
+						// The process exited early, which is caught by the exit code check below
+					}
+				}
+			};
+			writer.start();
+			ArrayList<AlignmentRecord> res = getMinimapAlignments(new Scanner(child.process.getInputStream()));
+			writer.join();
+			int p = ExternalTool.waitFor(ExternalTool.MINIMAP, child);
+			if(p != 0)
+			{
+				throw new Exception("error running minimap on " + genomeSample);
+			}
+			return res;
+		} finally {
+			ExternalTool.releaseThreads(threads);
 		}
 	}
 	
 	/*
 	 * Given the output produced from minimap, get all of the alignment records
 	 */
-	static ArrayList<String> getMinimapAlignmentStrings(String minimapOutputFileName) throws Exception
+	static ArrayList<AlignmentRecord> getMinimapAlignments(String minimapOutputFileName) throws Exception
 	{
 		File toRead = new File(minimapOutputFileName);
 		if(!toRead.exists())
@@ -92,16 +213,22 @@ public class AlignConsensus {
 			throw new Exception("could not find minimap output file: " + minimapOutputFileName);
 		}
 		
-		ArrayList<String> alignmentRecords = new ArrayList<String>();
-				
-		Scanner input = new Scanner(new FileInputStream(toRead));
+		return getMinimapAlignments(new Scanner(new FileInputStream(toRead)));
+	}
+	
+	/*
+	 * Gets all of the alignment records from minimap's output
+	 */
+	static ArrayList<AlignmentRecord> getMinimapAlignments(Scanner input) throws Exception
+	{
+		ArrayList<AlignmentRecord> alignmentRecords = new ArrayList<AlignmentRecord>();
+		
 		while(input.hasNext())
 		{
 			String line = input.nextLine();
 			if(!line.startsWith("@"))
 			{
-				//System.out.println(line);
-				alignmentRecords.add(line);
+				alignmentRecords.add(AlignmentRecord.parse(line));
 			}
 		}
 		
@@ -8,11 +8,11 @@ import java.util.Scanner;
 
 public class AlignmentParser {
 	
-	ArrayList<Alignment> alns;
+	ArrayList<AlignmentRecord> alns;
 	AlignmentParser(String fn)  throws Exception
 	{
 		Scanner input = new Scanner(new FileInputStream(new File(fn)));
-		alns = new ArrayList<Alignment>();
+		alns = new ArrayList<AlignmentRecord>();
 		while(input.hasNext())
 		{
 			String line = input.nextLine();
@@ -20,7 +20,7 @@ public class AlignmentParser {
 			{
 				continue;
 			}
-			alns.add(new Alignment(line));
+			alns.add(AlignmentRecord.parse(line));
 		}
 		input.close();
 	}
@@ -28,7 +28,7 @@ public class AlignmentParser {
 	int countAlignedReads()
 	{
 		int res = 0;
-		for(Alignment aln : alns)
+		for(AlignmentRecord aln : alns)
 		{
 			if(aln.isAligned())
 			{
@@ -37,21 +37,4 @@ public class AlignmentParser {
 		}
 		return res;
 	}
-	
-	class Alignment
-	{
-		String[] fields;
-		Alignment(String line)
-		{
-			fields = line.split("\t");
-		}
-		int getFlag()
-		{
-			return Integer.parseInt(fields[1]);
-		}
-		boolean isAligned()
-		{
-			return (getFlag() & 4) == 0;
-		}
-	}
 }
@@ -0,0 +1,178 @@
+/*
+ * A parsed SAM alignment record, holding just the fields Iris uses.
+ * The CIGAR string is stored in the same packed form as BAM files, with each operation as (length << 4 | type)
+ * where type is the index of the operation in CIGAR_OPS.
+ */
+public class AlignmentRecord {
+
+	static final String CIGAR_OPS = "MIDNSHP=X";
+
+	String name;
+	int flag;
+
+	// 1-based position of the first aligned reference base
+	long pos;
+
+	int[] cigar;
+
+	// The query sequence, or null if the record doesn't include it
+	byte[] query;
+
+	AlignmentRecord(String name, int flag, long pos, int[] cigar, byte[] query)
+	{
+		this.name = name;
+		this.flag = flag;
+		this.pos = pos;
+		this.cigar = cigar;
+		this.query = query;
+	}
+
+	/*
+	 * Parses a line of a SAM file, only splitting out the fields which are needed
+	 */
+	static AlignmentRecord parse(String line) throws Exception
+	{
+		String[] fields = new String[10];
+		int start = 0;
+		for(int i = 0; i<fields.length; i++)
+		{
+			int end = line.indexOf('\t', start);
+			if(end == -1)
+			{
+				if(i < fields.length - 1)
+				{
+					throw new Exception("Too few fields in alignment record: " + line);
+				}
+				end = line.length();
+			}
+			fields[i] = line.substring(start, end);
+			start = end + 1;
+		}
+
+		try {
+			int flag = Integer.parseInt(fields[1]);
+			long pos = Long.parseLong(fields[3]);
+			int[] cigar = parseCigar(fields[5]);
+			byte[] query = fields[9].equals("*") ? null : fields[9].getBytes();
+			return new AlignmentRecord(fields[0], flag, pos, cigar, query);
+		} catch(NumberFormatException e) {
+			throw new Exception("Error parsing alignment record: " + line);
+		}
+	}
+
+	/*
+	 * Converts a CIGAR string to its packed form - "*" gives an empty list of operations
+	 */
+	static int[] parseCigar(String cigarString) throws Exception
+	{
+		if(cigarString.equals("*"))
+		{
+			return new int[0];
+		}
+		int count = 0;
+		for(int i = 0; i<cigarString.length(); i++)
+		{
+			char c = cigarString.charAt(i);
+			if(c < '0' || c > '9')
+			{
+				count++;
+			}
+		}
+		int[] res = new int[count];
+		int idx = 0;
+		int segmentLength = 0;
+		for(int i = 0; i<cigarString.length(); i++)
+		{
+			char c = cigarString.charAt(i);
+			if(c >= '0' && c <= '9')
+			{
+				segmentLength = segmentLength * 10 + (c - '0');
+			}
+			else
+			{
+				int type = CIGAR_OPS.indexOf(c);
+				if(type == -1)
+				{
+					throw new Exception("Invalid CIGAR operation " + c + " in " + cigarString);
+				}
+				res[idx++] = (segmentLength << 4) | type;
+				segmentLength = 0;
+			}
+		}
+		return res;
+	}
+
+	/*
+	 * Converts a packed CIGAR back to a string
+	 */
+	static String cigarString(int[] cigar)
+	{
+		if(cigar.length == 0)
+		{
+			return "*";
+		}
+		StringBuilder res = new StringBuilder();
+		for(int op : cigar)
+		{
+			res.append(opLength(op)).append(opChar(op));
+		}
+		return res.toString();
+	}
+
+	static int opLength(int op)
+	{
+		return op >>> 4;
+	}
+
+	static char opChar(int op)
+	{
+		return CIGAR_OPS.charAt(op & 0xf);
+	}
+
+	/*
+	 * Whether or not a given CIGAR operation advances the position in the reference
+	 */
+	static boolean advancesReference(int op)
+	{
+		int type = op & 0xf;
+		return type == 0 || type == 2 || type == 3 || type == 7 || type == 8;
+	}
+
+	/*
+	 * Whether or not a given CIGAR operation advances the position in the query
+	 */
+	static boolean advancesQuery(int op)
+	{
+		int type = op & 0xf;
+		return type == 0 || type == 1 || type == 4 || type == 7 || type == 8;
+	}
+
+	/*
+	 * The number of reference bases covered by an alignment
+	 */
+	static long referenceLength(int[] cigar)
+	{
+		long res = 0;
+		for(int op : cigar)
+		{
+			if(advancesReference(op))
+			{
+				res += opLength(op);
+			}
+		}
+		return res;
+	}
+
+	boolean isAligned()
+	{
+		return (flag & 4) == 0;
+	}
+
+	/*
+	 * Gets part of the query sequence, 0-based and half-open
+	 */
+	String querySubstring(int start, int end)
+	{
+		return new String(query, start, end - start);
+	}
+}
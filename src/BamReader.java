@@ -0,0 +1,643 @@
+/*
+ * A minimal reader for coordinate-sorted, indexed BAM files.
+ * It parses the header and .bai index once per file, and then region queries seek directly to
+ * the relevant BGZF blocks and decode alignment records without going through samtools.
+ */
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class BamReader {
+
+	// Readers which have already been opened, so the header and index are only parsed once per file
+	static ConcurrentHashMap<String, BamReader> openReaders = new ConcurrentHashMap<String, BamReader>();
+
+	String filename;
+	String[] refNames;
+	HashMap<String, Integer> refIds;
+
+	// For each reference sequence, the linear index of the smallest virtual file offset of any alignment overlapping each 16 kbp window
+	long[][] linearIndex;
+
+	// For each reference sequence, the smallest virtual file offset of any of its alignments (or -1 if there are none)
+	long[] firstOffset;
+
+	// Offset of the first alignment record after the header
+	long dataStart;
+
+	/*
+	 * Gets the reader for a BAM file, parsing its header and index the first time it is needed
+	 */
+	static BamReader get(String filename) throws Exception
+	{
+		BamReader res = openReaders.get(filename);
+		if(res == null)
+		{
+			res = new BamReader(filename);
+			BamReader prev = openReaders.putIfAbsent(filename, res);
+			if(prev != null)
+			{
+				res = prev;
+			}
+		}
+		return res;
+	}
+
+	BamReader(String filename) throws Exception
+	{
+		this.filename = filename;
+		if(!new File(filename).exists())
+		{
+			throw new Exception("BAM file does not exist: " + filename);
+		}
+		readHeader();
+		readIndex(filename + ".bai");
+	}
+
+	/*
+	 * Reads in the reference sequence names from the BAM header
+	 */
+	void readHeader() throws Exception
+	{
+		BgzfReader in = new BgzfReader(filename);
+		try {
+			in.seek(0);
+			byte[] magic = new byte[4];
+			in.readFully(magic, 0, 4);
+			if(magic[0] != 'B' || magic[1] != 'A' || magic[2] != 'M' || magic[3] != 1)
+			{
+				throw new Exception("not a valid BAM file: " + filename);
+			}
+			int textLength = in.readInt();
+			in.skip(textLength);
+			int numRefs = in.readInt();
+			refNames = new String[numRefs];
+			refIds = new HashMap<String, Integer>();
+			for(int i = 0; i<numRefs; i++)
+			{
+				int nameLength = in.readInt();
+				byte[] name = new byte[nameLength];
+				in.readFully(name, 0, nameLength);
+				refNames[i] = new String(name, 0, nameLength - 1);
+				refIds.put(refNames[i], i);
+				in.readInt();
+			}
+			dataStart = in.virtualOffset();
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * Reads in the linear index and the first alignment offset of each reference from a .bai file
+	 */
+	void readIndex(String indexFilename) throws Exception
+	{
+		if(!new File(indexFilename).exists())
+		{
+			throw new Exception("BAM index does not exist: " + indexFilename);
+		}
+		byte[] data = Files.readAllBytes(new File(indexFilename).toPath());
+		ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		if(data.length < 8 || data[0] != 'B' || data[1] != 'A' || data[2] != 'I' || data[3] != 1)
+		{
+			throw new Exception("not a valid BAM index: " + indexFilename);
+		}
+		buf.position(4);
+		int numRefs = buf.getInt();
+		linearIndex = new long[numRefs][];
+		firstOffset = new long[numRefs];
+		for(int i = 0; i<numRefs; i++)
+		{
+			firstOffset[i] = -1;
+			int numBins = buf.getInt();
+			for(int j = 0; j<numBins; j++)
+			{
+				int bin = buf.getInt();
+				int numChunks = buf.getInt();
+				for(int k = 0; k<numChunks; k++)
+				{
+					long chunkStart = buf.getLong();
+					buf.getLong();
+
+					// Bin 37450 holds metadata rather than alignments
+					if(bin != 37450 && (firstOffset[i] == -1 || Long.compareUnsigned(chunkStart, firstOffset[i]) < 0))
+					{
+						firstOffset[i] = chunkStart;
+					}
+				}
+			}
+			int numIntervals = buf.getInt();
+			linearIndex[i] = new long[numIntervals];
+			for(int j = 0; j<numIntervals; j++)
+			{
+				linearIndex[i][j] = buf.getLong();
+			}
+		}
+	}
+
+	/*
+	 * Gets the virtual offset to start scanning from in order to see every alignment overlapping a 0-based position
+	 */
+	long startOffset(int refId, long start)
+	{
+		long[] intervals = linearIndex[refId];
+		int window = (int)Math.min(start >> 14, intervals.length - 1);
+		for(int i = window; i >= 0; i--)
+		{
+			if(intervals[i] != 0)
+			{
+				return Math.max(intervals[i], firstOffset[refId]);
+			}
+		}
+		return firstOffset[refId];
+	}
+
+	/*
+	 * Get all alignments overlapping the 1-based inclusive region chr:start-end, in the same way as samtools view
+	 * Returns null if the chromosome is not in the BAM file
+	 */
+	RegionIterator query(String chr, long start, long end) throws Exception
+	{
+		Integer refId = refIds.get(chr);
+		if(refId == null || refId >= linearIndex.length || firstOffset[refId] == -1)
+		{
+			return null;
+		}
+		return new RegionIterator(refId, Math.max(start, 1) - 1, end);
+	}
+
+	/*
+	 * Iterates over the alignments overlapping a region, decoding only those which pass a name filter
+	 */
+	class RegionIterator
+	{
+		BgzfReader in;
+		int refId;
+		long start, end;
+		boolean done;
+		byte[] buf = new byte[1 << 12];
+
+		RegionIterator(int refId, long start, long end) throws Exception
+		{
+			this.refId = refId;
+			this.start = start;
+			this.end = end;
+			in = new BgzfReader(filename);
+			in.seek(startOffset(refId, start));
+			done = false;
+		}
+
+		/*
+		 * Gets the next overlapping alignment whose read name is in the given set (or any alignment if names is null)
+		 * Returns null once the region has been exhausted
+		 */
+		Record next(Set<String> names) throws Exception
+		{
+			while(!done)
+			{
+				int blockSize;
+				try {
+					blockSize = in.readInt();
+				} catch(EOFException e) {
+					done = true;
+					break;
+				}
+				if(buf.length < blockSize)
+				{
+					buf = new byte[Math.max(blockSize, 2 * buf.length)];
+				}
+				in.readFully(buf, 0, blockSize);
+
+				int recordRef = readInt(buf, 0);
+				long pos = readInt(buf, 4);
+
+				// Stop once we are past the region since the file is sorted
+				if(recordRef != refId || pos >= end)
+				{
+					done = true;
+					break;
+				}
+
+				int nameLength = buf[8] & 0xff;
+				int numCigarOps = readUnsignedShort(buf, 12);
+
+				// Check the read name before doing any other decoding
+				String name = new String(buf, 32, nameLength - 1, StandardCharsets.US_ASCII);
+				if(names != null && !names.contains(name))
+				{
+					continue;
+				}
+
+				int cigarStart = 32 + nameLength;
+				int[] cigar = new int[numCigarOps];
+				for(int i = 0; i<numCigarOps; i++)
+				{
+					cigar[i] = readInt(buf, cigarStart + 4 * i);
+				}
+
+				int seqLength = readInt(buf, 16);
+				int seqStart = cigarStart + 4 * numCigarOps;
+				int qualStart = seqStart + (seqLength + 1) / 2;
+
+				// Very long CIGAR strings are stored in the CG tag with a placeholder in the CIGAR field
+				if(numCigarOps == 2 && (cigar[0] & 0xf) == 4 && (cigar[0] >>> 4) == seqLength && (cigar[1] & 0xf) == 3)
+				{
+					int[] fullCigar = getLongCigar(buf, qualStart + seqLength, blockSize);
+					if(fullCigar != null)
+					{
+						cigar = fullCigar;
+					}
+				}
+
+				// Unmapped reads with a position are treated as covering a single base
+				long recordEnd = pos + Math.max(1, Record.referenceLength(cigar));
+				if(recordEnd <= start)
+				{
+					continue;
+				}
+
+				byte[] seq = new byte[seqLength];
+				for(int i = 0; i<seqLength; i++)
+				{
+					int code = (buf[seqStart + (i >> 1)] >> ((i & 1) == 0 ? 4 : 0)) & 0xf;
+					seq[i] = SEQ_CODES[code];
+				}
+				byte[] qual = new byte[seqLength];
+				System.arraycopy(buf, qualStart, qual, 0, seqLength);
+
+				Record res = new Record();
+				res.name = name;
+				res.flag = readUnsignedShort(buf, 14);
+				res.refId = recordRef;
+				res.pos = pos;
+				res.cigar = cigar;
+				res.seq = seq;
+				res.qual = qual;
+				return res;
+			}
+			return null;
+		}
+
+		void close() throws Exception
+		{
+			in.close();
+		}
+	}
+
+	/*
+	 * Gets the CIGAR from the CG tag in a record's auxiliary fields, or null if there is no such tag
+	 */
+	static int[] getLongCigar(byte[] b, int offset, int end)
+	{
+		while(offset + 3 <= end)
+		{
+			char tag1 = (char)b[offset], tag2 = (char)b[offset+1], type = (char)b[offset+2];
+			offset += 3;
+			if(type == 'B')
+			{
+				char subtype = (char)b[offset];
+				int count = readInt(b, offset + 1);
+				offset += 5;
+				if(tag1 == 'C' && tag2 == 'G' && (subtype == 'I' || subtype == 'i'))
+				{
+					int[] res = new int[count];
+					for(int i = 0; i<count; i++)
+					{
+						res[i] = readInt(b, offset + 4 * i);
+					}
+					return res;
+				}
+				offset += count * auxTypeSize(subtype);
+			}
+			else if(type == 'Z' || type == 'H')
+			{
+				while(offset < end && b[offset] != 0) offset++;
+				offset++;
+			}
+			else
+			{
+				int size = auxTypeSize(type);
+				if(size == 0)
+				{
+					return null;
+				}
+				offset += size;
+			}
+		}
+		return null;
+	}
+
+	static int auxTypeSize(char type)
+	{
+		switch(type)
+		{
+			case 'A': case 'c': case 'C': return 1;
+			case 's': case 'S': return 2;
+			case 'i': case 'I': case 'f': return 4;
+			default: return 0;
+		}
+	}
+
+	static final byte[] SEQ_CODES = "=ACMGRSVTWYHKDBN".getBytes();
+
+	static int readInt(byte[] b, int offset)
+	{
+		return (b[offset] & 0xff) | ((b[offset+1] & 0xff) << 8) | ((b[offset+2] & 0xff) << 16) | ((b[offset+3] & 0xff) << 24);
+	}
+
+	static int readUnsignedShort(byte[] b, int offset)
+	{
+		return (b[offset] & 0xff) | ((b[offset+1] & 0xff) << 8);
+	}
+
+	/*
+	 * A single decoded alignment - the CIGAR uses the BAM encoding of (length << 4) | op
+	 */
+	static class Record
+	{
+		String name;
+		int flag;
+		int refId;
+		long pos;
+		int[] cigar;
+		byte[] seq;
+		byte[] qual;
+
+		static long referenceLength(int[] cigar)
+		{
+			return AlignmentRecord.referenceLength(cigar);
+		}
+
+		boolean isReverse()
+		{
+			return (flag & 16) != 0;
+		}
+
+		/*
+		 * Whether or not this is a secondary or supplementary alignment
+		 */
+		boolean isSecondary()
+		{
+			return (flag & 0x900) != 0;
+		}
+
+		/*
+		 * Gets the read sequence in its original orientation, as samtools bam2fq would output it
+		 */
+		String originalSequence()
+		{
+			if(!isReverse())
+			{
+				return new String(seq);
+			}
+			char[] res = new char[seq.length];
+			for(int i = 0; i<seq.length; i++)
+			{
+				res[seq.length - 1 - i] = complement((char)seq[i]);
+			}
+			return new String(res);
+		}
+
+		/*
+		 * Gets the part of the read aligned to the reference window [windowStart, windowEnd) (0-based), in its original orientation
+		 * Where the alignment stops short of the window, the window is extended into the clipped bases by the
+		 * distance it falls short plus clipSlack, since reads are often clipped at a variant
+		 */
+		String windowSequence(long windowStart, long windowEnd, int clipSlack)
+		{
+			if(cigar.length == 0 || seq.length == 0)
+			{
+				return originalSequence();
+			}
+			long start = queryPosition(windowStart);
+			long end = queryPosition(windowEnd);
+			if(windowStart < pos)
+			{
+				start -= clipSlack;
+			}
+			if(windowEnd > pos + referenceLength(cigar))
+			{
+				end += clipSlack;
+			}
+			int from = (int)Math.max(0, Math.min(seq.length, start));
+			int to = (int)Math.max(from, Math.min(seq.length, end));
+			byte[] part = new byte[to - from];
+			if(!isReverse())
+			{
+				System.arraycopy(seq, from, part, 0, part.length);
+			}
+			else
+			{
+				for(int i = 0; i<part.length; i++)
+				{
+					part[part.length - 1 - i] = (byte)complement((char)seq[from + i]);
+				}
+			}
+			return new String(part);
+		}
+
+		/*
+		 * The position in the read's stored sequence lined up with a reference position, extrapolating past the ends of the alignment
+		 */
+		long queryPosition(long refPos)
+		{
+			long curRef = pos;
+			long curQuery = 0;
+			int i = 0;
+			while(i < cigar.length && (cigar[i] & 0xf) == 4)
+			{
+				curQuery += AlignmentRecord.opLength(cigar[i]);
+				i++;
+			}
+			if(refPos < curRef)
+			{
+				return curQuery - (curRef - refPos);
+			}
+			for(; i<cigar.length; i++)
+			{
+				int op = cigar[i], length = AlignmentRecord.opLength(op);
+				boolean advancesReference = AlignmentRecord.advancesReference(op);
+				boolean advancesQuery = AlignmentRecord.advancesQuery(op) && (op & 0xf) != 4;
+				if(advancesReference && refPos < curRef + length)
+				{
+					return advancesQuery ? curQuery + (refPos - curRef) : curQuery;
+				}
+				if(advancesReference)
+				{
+					curRef += length;
+				}
+				if(advancesQuery)
+				{
+					curQuery += length;
+				}
+			}
+			return curQuery + (refPos - curRef);
+		}
+
+		static char complement(char c)
+		{
+			switch(c)
+			{
+				case 'A': return 'T';
+				case 'C': return 'G';
+				case 'G': return 'C';
+				case 'T': return 'A';
+				case 'a': return 't';
+				case 'c': return 'g';
+				case 'g': return 'c';
+				case 't': return 'a';
+				case 'M': return 'K';
+				case 'K': return 'M';
+				case 'R': return 'Y';
+				case 'Y': return 'R';
+				case 'V': return 'B';
+				case 'B': return 'V';
+				case 'H': return 'D';
+				case 'D': return 'H';
+				default: return c;
+			}
+		}
+	}
+
+	/*
+	 * Reads the decompressed stream of a BGZF file, with seeking to virtual offsets
+	 */
+	static class BgzfReader
+	{
+		RandomAccessFile file;
+		Inflater inflater;
+		byte[] compressed = new byte[1 << 16];
+		byte[] block = new byte[1 << 16];
+		int blockLength;
+		int blockPos;
+		long blockAddress;
+		long nextBlockAddress;
+		byte[] intBuf = new byte[4];
+
+		BgzfReader(String filename) throws Exception
+		{
+			file = new RandomAccessFile(filename, "r");
+			inflater = new Inflater(true);
+		}
+
+		void seek(long virtualOffset) throws Exception
+		{
+			loadBlock(virtualOffset >>> 16);
+			blockPos = (int)(virtualOffset & 0xffff);
+		}
+
+		long virtualOffset()
+		{
+			if(blockPos == blockLength)
+			{
+				return nextBlockAddress << 16;
+			}
+			return (blockAddress << 16) | blockPos;
+		}
+
+		/*
+		 * Decompresses the block starting at a given file offset
+		 */
+		void loadBlock(long address) throws Exception
+		{
+			blockAddress = address;
+			blockPos = 0;
+			blockLength = 0;
+			if(address >= file.length())
+			{
+				nextBlockAddress = address;
+				return;
+			}
+			file.seek(address);
+			file.readFully(compressed, 0, 18);
+			if((compressed[0] & 0xff) != 31 || (compressed[1] & 0xff) != 139)
+			{
+				throw new Exception("invalid BGZF block at offset " + address);
+			}
+			int extraLength = readUnsignedShort(compressed, 10);
+
+			// The BSIZE field is assumed to be the first extra subfield, as it always is for BGZF
+			int totalSize = readUnsignedShort(compressed, 16) + 1;
+			file.readFully(compressed, 18, totalSize - 18);
+			int dataStart = 12 + extraLength;
+			int dataLength = totalSize - dataStart - 8;
+			blockLength = BamReader.readInt(compressed, totalSize - 4);
+			inflater.reset();
+			inflater.setInput(compressed, dataStart, dataLength);
+			try {
+				int inflated = 0;
+				while(inflated < blockLength)
+				{
+					int cur = inflater.inflate(block, inflated, blockLength - inflated);
+					if(cur == 0 && (inflater.finished() || inflater.needsInput()))
+					{
+						break;
+					}
+					inflated += cur;
+				}
+				if(inflated != blockLength)
+				{
+					throw new Exception("truncated BGZF block at offset " + address);
+				}
+			} catch(DataFormatException e) {
+				throw new Exception("corrupt BGZF block at offset " + address);
+			}
+			nextBlockAddress = address + totalSize;
+		}
+
+		void readFully(byte[] dest, int offset, int length) throws Exception
+		{
+			while(length > 0)
+			{
+				if(blockPos == blockLength)
+				{
+					// Empty blocks (such as the EOF marker) are skipped over
+					loadBlock(nextBlockAddress);
+					if(blockLength == 0 && nextBlockAddress == blockAddress)
+					{
+						throw new EOFException();
+					}
+					continue;
+				}
+				int count = Math.min(length, blockLength - blockPos);
+				System.arraycopy(block, blockPos, dest, offset, count);
+				blockPos += count;
+				offset += count;
+				length -= count;
+			}
+		}
+
+		int readInt() throws Exception
+		{
+			readFully(intBuf, 0, 4);
+			return BamReader.readInt(intBuf, 0);
+		}
+
+		void skip(int length) throws Exception
+		{
+			byte[] tmp = new byte[Math.min(length, 1 << 16)];
+			while(length > 0)
+			{
+				int count = Math.min(length, tmp.length);
+				readFully(tmp, 0, count);
+				length -= count;
+			}
+		}
+
+		void close() throws Exception
+		{
+			inflater.end();
+			file.close();
+		}
+	}
+}
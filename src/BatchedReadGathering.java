@@ -0,0 +1,284 @@
+/*
+ * Gathers the supporting reads of many variants at once by streaming through each chromosome of the
+ * read files a single time, rather than querying the window around each variant separately.
+ * Variants are handed off as soon as the stream moves past their window, so only the reads of variants
+ * near the current position are held in memory.
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+public class BatchedReadGathering {
+
+	SupportingReadMap readMap;
+
+	// The variants to gather reads for, sorted by position
+	String[] keys;
+
+	// Variants which should be passed along without gathering any reads, such as ones done in a previous run
+	Set<String> skip;
+
+	String[] readFiles;
+
+	BatchedReadGathering(SupportingReadMap readMap, String[] sortedKeys, Set<String> skip)
+	{
+		this.readMap = readMap;
+		this.keys = sortedKeys;
+		this.skip = skip;
+		readFiles = IrisSettings.READS_FILE.split(",");
+	}
+
+	/*
+	 * Whether or not the read files can be streamed directly
+	 */
+	static boolean supported()
+	{
+		for(String rfn : IrisSettings.READS_FILE.split(","))
+		{
+			if(rfn.endsWith(".cram"))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Streams through the read files and passes each variant's reads to the handler in position order
+	 * Skipped variants are passed along with a null list of reads
+	 */
+	void run(Handler handler) throws Exception
+	{
+		for(String rfn : readFiles)
+		{
+			ReadGathering.ensureIndexed(rfn);
+		}
+		int start = 0;
+		while(start < keys.length)
+		{
+			String chr = IrisVcfEntry.getChrFromKey(keys[start]);
+			int end = start;
+			while(end < keys.length && IrisVcfEntry.getChrFromKey(keys[end]).equals(chr))
+			{
+				end++;
+			}
+			runChromosome(chr, start, end, handler);
+			start = end;
+		}
+	}
+
+	/*
+	 * Gathers reads for the variants keys[start], ..., keys[end-1], which are all on the same chromosome
+	 */
+	void runChromosome(String chr, int start, int end, Handler handler) throws Exception
+	{
+		int n = end - start;
+
+		// The 0-based half-open window of reference positions each variant's reads must overlap
+		long[] windowStart = new long[n];
+		long[] windowEnd = new long[n];
+
+		// Map from read names to the variants they support
+		HashMap<String, ArrayList<Integer>> nameToVariants = new HashMap<String, ArrayList<Integer>>();
+		long minStart = Long.MAX_VALUE, maxEnd = 0;
+		for(int i = 0; i<n; i++)
+		{
+			String key = keys[start + i];
+			long pos = IrisVcfEntry.getPosFromKey(key);
+			windowStart[i] = Math.max(pos - ReadGathering.READ_WINDOW, 1) - 1;
+			windowEnd[i] = pos + ReadGathering.READ_WINDOW;
+			if(skip.contains(key))
+			{
+				continue;
+			}
+			minStart = Math.min(minStart, windowStart[i]);
+			maxEnd = Math.max(maxEnd, windowEnd[i]);
+			for(String name : readMap.get(key))
+			{
+				ArrayList<Integer> variants = nameToVariants.get(name);
+				if(variants == null)
+				{
+					variants = new ArrayList<Integer>();
+					nameToVariants.put(name, variants);
+				}
+				variants.add(i);
+			}
+		}
+
+		// Reads found so far for each variant, kept separately for each file so they come out in the same order as ReadGathering.getReads
+		ArrayList<ArrayList<ReadSelection.Candidate>[]> found = new ArrayList<ArrayList<ReadSelection.Candidate>[]>();
+		for(int i = 0; i<n; i++)
+		{
+			found.add(null);
+		}
+
+		// Merge the alignments from all files by position
+		PriorityQueue<Stream> streams = new PriorityQueue<Stream>();
+		if(minStart < maxEnd)
+		{
+			for(int f = 0; f<readFiles.length; f++)
+			{
+				BamReader.RegionIterator it = BamReader.get(readFiles[f]).query(chr, minStart + 1, maxEnd);
+				if(it == null)
+				{
+					continue;
+				}
+				Stream s = new Stream(f, it, nameToVariants.keySet());
+				if(s.advance())
+				{
+					streams.add(s);
+				}
+			}
+		}
+
+		int nextToFinish = 0;
+		try {
+			while(!streams.isEmpty())
+			{
+				Stream s = streams.poll();
+				BamReader.Record record = s.cur;
+
+				// Any variant whose window ends before this alignment starts can't get any more reads
+				while(nextToFinish < n && windowEnd[nextToFinish] <= record.pos)
+				{
+					finish(start + nextToFinish, found.get(nextToFinish), handler);
+					found.set(nextToFinish, null);
+					nextToFinish++;
+				}
+
+				if(!record.isSecondary())
+				{
+					long recordEnd = record.pos + Math.max(1, BamReader.Record.referenceLength(record.cigar));
+					String seq = null;
+					for(int v : nameToVariants.get(record.name))
+					{
+						if(v < nextToFinish || recordEnd <= windowStart[v] || record.pos >= windowEnd[v])
+						{
+							continue;
+						}
+						// Trimmed reads differ between variants, but otherwise the sequence is shared
+						if(seq == null || IrisSettings.TRIM_READS)
+						{
+							seq = ReadGathering.readSequence(record, keys[start + v]);
+						}
+						if(seq.length() == 0)
+						{
+							continue;
+						}
+						ArrayList<ReadSelection.Candidate>[] lists = found.get(v);
+						if(lists == null)
+						{
+							lists = newLists(readFiles.length);
+							found.set(v, lists);
+						}
+						if(lists[s.fileIndex] == null)
+						{
+							lists[s.fileIndex] = new ArrayList<ReadSelection.Candidate>();
+						}
+						lists[s.fileIndex].add(ReadSelection.fromRecord(record, seq, keys[start + v]));
+					}
+				}
+
+				if(s.advance())
+				{
+					streams.add(s);
+				}
+			}
+		} finally {
+			for(Stream s : streams)
+			{
+				s.it.close();
+			}
+		}
+
+		while(nextToFinish < n)
+		{
+			finish(start + nextToFinish, found.get(nextToFinish), handler);
+			nextToFinish++;
+		}
+	}
+
+	/*
+	 * Passes along the reads found for a variant, leaving some out if there are more than MAX_READS
+	 */
+	void finish(int keyIndex, ArrayList<ReadSelection.Candidate>[] lists, Handler handler) throws Exception
+	{
+		String key = keys[keyIndex];
+		if(skip.contains(key))
+		{
+			handler.handle(key, null);
+			return;
+		}
+		ArrayList<ReadSelection.Candidate> candidates = new ArrayList<ReadSelection.Candidate>();
+		if(lists != null)
+		{
+			for(ArrayList<ReadSelection.Candidate> list : lists)
+			{
+				if(list != null)
+				{
+					candidates.addAll(list);
+				}
+			}
+		}
+		handler.handle(key, ReadSelection.select(candidates));
+	}
+
+	/*
+	 * An array to hold the reads found for a variant in each read file, which can't be made directly since it has a generic type
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> ArrayList<T>[] newLists(int size)
+	{
+		return (ArrayList<T>[])new ArrayList<?>[size];
+	}
+
+	/*
+	 * The alignments from a single file, ordered by the position of the current alignment
+	 */
+	static class Stream implements Comparable<Stream>
+	{
+		int fileIndex;
+		BamReader.RegionIterator it;
+		Set<String> names;
+		BamReader.Record cur;
+
+		Stream(int fileIndex, BamReader.RegionIterator it, Set<String> names)
+		{
+			this.fileIndex = fileIndex;
+			this.it = it;
+			this.names = names;
+		}
+
+		/*
+		 * Moves to the next relevant alignment, closing the file and returning false when there are none left
+		 */
+		boolean advance() throws Exception
+		{
+			cur = it.next(names);
+			if(cur == null)
+			{
+				it.close();
+				return false;
+			}
+			return true;
+		}
+
+		public int compareTo(Stream o)
+		{
+			if(cur.pos != o.cur.pos)
+			{
+				return Long.compare(cur.pos, o.cur.pos);
+			}
+			return fileIndex - o.fileIndex;
+		}
+	}
+
+	/*
+	 * Receives the reads for each variant as they become available
+	 */
+	interface Handler
+	{
+		void handle(String key, ArrayList<String> reads) throws Exception;
+	}
+}
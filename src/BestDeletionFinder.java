@@ -7,7 +7,7 @@ public class BestDeletionFinder {
  * Finds the best deletion given a variant ID and list of SAM alignment records of the assembled sequence
  * back to a portion of the reference genome
  */
-public static  NewSequenceMap.UpdatedEntry findBestDeletion(String id, ArrayList<String> alignmentRecords) throws Exception
+public static  NewSequenceMap.UpdatedEntry findBestDeletion(String id, ArrayList<AlignmentRecord> alignmentRecords) throws Exception
 {
 	return findBestDeletionFromOffset(alignmentRecords, BestInsertFinder.getExpectedOffset(id));
 }
@@ -16,29 +16,14 @@ public static  NewSequenceMap.UpdatedEntry findBestDeletion(String id, ArrayList
  * Find the best deletion from a list of SAM records and
  * how far into the reference a deletion is expected
  */
-public static NewSequenceMap.UpdatedEntry findBestDeletionFromOffset(ArrayList<String> alignmentRecords, long offset) throws Exception
+public static NewSequenceMap.UpdatedEntry findBestDeletionFromOffset(ArrayList<AlignmentRecord> alignmentRecords, long offset) throws Exception
 {
 	ArrayList<DeletionRecord> allDeletions = new ArrayList<DeletionRecord>();
 	
-	// Iterate over the alignments and decide which one is the best match
-	for(String record : alignmentRecords)
+	// Get the deletions which are long enough and close enough to the expected position
+	for(NewSequenceMap.UpdatedEntry candidate : BestInsertFinder.getNearbySVs(alignmentRecords, 'D', offset))
 	{
-		ArrayList<NewSequenceMap.UpdatedEntry> candidates = BestInsertFinder.getSVsByType(record, 'D');
-		
-		// Iterate over alignments for this read
-		for(NewSequenceMap.UpdatedEntry candidate : candidates)
-		{
-			long distance = Math.abs(candidate.pos - offset);
-			int length = candidate.seq.length();
-			
-			// Throw out short and far away deletions
-			if(distance > IrisSettings.INSERTION_MAX_DIST || length < IrisSettings.INSERTION_MIN_LENGTH)
-			{
-				continue;
-			}
-			
-			allDeletions.add(new DeletionRecord(candidate.pos, candidate.seq.length()));
-		}
+		allDeletions.add(new DeletionRecord(candidate.pos, candidate.seq.length()));
 	}
 	
 	if(allDeletions.size() == 0)
@@ -8,7 +8,7 @@ public class BestInsertFinder {
  * Finds the best insertion given a variant ID and list of SAM alignment records of the assembled insertion sequence
  * back to a portion of the reference genome
  */
-public static NewSequenceMap.UpdatedEntry findBestInsert(String id, ArrayList<String> alignmentRecords) throws Exception
+public static NewSequenceMap.UpdatedEntry findBestInsert(String id, ArrayList<AlignmentRecord> alignmentRecords) throws Exception
 {
 	return findBestInsertFromOffset(alignmentRecords, getExpectedOffset(id));
 }
@@ -17,7 +17,7 @@ public static NewSequenceMap.UpdatedEntry findBestInsert(String id, ArrayList<St
  * Find the best insertion from a list of SAM records and
  * how far into the reference an insertion is expected
  */
-public static NewSequenceMap.UpdatedEntry findBestInsertFromOffset(ArrayList<String> alignmentRecords, long offset) throws Exception
+public static NewSequenceMap.UpdatedEntry findBestInsertFromOffset(ArrayList<AlignmentRecord> alignmentRecords, long offset) throws Exception
 {
 	// Bookkeeping information to maintain the best insertion
 	double bestScore = 0.0;
@@ -26,44 +26,35 @@ public static NewSequenceMap.UpdatedEntry findBestInsertFromOffset(ArrayList<Str
 	// In case the exact same insertion occurs in multiple reads, keep that info to increase scores of repeated sequences
 	HashMap<String, Integer> insertSupport = new HashMap<String, Integer>();
 	
+	// Get the insertions which are long enough and close enough to the expected position
+	ArrayList<NewSequenceMap.UpdatedEntry> candidates = getNearbySVs(alignmentRecords, 'I', offset);
+	
 	// Get expected length
-	HashMap<Integer, Double> lengthScores = getLengthScores(alignmentRecords, offset);
+	HashMap<Integer, Double> lengthScores = getLengthScores(candidates);
 	
-	// Iterate over the alignments and decide which one is the best match
-	for(String record : alignmentRecords)
+	// Iterate over the candidates and decide which one is the best match
+	for(NewSequenceMap.UpdatedEntry candidate : candidates)
 	{
-		ArrayList<NewSequenceMap.UpdatedEntry> candidates = getSVsByType(record, 'I');
+		long distance = Math.abs(candidate.pos - offset);
+		int length = candidate.seq.length();
 		
-		// Iterate over alignments for this read
-		for(NewSequenceMap.UpdatedEntry candidate : candidates)
+		// Update count for this insertion
+		String candidateKey = candidate.seq+ "#" + candidate.pos;
+		if(insertSupport.containsKey(candidateKey))
 		{
-			long distance = Math.abs(candidate.pos - offset);
-			int length = candidate.seq.length();
-			
-			// Throw out short and far away insertions
-			if(distance > IrisSettings.INSERTION_MAX_DIST || length < IrisSettings.INSERTION_MIN_LENGTH)
-			{
-				continue;
-			}
-			
-			// Update count for this insertion
-			String candidateKey = candidate.seq+ "#" + candidate.pos;
-			if(insertSupport.containsKey(candidateKey))
-			{
-				insertSupport.put(candidateKey, 1 + insertSupport.get(candidateKey));
-			}
-			else
-			{
-				insertSupport.put(candidateKey, 1);
-			}
-			
-			// Compute score and see if this is a new best
-			double currentScore = scoreInsertion(length, lengthScores.get(length), distance, insertSupport.get(candidateKey));		
-			if(bestEntry == null || currentScore > bestScore)
-			{
-				bestScore = currentScore;
-				bestEntry = candidate;
-			}
+			insertSupport.put(candidateKey, 1 + insertSupport.get(candidateKey));
+		}
+		else
+		{
+			insertSupport.put(candidateKey, 1);
+		}
+		
+		// Compute score and see if this is a new best
+		double currentScore = scoreInsertion(length, lengthScores.get(length), distance, insertSupport.get(candidateKey));		
+		if(bestEntry == null || currentScore > bestScore)
+		{
+			bestScore = currentScore;
+			bestEntry = candidate;
 		}
 	}
 	
@@ -76,24 +67,13 @@ public static NewSequenceMap.UpdatedEntry findBestInsertFromOffset(ArrayList<Str
  * score(x) = f(x) + sum(i = 1 to 10)[(f(x-i) + f(x+i)) / (i+1)]
  * Note that insertions which are too short or far away are ignored in these counts
  */
-static HashMap<Integer, Double> getLengthScores(ArrayList<String> alignmentRecords, long offset) throws Exception
+static HashMap<Integer, Double> getLengthScores(ArrayList<NewSequenceMap.UpdatedEntry> candidates)
 {
 	HashMap<Integer, Integer> lengthFreq = new HashMap<Integer, Integer>();
-	for(String record : alignmentRecords)
+	for(NewSequenceMap.UpdatedEntry candidate : candidates)
 	{
-		ArrayList<NewSequenceMap.UpdatedEntry> candidates = getSVsByType(record, 'I');
-		for(NewSequenceMap.UpdatedEntry candidate : candidates)
-		{
-			long distance = Math.abs(candidate.pos - offset);
-			int length = candidate.seq.length();
-			
-			if(distance > IrisSettings.INSERTION_MAX_DIST || length < IrisSettings.INSERTION_MIN_LENGTH)
-			{
-				continue;
-			}
-			
-			lengthFreq.put(length, lengthFreq.containsKey(length) ? (1 + lengthFreq.get(length)) : 1);
-		}
+		int length = candidate.seq.length();
+		lengthFreq.put(length, lengthFreq.containsKey(length) ? (1 + lengthFreq.get(length)) : 1);
 	}
 	
 	HashMap<Integer, Double> lengthScore = new HashMap<Integer, Double>();
@@ -137,81 +117,74 @@ static String makeFiller(int length)
 }
 
 /*
- * Get all insertions (sequence/position) from a SAM-formatted alignment record
+ * Gets the SVs of a given type from all alignment records which pass the length and distance filters
  */
-static ArrayList<NewSequenceMap.UpdatedEntry> getSVsByType(String record, char type) throws Exception
+static ArrayList<NewSequenceMap.UpdatedEntry> getNearbySVs(ArrayList<AlignmentRecord> alignmentRecords, char type, long offset) throws Exception
 {
-	String[] samFields = record.split("\t");
-	char[] cigarChars = samFields[5].toCharArray();
-	String queryString = samFields[9];
-	
 	ArrayList<NewSequenceMap.UpdatedEntry> res = new ArrayList<NewSequenceMap.UpdatedEntry>();
-	
-	if(queryString.equals("*"))
+	for(AlignmentRecord record : alignmentRecords)
 	{
-		return res;
-	}
-	
-	int refPos = Integer.parseInt(samFields[3]);
-	int queryPos = 0;
-	int segmentLength = 0;
-	
-	try {
-		for(char c : cigarChars)
-		{
-			if(c >= '0' && c <= '9')
-			{
-				segmentLength = segmentLength * 10 + (c - '0');
-			}
-			else
-			{
-				if(c == type)
-				{
-					if(c == 'I')
-					{
-						// Found an insertion - add it to the list!
-						String insertionSequence = queryString.substring(queryPos, queryPos + segmentLength);
-						res.add(new NewSequenceMap.UpdatedEntry(insertionSequence, refPos));
-					}
-					else if(c == 'D')
-					{
-						char[] filler = new char[segmentLength];
-						Arrays.fill(filler, 'A');
-						res.add(new NewSequenceMap.UpdatedEntry(new String(filler), refPos));
-					}
-				}
-				
-				// Move the ref/query positions based on the alignment type
-				if(advancesQuery(c))
-				{
-					queryPos += segmentLength;
-				}
-				if(advancesReference(c))
-				{
-					refPos += segmentLength;
-				}
-				
-				segmentLength = 0;
-			}		
-		}
-	} catch(Exception e) {
-		throw new Exception("Error processing CIGAR string in " + record);
+		addSVsByType(record, type, offset, res);
 	}
-	
 	return res;
 }
+
 /*
- * Whether or not a given CIGAR character advances the position in the reference
+ * Get all insertions or deletions (sequence/position) from an alignment record
  */
-static boolean advancesReference(char c)
+static ArrayList<NewSequenceMap.UpdatedEntry> getSVsByType(AlignmentRecord record, char type) throws Exception
 {
-	return c == 'M' || c == 'D' || c == 'N' || c == '=' || c == 'X';
+	ArrayList<NewSequenceMap.UpdatedEntry> res = new ArrayList<NewSequenceMap.UpdatedEntry>();
+	addSVsByType(record, type, -1, res);
+	return res;
 }
+
 /*
- * Whether or not a given CIGAR character advances the position in the query
+ * Adds the insertions or deletions in an alignment record to a list
+ * If offset is not -1, only those long enough and close enough to offset are added, and the others are never copied
+ * Deletions are represented by a sequence of filler characters with the length of the deletion
  */
-static boolean advancesQuery(char c)
+static void addSVsByType(AlignmentRecord record, char type, long offset, ArrayList<NewSequenceMap.UpdatedEntry> res) throws Exception
 {
-	return c == 'M' || c == 'I' || c == 'S' || c == '=' || c == 'X';
+	if(record.query == null)
+	{
+		return;
+	}
+	
+	long refPos = record.pos;
+	int queryPos = 0;
+	
+	for(int op : record.cigar)
+	{
+		int segmentLength = AlignmentRecord.opLength(op);
+		char c = AlignmentRecord.opChar(op);
+		if(c == type && (offset == -1 || (Math.abs(refPos - offset) <= IrisSettings.INSERTION_MAX_DIST 
+				&& segmentLength >= IrisSettings.INSERTION_MIN_LENGTH)))
+		{
+			if(c == 'I')
+			{
+				// Found an insertion - add it to the list!
+				if(queryPos + segmentLength > record.query.length)
+				{
+					throw new Exception("Error processing CIGAR string in " + record.name + ": " + AlignmentRecord.cigarString(record.cigar));
+				}
+				res.add(new NewSequenceMap.UpdatedEntry(record.querySubstring(queryPos, queryPos + segmentLength), refPos));
+			}
+			else if(c == 'D')
+			{
+				res.add(new NewSequenceMap.UpdatedEntry(makeFiller(segmentLength), refPos));
+			}
+		}
+		
+		// Move the ref/query positions based on the alignment type
+		if(AlignmentRecord.advancesQuery(op))
+		{
+			queryPos += segmentLength;
+		}
+		if(AlignmentRecord.advancesReference(op))
+		{
+			refPos += segmentLength;
+		}
+	}
 }
 }
@@ -0,0 +1,49 @@
+/*
+ * A genome query which holds one region of a chromosome in memory, so that the many lookups made while
+ * refining the variants in a small part of the genome don't each have to go back to the genome file.
+ * Queries outside of the cached region are passed through to the full genome.
+ */
+public class CachedGenomeQuery extends IrisGenomeQuery {
+	
+	String chr;
+	
+	// The 1-based inclusive range of positions which are cached
+	long start, end;
+	
+	String region;
+	
+	CachedGenomeQuery(IrisGenomeQuery gq, String chr, long start, long end) throws Exception
+	{
+		super(gq);
+		this.chr = chr;
+		long length = chromosomeLength(chr);
+		this.start = Math.max(start, 1);
+		this.end = Math.min(end, length);
+		if(length == -1 || this.start > this.end)
+		{
+			region = null;
+		}
+		else
+		{
+			region = super.genomeSubstring(chr, this.start, this.end);
+		}
+	}
+	
+	String genomeSubstring(String queryChr, long startPos, long endPos) throws Exception
+	{
+		if(region == null || startPos > endPos || !queryChr.equals(chr))
+		{
+			return super.genomeSubstring(queryChr, startPos, endPos);
+		}
+		
+		// Clip the region in the same way as the full genome query
+		long length = chromosomeLength(queryChr);
+		long clippedStart = Math.max(startPos, 1);
+		long clippedEnd = Math.min(endPos, length);
+		if(clippedStart < start || clippedEnd > end || clippedStart > clippedEnd)
+		{
+			return super.genomeSubstring(queryChr, startPos, endPos);
+		}
+		return region.substring((int)(clippedStart - start), (int)(clippedEnd - start + 1));
+	}
+}
@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+
+/*
+ * A quick check of whether a variant's called sequence already matches its supporting reads, in which case
+ * polishing it would only give back the same call and can be skipped.
+ * The part of the draft around the variant - the inserted sequence, or the junction left by the deletion,
+ * with CHECK_FLANK bases of reference on each side - is searched for in each read on both strands.
+ * A read supports the call if it contains that sequence with at most DRAFT_MAX_ERROR edits per base, and
+ * the call is kept as it is if at least a DRAFT_SUPPORT fraction of the reads support it.
+ */
+public class DraftCheck {
+
+	// The reference bases on each side of the variant which a read must also match
+	static final int CHECK_FLANK = 100;
+
+	static boolean enabled()
+	{
+		return IrisSettings.DRAFT_SUPPORT > 0;
+	}
+
+	/*
+	 * Whether enough of the reads support the variant as called, checking no more reads than needed to decide
+	 */
+	static boolean isSupported(String key, String oldSeq, IrisGenomeQuery gq, ArrayList<String> reads) throws Exception
+	{
+		String query = getCheckSequence(key, oldSeq, gq);
+		if(query == null || reads.size() == 0)
+		{
+			return false;
+		}
+		byte[] forward = query.toLowerCase().getBytes();
+		byte[] reverse = reverseComplement(forward);
+		int maxEdits = (int)(IrisSettings.DRAFT_MAX_ERROR * forward.length);
+		int needed = (int)Math.ceil(IrisSettings.DRAFT_SUPPORT * reads.size());
+
+		int supporting = 0;
+		for(int i = 0; i<reads.size(); i++)
+		{
+			if(supporting >= needed || supporting + reads.size() - i < needed)
+			{
+				break;
+			}
+			String read = reads.get(i);
+			if(read.length() < forward.length - maxEdits)
+			{
+				continue;
+			}
+			byte[] text = read.toLowerCase().getBytes();
+			if(EditDistance.searchDistance(forward, text) <= maxEdits || EditDistance.searchDistance(reverse, text) <= maxEdits)
+			{
+				supporting++;
+			}
+		}
+		return supporting >= needed;
+	}
+
+	/*
+	 * The sequence which reads supporting the call should contain, or null if it can't be worked out
+	 */
+	static String getCheckSequence(String key, String oldSeq, IrisGenomeQuery gq) throws Exception
+	{
+		String type = IrisVcfEntry.getTypeFromKey(key);
+		String chr = IrisVcfEntry.getChrFromKey(key);
+		long pos = IrisVcfEntry.getPosFromKey(key);
+		if(type.equals("INS"))
+		{
+			if(oldSeq == null || oldSeq.length() == 0 || !Racon.isAlphanumeric(oldSeq))
+			{
+				return null;
+			}
+			return gq.genomeSubstring(chr, pos - CHECK_FLANK, pos - 1) + oldSeq + gq.genomeSubstring(chr, pos, pos + CHECK_FLANK - 1);
+		}
+		else if(type.equals("DEL"))
+		{
+			// The deleted bases are the ones after the position
+			Long length = PosStore.findLength(type, chr, pos);
+			if(length == null)
+			{
+				return null;
+			}
+			long end = pos + Math.abs(length);
+			return gq.genomeSubstring(chr, pos - CHECK_FLANK + 1, pos) + gq.genomeSubstring(chr, end + 1, end + CHECK_FLANK);
+		}
+		return null;
+	}
+
+	static byte[] reverseComplement(byte[] seq)
+	{
+		byte[] res = new byte[seq.length];
+		for(int i = 0; i<seq.length; i++)
+		{
+			res[seq.length - 1 - i] = (byte)BamReader.Record.complement((char)seq[i]);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Edit distance computations using Myers' bit-vector algorithm, as extended to patterns
+ * longer than a machine word by Hyyro.  Each column of the dynamic programming table is
+ * stored as vertical +1/-1 deltas packed 64 rows to a word, so a pair of sequences of lengths
+ * n and m takes O(nm/64) word operations instead of O(nm) table cells.
+ */
+public class EditDistance {
+
+	/*
+	 * The edit distance between two strings
+	 */
+	static int distance(String a, String b)
+	{
+		return distance(a.getBytes(), b.getBytes(), -1);
+	}
+
+	/*
+	 * The edit distance between two sequences, or maxDistance + 1 if it is more than maxDistance
+	 * A negative maxDistance means there is no cutoff.  With a cutoff, only the diagonal band of
+	 * the table within maxDistance of the main diagonal is computed.
+	 */
+	static int distance(byte[] pattern, byte[] text, int maxDistance)
+	{
+		int n = pattern.length, m = text.length;
+		long k = maxDistance < 0 ? (long)n + m : maxDistance;
+		if(Math.abs(n - m) > k)
+		{
+			return (int)k + 1;
+		}
+		if(n == 0 || m == 0)
+		{
+			return Math.max(n, m);
+		}
+
+		int blocks = (n + 63) / 64;
+		int[] symbolIndex = new int[256];
+		long[] peq = buildPeq(pattern, blocks, symbolIndex);
+
+		long[] pv = new long[blocks];
+		long[] mv = new long[blocks];
+
+		// The table value in the last row of each block, where the last row of the last block is row n
+		int[] score = new int[blocks];
+		int lastBit = (n - 1) & 63;
+
+		// The range of blocks which overlap the band of rows within k of the current column
+		int first = 0;
+		int last = (int)Math.min(blocks - 1, (k - 1) / 64);
+		for(int b = 0; b <= last; b++)
+		{
+			pv[b] = -1L;
+			score[b] = b == blocks - 1 ? n : (b + 1) * 64;
+		}
+
+		for(int c = 1; c <= m; c++)
+		{
+			// Blocks entering the band start out as large as possible relative to the one above them
+			int newLast = (int)Math.min(blocks - 1, (c + k - 1) / 64);
+			while(last < newLast)
+			{
+				last++;
+				pv[last] = -1L;
+				mv[last] = 0;
+				score[last] = score[last - 1] + (last == blocks - 1 ? lastBit + 1 : 64);
+			}
+
+			// Blocks leaving the band only hold values greater than k, so they are dropped
+			if(c - k - 1 > 0)
+			{
+				first = Math.max(first, (int)((c - k - 1) / 64));
+			}
+
+			int symbolOffset = symbolIndex[text[c - 1] & 0xff] * blocks;
+
+			// The first row of the table increases by one in each column
+			int hin = 1;
+			for(int b = first; b <= last; b++)
+			{
+				int bit = b == blocks - 1 ? lastBit : 63;
+				hin = advanceBlock(pv, mv, b, peq[symbolOffset + b], hin, bit);
+				score[b] += hin;
+			}
+		}
+
+		int res = score[blocks - 1];
+		return res > k ? (int)k + 1 : res;
+	}
+
+	/*
+	 * The smallest edit distance between the query and any substring of the text, ignoring case
+	 */
+	static int searchDistance(String query, String text)
+	{
+		return searchDistance(query.toLowerCase().getBytes(), text.toLowerCase().getBytes());
+	}
+
+	/*
+	 * The smallest edit distance between the query and any substring of the text
+	 * This is the same as the edit distance, except that the first row of the table is all zeros
+	 * so an alignment can start anywhere, and the minimum over the last row is used so it can end anywhere
+	 */
+	static int searchDistance(byte[] query, byte[] text)
+	{
+		int n = query.length, m = text.length;
+		if(n == 0 || m == 0)
+		{
+			return n;
+		}
+
+		int blocks = (n + 63) / 64;
+		int[] symbolIndex = new int[256];
+		long[] peq = buildPeq(query, blocks, symbolIndex);
+
+		long[] pv = new long[blocks];
+		long[] mv = new long[blocks];
+		java.util.Arrays.fill(pv, -1L);
+		int lastBit = (n - 1) & 63;
+
+		int score = n;
+		int res = n;
+		for(int c = 1; c <= m; c++)
+		{
+			int symbolOffset = symbolIndex[text[c - 1] & 0xff] * blocks;
+			int hin = 0;
+			for(int b = 0; b<blocks; b++)
+			{
+				int bit = b == blocks - 1 ? lastBit : 63;
+				hin = advanceBlock(pv, mv, b, peq[symbolOffset + b], hin, bit);
+			}
+			score += hin;
+			res = Math.min(res, score);
+		}
+		return res;
+	}
+
+	/*
+	 * Computes one block of a new column from the same block of the previous column
+	 * hin is the change in value along the row above the block, and the return value is the
+	 * change along the given row of the block, which is the last row unless the pattern ends earlier
+	 */
+	static int advanceBlock(long[] pv, long[] mv, int b, long eq, int hin, int bit)
+	{
+		long p = pv[b], mm = mv[b];
+		long xv = eq | mm;
+		if(hin < 0)
+		{
+			eq |= 1L;
+		}
+		long xh = (((eq & p) + p) ^ p) | eq;
+		long ph = mm | ~(xh | p);
+		long mh = p & xh;
+		int hout = (int)((ph >>> bit) & 1) - (int)((mh >>> bit) & 1);
+		ph <<= 1;
+		mh <<= 1;
+		if(hin < 0)
+		{
+			mh |= 1L;
+		}
+		else if(hin > 0)
+		{
+			ph |= 1L;
+		}
+		pv[b] = mh | ~(xv | ph);
+		mv[b] = ph & xv;
+		return hout;
+	}
+
+	/*
+	 * Builds the match bit-vectors of the pattern - for each symbol, which rows of each block have that symbol
+	 * Symbols are numbered from 1 in symbolIndex, and symbol 0 is used for characters not in the pattern
+	 */
+	static long[] buildPeq(byte[] pattern, int blocks, int[] symbolIndex)
+	{
+		int numSymbols = 1;
+		for(byte c : pattern)
+		{
+			if(symbolIndex[c & 0xff] == 0)
+			{
+				symbolIndex[c & 0xff] = numSymbols++;
+			}
+		}
+		long[] peq = new long[numSymbols * blocks];
+		for(int i = 0; i<pattern.length; i++)
+		{
+			peq[symbolIndex[pattern[i] & 0xff] * blocks + i / 64] |= 1L << (i & 63);
+		}
+		return peq;
+	}
+
+	/*
+	 * The textbook quadratic edit distance, kept as a reference for testing and benchmarking
+	 */
+	static int simpleDistance(String from, String to)
+	{
+		int n = from.length();
+		int m = to.length();
+		int[][] dp = new int[2][m+1];
+		for(int i = 1; i<=m; i++)
+		{
+			dp[0][i] = i;
+		}
+		for(int i = 1; i <= n; i++)
+		{
+			dp[i%2][0] = i;
+			for(int j = 1; j <= m; j++)
+			{
+				boolean sameChar = from.charAt(i-1) == to.charAt(j-1);
+				int min = (sameChar ? 0 : 1) + dp[(i-1)%2][j-1];
+				min = Math.min(min, 1 + dp[(i-1)%2][j]);
+				min = Math.min(min, 1 + dp[i%2][j-1]);
+				dp[i%2][j] = min;
+			}
+		}
+		return dp[n%2][m];
+	}
+
+	/*
+	 * The quadratic version of searchDistance, kept as a reference for testing and benchmarking
+	 *   table[0][i] is 0 for all i, meaning the match can start anywhere in the text
+	 *   min_j(table[n][j]) is used for the answer, meaning the match can end anywhere in the text
+	 */
+	static int simpleSearchDistance(String query, String text)
+	{
+		String q = query.toLowerCase();
+		String r = text.toLowerCase();
+		int n = q.length(), m = r.length();
+		int res = n;
+		int[][] table = new int[2][m+1];
+		for(int i = 1; i<=n; i++)
+		{
+			table[i%2][0] = i;
+			for(int j = 1; j <= m; j++)
+			{
+				int cur = table[(i-1)%2][j-1] + (q.charAt(i-1) == r.charAt(j-1) ? 0 : 1);
+				cur = Math.min(cur, table[(i-1)%2][j] + 1);
+				cur = Math.min(cur, table[i%2][j-1] + 1);
+				table[i%2][j] = cur;
+				if(i == n)
+				{
+					res = Math.min(res, cur);
+				}
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Times the bit-vector edit distance against the quadratic version on random sequence pairs
+ * Usage: java EditDistanceBenchmark [lengths=1000,10000,100000] [divergence=0.1]
+ */
+import java.util.Random;
+
+public class EditDistanceBenchmark {
+	public static void main(String[] args) throws Exception
+	{
+		String lengths = "1000,10000,100000";
+		double divergence = 0.1;
+		for(String arg : args)
+		{
+			if(arg.startsWith("lengths="))
+			{
+				lengths = arg.substring("lengths=".length());
+			}
+			else if(arg.startsWith("divergence="))
+			{
+				divergence = Double.parseDouble(arg.substring("divergence=".length()));
+			}
+		}
+		
+		Random r = new Random(12345);
+		System.out.println("Length\tDistance\tQuadraticMs\tBitVectorMs\tBandedMs\tSpeedup");
+		for(String lengthString : lengths.split(","))
+		{
+			int length = Integer.parseInt(lengthString);
+			String a = randomSequence(r, length);
+			String b = mutate(r, a, divergence);
+			
+			// Warm up so the timings don't include compilation
+			for(int i = 0; i<3; i++)
+			{
+				EditDistance.distance(a.getBytes(), b.getBytes(), -1);
+			}
+			
+			long start = System.nanoTime();
+			int quadratic = EditDistance.simpleDistance(a, b);
+			double quadraticMs = (System.nanoTime() - start) / 1e6;
+			
+			int reps = Math.max(1, 100000 / length);
+			start = System.nanoTime();
+			int bitVector = 0;
+			for(int i = 0; i<reps; i++)
+			{
+				bitVector = EditDistance.distance(a.getBytes(), b.getBytes(), -1);
+			}
+			double bitVectorMs = (System.nanoTime() - start) / 1e6 / reps;
+			
+			// The cutoff EvaluateSimulatedAccuracy would use with its default similarity threshold
+			start = System.nanoTime();
+			for(int i = 0; i<reps; i++)
+			{
+				EditDistance.distance(a.getBytes(), b.getBytes(), length / 2 + 1);
+			}
+			double bandedMs = (System.nanoTime() - start) / 1e6 / reps;
+			
+			if(quadratic != bitVector)
+			{
+				throw new Exception("edit distances disagree for length " + length + ": " + quadratic + " vs. " + bitVector);
+			}
+			System.out.printf("%d\t%d\t%.2f\t%.2f\t%.2f\t%.1fx\n", length, bitVector, quadraticMs, bitVectorMs, bandedMs, quadraticMs / bitVectorMs);
+		}
+	}
+	
+	static String randomSequence(Random r, int length)
+	{
+		char[] res = new char[length];
+		for(int i = 0; i<length; i++)
+		{
+			res[i] = "ACGT".charAt(r.nextInt(4));
+		}
+		return new String(res);
+	}
+	
+	/*
+	 * Adds random substitutions, insertions, and deletions to a sequence
+	 */
+	static String mutate(Random r, String s, double divergence)
+	{
+		StringBuilder res = new StringBuilder();
+		for(int i = 0; i<s.length(); i++)
+		{
+			if(r.nextDouble() >= divergence)
+			{
+				res.append(s.charAt(i));
+				continue;
+			}
+			int type = r.nextInt(3);
+			if(type == 0)
+			{
+				res.append("ACGT".charAt(r.nextInt(4)));
+			}
+			else if(type == 1)
+			{
+				res.append(s.charAt(i)).append("ACGT".charAt(r.nextInt(4)));
+			}
+		}
+		return res.toString();
+	}
+}
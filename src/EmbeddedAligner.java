@@ -0,0 +1,289 @@
+/*
+ * An in-process aligner for placing a consensus sequence back onto the reference near its variant.
+ * Since the locus is already known, this runs a local alignment with three-piece affine gap penalties
+ * against a small reference window, instead of running minimap2 on the whole genome sample around the variant.
+ * The first two pieces are similar to minimap2's scoring, and the third is a flat penalty so that the cost of
+ * a long insertion or deletion stops growing with its length - otherwise a variant longer than the consensus's
+ * flanks would score worse than aligning one flank on its own and soft-clipping the rest.
+ */
+import java.util.ArrayList;
+
+public class EmbeddedAligner {
+
+	// Scoring parameters - match/mismatch scores and the three gap open/extend pairs
+	static final int MATCH = 2;
+	static final int MISMATCH = 4;
+	static final int GAP_OPEN1 = 4, GAP_EXTEND1 = 2;
+	static final int GAP_OPEN2 = 24, GAP_EXTEND2 = 1;
+	static final int GAP_OPEN3 = 200, GAP_EXTEND3 = 0;
+
+	// The largest alignment matrix to fill in before deferring to minimap2
+	static final long MAX_CELLS = 50000000L;
+
+	// Each thread keeps its traceback matrix for the next variant if it has at most this many cells,
+	// so that most variants don't allocate one but a rare huge one isn't held onto
+	static final int MAX_KEPT_CELLS = 4000000;
+	static final ThreadLocal<short[]> keptTrace = new ThreadLocal<short[]>();
+
+	// Extra reference sequence on each side of the consensus window to allow the consensus to shift
+	static final int WINDOW_SLACK = 500;
+
+	/*
+	 * Aligns the consensus sequences to the reference around a variant, producing alignment records
+	 * with positions relative to the genome sample used by AlignConsensus
+	 * Returns null if any of the sequences is too long to align in-process
+	 */
+	static ArrayList<AlignmentRecord> getConsensusAlignmentRecords(String id, ArrayList<String> consensusSequences, IrisGenomeQuery gq) throws Exception
+	{
+		String chr = IrisVcfEntry.getChrFromKey(id);
+		long pos = IrisVcfEntry.getPosFromKey(id);
+		String type = IrisVcfEntry.getTypeFromKey(id);
+
+		// Deletions remove reference sequence from the consensus, so extend the window past them
+		long extra = 0;
+		if(type.equals("DEL"))
+		{
+			Long length = PosStore.findLength(type, chr, pos);
+			if(length != null)
+			{
+				extra = Math.abs(length);
+			}
+		}
+
+		long sampleStart = Math.max(1, pos - IrisSettings.GENOME_REGION_BUFFER);
+		long windowStart = Math.max(1, pos - IrisSettings.RACON_BUFFER - WINDOW_SLACK);
+		long windowEnd = pos + IrisSettings.RACON_BUFFER + WINDOW_SLACK + extra;
+		String ref = gq.genomeSubstring(chr, windowStart, windowEnd);
+
+		for(String seq : consensusSequences)
+		{
+			if((long)seq.length() * ref.length() > MAX_CELLS)
+			{
+				return null;
+			}
+		}
+
+		// One traceback matrix big enough for every sequence is shared between them
+		int maxLength = 0;
+		for(String seq : consensusSequences)
+		{
+			maxLength = Math.max(maxLength, seq.length());
+		}
+		int cells = maxLength * ref.length();
+		short[] trace = keptTrace.get();
+		if(trace == null || trace.length < cells)
+		{
+			trace = new short[cells];
+			if(cells <= MAX_KEPT_CELLS)
+			{
+				keptTrace.set(trace);
+			}
+		}
+
+		ArrayList<AlignmentRecord> res = new ArrayList<AlignmentRecord>();
+		for(int i = 0; i<consensusSequences.size(); i++)
+		{
+			String query = consensusSequences.get(i);
+			Alignment aln = align(query, ref, trace);
+			if(aln == null)
+			{
+				continue;
+			}
+			long samPos = windowStart - sampleStart + 1 + aln.refStart;
+			res.add(new AlignmentRecord("consensus" + i, 0, samPos, aln.cigar, query.getBytes()));
+		}
+		return res;
+	}
+
+	/*
+	 * The result of aligning a query to a reference - the 0-based start in the reference and the packed CIGAR,
+	 * which includes soft-clipping of any unaligned query bases
+	 */
+	static class Alignment
+	{
+		int refStart;
+		int[] cigar;
+		int score;
+	}
+
+	// Bits of the traceback matrix - the low three bits say which state the best score came from,
+	// and each of the others says whether a gap state was extended from the same gap state
+	static final int FROM_NONE = 0, FROM_DIAG = 1, FROM_E1 = 2, FROM_E2 = 3, FROM_E3 = 4, FROM_F1 = 5, FROM_F2 = 6, FROM_F3 = 7;
+	static final int E1_EXTEND = 8, E2_EXTEND = 16, E3_EXTEND = 32, F1_EXTEND = 64, F2_EXTEND = 128, F3_EXTEND = 256;
+	static final int NEG_INF = Integer.MIN_VALUE / 4;
+
+	/*
+	 * Finds the best local alignment of a query to a reference, or null if nothing aligns
+	 * Gaps in the reference (E states) are deletions and gaps in the query (F states) are insertions
+	 */
+	static Alignment align(String query, String ref)
+	{
+		return align(query, ref, null);
+	}
+
+	/*
+	 * Finds the best local alignment, filling in the traceback matrix given if it is big enough instead of a new one
+	 */
+	static Alignment align(String query, String ref, short[] trace)
+	{
+		int n = query.length(), m = ref.length();
+		if(n == 0 || m == 0)
+		{
+			return null;
+		}
+		byte[] q = query.toUpperCase().getBytes();
+		byte[] r = ref.toUpperCase().getBytes();
+
+		if(trace == null || trace.length < n * m)
+		{
+			trace = new short[n * m];
+		}
+
+		// Scores from the previous row of the matrix
+		int[] h = new int[m + 1];
+		int[] f1 = new int[m + 1];
+		int[] f2 = new int[m + 1];
+		int[] f3 = new int[m + 1];
+		java.util.Arrays.fill(f1, NEG_INF);
+		java.util.Arrays.fill(f2, NEG_INF);
+		java.util.Arrays.fill(f3, NEG_INF);
+
+		int bestScore = 0, bestI = -1, bestJ = -1;
+		int open1 = GAP_OPEN1 + GAP_EXTEND1, open2 = GAP_OPEN2 + GAP_EXTEND2, open3 = GAP_OPEN3 + GAP_EXTEND3;
+		for(int i = 1; i<=n; i++)
+		{
+			int diag = 0;
+			int left = 0;
+			int e1 = NEG_INF, e2 = NEG_INF, e3 = NEG_INF;
+			byte qc = q[i-1];
+			int rowOffset = (i-1) * m;
+			for(int j = 1; j<=m; j++)
+			{
+				int bits = 0;
+
+				// Gap in the reference coming from the left
+				int e1Open = left - open1, e1Ext = e1 - GAP_EXTEND1;
+				if(e1Ext >= e1Open) { e1 = e1Ext; bits |= E1_EXTEND; } else e1 = e1Open;
+				int e2Open = left - open2, e2Ext = e2 - GAP_EXTEND2;
+				if(e2Ext >= e2Open) { e2 = e2Ext; bits |= E2_EXTEND; } else e2 = e2Open;
+				int e3Open = left - open3, e3Ext = e3 - GAP_EXTEND3;
+				if(e3Ext >= e3Open) { e3 = e3Ext; bits |= E3_EXTEND; } else e3 = e3Open;
+
+				// Gap in the query coming from above
+				int up = h[j];
+				int f1Open = up - open1, f1Ext = f1[j] - GAP_EXTEND1;
+				int curF1, curF2, curF3;
+				if(f1Ext >= f1Open) { curF1 = f1Ext; bits |= F1_EXTEND; } else curF1 = f1Open;
+				int f2Open = up - open2, f2Ext = f2[j] - GAP_EXTEND2;
+				if(f2Ext >= f2Open) { curF2 = f2Ext; bits |= F2_EXTEND; } else curF2 = f2Open;
+				int f3Open = up - open3, f3Ext = f3[j] - GAP_EXTEND3;
+				if(f3Ext >= f3Open) { curF3 = f3Ext; bits |= F3_EXTEND; } else curF3 = f3Open;
+				f1[j] = curF1;
+				f2[j] = curF2;
+				f3[j] = curF3;
+
+				int score = diag + (qc == r[j-1] && qc != 'N' ? MATCH : -MISMATCH);
+				int from = FROM_DIAG;
+				if(e1 > score) { score = e1; from = FROM_E1; }
+				if(e2 > score) { score = e2; from = FROM_E2; }
+				if(e3 > score) { score = e3; from = FROM_E3; }
+				if(curF1 > score) { score = curF1; from = FROM_F1; }
+				if(curF2 > score) { score = curF2; from = FROM_F2; }
+				if(curF3 > score) { score = curF3; from = FROM_F3; }
+				if(score <= 0) { score = 0; from = FROM_NONE; }
+
+				trace[rowOffset + j - 1] = (short)(bits | from);
+				diag = up;
+				h[j] = score;
+				left = score;
+
+				if(score > bestScore)
+				{
+					bestScore = score;
+					bestI = i;
+					bestJ = j;
+				}
+			}
+		}
+
+		if(bestScore == 0)
+		{
+			return null;
+		}
+
+		// Trace back from the best cell, building the CIGAR operations in reverse
+		StringBuilder ops = new StringBuilder();
+		int i = bestI, j = bestJ;
+		int state = 0;
+		while(i > 0 && j > 0)
+		{
+			int bits = trace[(i-1) * m + j - 1];
+			if(state == 0)
+			{
+				int from = bits & 7;
+				if(from == FROM_NONE)
+				{
+					break;
+				}
+				if(from == FROM_DIAG)
+				{
+					ops.append('M');
+					i--;
+					j--;
+				}
+				else
+				{
+					state = from;
+				}
+			}
+			else if(state == FROM_E1 || state == FROM_E2 || state == FROM_E3)
+			{
+				ops.append('D');
+				boolean extend = (bits & (state == FROM_E1 ? E1_EXTEND : state == FROM_E2 ? E2_EXTEND : E3_EXTEND)) != 0;
+				j--;
+				if(!extend) state = 0;
+			}
+			else
+			{
+				ops.append('I');
+				boolean extend = (bits & (state == FROM_F1 ? F1_EXTEND : state == FROM_F2 ? F2_EXTEND : F3_EXTEND)) != 0;
+				i--;
+				if(!extend) state = 0;
+			}
+		}
+
+		Alignment res = new Alignment();
+		res.refStart = j;
+		res.score = bestScore;
+
+		ArrayList<Integer> cigar = new ArrayList<Integer>();
+		if(i > 0)
+		{
+			cigar.add(i << 4 | AlignmentRecord.CIGAR_OPS.indexOf('S'));
+		}
+		ops.reverse();
+		int runLength = 0;
+		char last = 0;
+		for(int k = 0; k<=ops.length(); k++)
+		{
+			char c = k == ops.length() ? 0 : ops.charAt(k);
+			if(c != last && runLength > 0)
+			{
+				cigar.add(runLength << 4 | AlignmentRecord.CIGAR_OPS.indexOf(last));
+				runLength = 0;
+			}
+			last = c;
+			runLength++;
+		}
+		if(bestI < n)
+		{
+			cigar.add((n - bestI) << 4 | AlignmentRecord.CIGAR_OPS.indexOf('S'));
+		}
+		res.cigar = new int[cigar.size()];
+		for(int k = 0; k<cigar.size(); k++)
+		{
+			res.cigar[k] = cigar.get(k);
+		}
+		return res;
+	}
+}
@@ -12,6 +12,7 @@ import java.util.TreeMap;
 public class EvaluateSimulatedAccuracy {
 	static String groundTruthFilename = "";
 	static String irisCallsFilename = "";
+	static String stageTimesFilename = "";
 	static int DISTANCE_THRESHOLD = 1000;
 	static double ID_THRESHOLD = 0.5;
 	static String OUTPUT_FILE = "scores.txt";
@@ -22,15 +23,18 @@ public class EvaluateSimulatedAccuracy {
 	{
 		System.out.println("Usage: java EvaluateSimulatedAccuracy [args]");
 		System.out.println("  Example: java EvaluateSimulatedAccuracy ground_truth=bigsim.insertions.fa iris_calls=out.vcf");
+		System.out.println("  To compare runs, such as ones with different max_reads settings, give a comma-separated list of call sets:");
+		System.out.println("    java EvaluateSimulatedAccuracy ground_truth=bigsim.insertions.fa iris_calls=all.vcf,max10.vcf stage_times=all.tsv,max10.tsv");
 		System.out.println();
 		System.out.println("Required args:");
 		System.out.println("  ground_truth   (String) - the FASTA file containing the variants added during the simulation");
-		System.out.println("  iris_calls     (String) - the VCF file with variant calls refined by IRIS");
+		System.out.println("  iris_calls     (String) - the VCF file with variant calls refined by IRIS, or a comma-separated list of them");
 		System.out.println("Optional args:");
 		System.out.println("  min_similarity (float)  - min sequence identity needed for a match to count");
 		System.out.println("  max_distance   (int)    - max distance allowed for a match to count");
 		System.out.println("  use_genome     (String) - genome file for doing fancier sequence matching");
 		System.out.println("  scores_file    (String) - file to write accuracy scores to");
+		System.out.println("  stage_times    (String) - the stage_times_out file from the IRIS run for each call set, to report how long refinement took");
 		System.out.println();
 	}
 	static TreeMap<PosStore.Place, String> readGroundTruthFromFasta(String filename) throws Exception
@@ -111,6 +115,10 @@ public class EvaluateSimulatedAccuracy {
 			{
 				OUTPUT_FILE = val;
 			}
+			else if(key.equals("stage_times"))
+			{
+				stageTimesFilename = val;
+			}
 		}
 		if(groundTruthFilename.length() == 0 || irisCallsFilename.length() == 0)
 		{
@@ -170,13 +178,94 @@ public class EvaluateSimulatedAccuracy {
 			return;
 		}
 		
+		String[] callSets = irisCallsFilename.split(",");
+		String[] stageTimes = stageTimesFilename.length() == 0 ? new String[0] : stageTimesFilename.split(",");
+		if(stageTimes.length > 0 && stageTimes.length != callSets.length)
+		{
+			throw new Exception("stage_times needs one file for each of the " + callSets.length + " call sets");
+		}
+		
 		PrintWriter out = new PrintWriter(new File(OUTPUT_FILE));
 		
+		Summary[] summaries = new Summary[callSets.length];
+		for(int i = 0; i<callSets.length; i++)
+		{
+			if(callSets.length > 1)
+			{
+				System.out.println("Call set: " + callSets[i]);
+			}
+			summaries[i] = evaluate(callSets[i], callSets.length > 1 ? (callSets[i] + "\t") : "", out);
+			if(stageTimes.length > 0)
+			{
+				summaries[i].seconds = totalStageSeconds(stageTimes[i]);
+				System.out.println("Refinement time (s): " + summaries[i].seconds);
+			}
+			if(callSets.length > 1)
+			{
+				System.out.println();
+			}
+		}
+		out.close();
+		
+		// Compare the call sets side by side, so the cost of refinement settings can be weighed against their accuracy
+		if(callSets.length > 1)
+		{
+			System.out.println("Call set\tMatches\tFalse positives\tFalse negatives\tAverage sequence identity" 
+					+ (stageTimes.length > 0 ? "\tRefinement time (s)" : ""));
+			for(int i = 0; i<callSets.length; i++)
+			{
+				Summary cur = summaries[i];
+				System.out.println(callSets[i] + "\t" + cur.matches + "\t" + cur.falsePositives + "\t" + cur.falseNegatives
+						+ "\t" + cur.averageIdentity + (stageTimes.length > 0 ? ("\t" + cur.seconds) : ""));
+			}
+		}
+	}
+	
+	/*
+	 * The overall accuracy of one call set
+	 */
+	static class Summary
+	{
+		int matches, falsePositives, falseNegatives;
+		double averageIdentity;
+		double seconds = -1;
+	}
+	
+	/*
+	 * The total time spent refining variants according to a stage_times_out file from IRIS
+	 */
+	static double totalStageSeconds(String filename) throws Exception
+	{
+		Scanner input = new Scanner(new FileInputStream(new File(filename)));
+		long total = 0;
+		while(input.hasNext())
+		{
+			String line = input.nextLine();
+			if(line.startsWith("#") || line.length() == 0)
+			{
+				continue;
+			}
+			String[] tokens = line.split("\t");
+			for(int i = 1; i<tokens.length; i++)
+			{
+				total += Long.parseLong(tokens[i]);
+			}
+		}
+		input.close();
+		return total / 1e9;
+	}
+	
+	/*
+	 * Compares a set of calls to the ground truth, printing the results and writing the sequence identity of
+	 * each match to out with the given prefix
+	 */
+	static Summary evaluate(String callsFilename, String prefix, PrintWriter out) throws Exception
+	{
 		TreeMap<PosStore.Place, String> truth = groundTruthFilename.endsWith(".vcf") ?
 				readGroundTruthFromVcf(groundTruthFilename)
 				: readGroundTruthFromFasta(groundTruthFilename);
 		
-		VcfEntryIterator vei = new VcfEntryIterator(irisCallsFilename);
+		VcfEntryIterator vei = new VcfEntryIterator(callsFilename);
 		
 		System.out.println("True insertions: " + truth.size());
 		
@@ -233,12 +322,14 @@ public class EvaluateSimulatedAccuracy {
 					String before = gq.genomeSubstring(curPlace.chr, start, curPlace.pos - 1);
 					String after = gq.genomeSubstring(curPlace.chr, curPlace.pos, end);
 					curSeq = before + curSeq + after;
-					editDistance = localEditDistance(trueSeq, curSeq);
+					editDistance = EditDistance.searchDistance(trueSeq, curSeq);
 					 
 				}
 				else
 				{
-					editDistance = ResultsTableWriter.editDistance(trueSeq, curSeq);
+					// Anything much further than the similarity threshold allows is a false positive, so its exact distance isn't needed
+					int maxDistance = (int)Math.ceil((1 - ID_THRESHOLD) * trueSeq.length()) + 1;
+					editDistance = EditDistance.distance(trueSeq.getBytes(), curSeq.getBytes(), maxDistance);
 				}
 				double seqIdentity = 1 - 1.0 * editDistance / trueSeq.length();
 				if(seqIdentity < ID_THRESHOLD)
@@ -253,7 +344,7 @@ public class EvaluateSimulatedAccuracy {
 				distances.add(dist);
 				editDistances.add((long)editDistance);
 				sequenceIdentities.add(seqIdentity);
-				out.println(seqIdentity);
+				out.println(prefix + seqIdentity);
 				
 				if(trueSeq.length() < 500)
 				{
@@ -293,7 +384,8 @@ public class EvaluateSimulatedAccuracy {
 		System.out.println("Average sequence edit distance: " + average(editDistances));
 		System.out.println("Average sequence identity: " + floatAverage(sequenceIdentities));
 		
-		ArrayList<Double>[] toPrint = new ArrayList[]{shortSeqId, mediumSeqId, largeSeqId};
+		@SuppressWarnings("unchecked")
+		ArrayList<Double>[] toPrint = (ArrayList<Double>[])new ArrayList<?>[]{shortSeqId, mediumSeqId, largeSeqId};
 		String[] names = new String[]{"Small", "Medium", "Large"};
 		int[] same = new int[]{shortSame, mediumSame, largeSame};
 		for(int i = 0; i<3; i++)
@@ -306,34 +398,11 @@ public class EvaluateSimulatedAccuracy {
 			System.out.println("  Unchanged: " + same[i]);
 		}
 		
-		out.close();
-		
-	}
-	/*
-	 * Gets the edit distance between query and the best possible substring of ref
-	 * To allow the use of any substring, the following changes are made to the usual edit distance algorithm
-	 *   table[0][i] is 0 for all i, meaning the match can start anywhere in the reference
-	 *   min_j(table[n][j]) is used for the answer, meaning the match can end anywhere in the reference
-	 */
-	static int localEditDistance(String query, String ref)
-	{
-		String q = query.toLowerCase();
-		String r = ref.toLowerCase();
-		int n = query.length(), m = ref.length();
-		int res = query.length();
-		int[][] table = new int[n+1][m+1];
-		for(int i = 1; i<=n; i++) table[i][0] = i;
-		for(int i = 1; i<=n; i++)
-			for(int j = 1; j <= m; j++)
-			{
-				table[i][j] = table[i-1][j-1] + (q.charAt(i-1) == r.charAt(j-1) ? 0 : 1);
-				table[i][j] = Math.min(table[i][j], table[i-1][j] + 1);
-				table[i][j] = Math.min(table[i][j], table[i][j-1] + 1);
-				if(i == n)
-				{
-					res = Math.min(res, table[i][j]);
-				}
-			}
+		Summary res = new Summary();
+		res.matches = distances.size();
+		res.falsePositives = falsePositives;
+		res.falseNegatives = falseNegatives;
+		res.averageIdentity = floatAverage(sequenceIdentities);
 		return res;
 	}
 	static double floatAverage(ArrayList<Double> list)
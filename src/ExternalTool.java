@@ -0,0 +1,246 @@
+/*
+ * Shared handling of the external tools' processes, so that they are all started, waited on, timed out,
+ * and measured the same way.  Shell commands can also be sent to a pool of long-lived helper shells
+ * (see ToolPool) so that the JVM doesn't have to fork itself for every tool invocation.
+ */
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExternalTool {
+
+	static final String SAMTOOLS = "samtools";
+	static final String MINIMAP = "minimap2";
+	static final String RACON = "racon";
+
+	// Kills tool processes which run past the timeout
+	static ScheduledExecutorService watchdog = null;
+
+	// The worker threads still refining variants, whether any variants are still waiting for a worker,
+	// and the number of cores claimed by the tools running right now
+	static AtomicInteger activeWorkers = new AtomicInteger(0);
+	static volatile boolean queueDrained = false;
+	static AtomicInteger coresInUse = new AtomicInteger(0);
+
+	// Tool calls waiting for cores to be released once the queue has drained wait on this
+	static final Object coreLock = new Object();
+
+	/*
+	 * A running tool process along with what is needed to time it out and measure it
+	 */
+	static class Handle
+	{
+		Process process;
+		long startTime;
+		ScheduledFuture<?> killer;
+		volatile boolean timedOut = false;
+	}
+
+	/*
+	 * Whether shell commands go through the helper pool instead of being started from the JVM
+	 */
+	static boolean pooled()
+	{
+		return IrisSettings.TOOL_POOL_SIZE > 0;
+	}
+
+	/*
+	 * The total number of cores the external tools can use at once
+	 */
+	static int coreBudget()
+	{
+		return IrisSettings.CORE_BUDGET > 0 ? IrisSettings.CORE_BUDGET : IrisSettings.THREADS * IrisSettings.ALIGNMENT_THREADS;
+	}
+
+	/*
+	 * Claims the number of threads a tool call should use, which must be given back with releaseThreads
+	 * While variants are still waiting for a worker, every call gets ALIGNMENT_THREADS.  Once the queue has
+	 * drained, the workers which are still going (usually on the hardest variants) split the cores left
+	 * idle by the ones which have finished, and a call waits for cores to be released rather than
+	 * going over the core budget.
+	 */
+	static int claimThreads() throws InterruptedException
+	{
+		int base = Math.max(1, IrisSettings.ALIGNMENT_THREADS);
+		if(!queueDrained)
+		{
+			coresInUse.addAndGet(base);
+			return base;
+		}
+		int budget = coreBudget();
+		int share = Math.max(base, budget / Math.max(1, activeWorkers.get()));
+		synchronized(coreLock)
+		{
+			while(true)
+			{
+				int free = budget - coresInUse.get();
+				if(free > 0)
+				{
+					int threads = Math.min(share, free);
+					coresInUse.addAndGet(threads);
+					return threads;
+				}
+				coreLock.wait();
+			}
+		}
+	}
+
+	static void releaseThreads(int threads)
+	{
+		synchronized(coreLock)
+		{
+			coresInUse.addAndGet(-threads);
+			coreLock.notifyAll();
+		}
+	}
+
+	/*
+	 * Thrown when a tool is killed for running past its timeout
+	 */
+	static class TimeoutException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+		String tool;
+		TimeoutException(String tool, String message)
+		{
+			super(message);
+			this.tool = tool;
+		}
+	}
+
+	/*
+	 * The number of seconds a tool may run before it is killed, or 0 for no limit
+	 * Each tool's own timeout takes precedence over the general one
+	 */
+	static int timeoutFor(String tool)
+	{
+		int res = 0;
+		if(tool.equals(RACON))
+		{
+			res = IrisSettings.RACON_TIMEOUT;
+		}
+		else if(tool.equals(MINIMAP))
+		{
+			res = IrisSettings.MINIMAP_TIMEOUT;
+		}
+		else if(tool.equals(SAMTOOLS))
+		{
+			res = IrisSettings.SAMTOOLS_TIMEOUT;
+		}
+		return res > 0 ? res : IrisSettings.TOOL_TIMEOUT;
+	}
+
+	/*
+	 * Runs a shell command, which should send any output it needs to files, and returns its exit code
+	 */
+	static int runShell(String tool, String command) throws Exception
+	{
+		if(pooled())
+		{
+			return ToolPool.get().run(tool, command);
+		}
+		Handle child = start(tool, new ProcessBuilder("/bin/sh", "-c", command)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.redirectError(ProcessBuilder.Redirect.DISCARD));
+		return waitFor(tool, child);
+	}
+
+	/*
+	 * Starts a tool's process, scheduling it to be killed if there is a timeout and it runs too long
+	 */
+	static Handle start(String tool, ProcessBuilder pb) throws Exception
+	{
+		final Handle res = new Handle();
+		res.startTime = System.nanoTime();
+		res.process = pb.start();
+		res.killer = scheduleKill(tool, res.process.toHandle(), new Runnable() {
+			public void run() {
+				res.timedOut = true;
+			}
+		});
+		return res;
+	}
+
+	/*
+	 * Waits for a tool's process to finish and records how long it ran
+	 * Returns the process's exit code, or throws an exception if it was killed for running too long
+	 */
+	static int waitFor(String tool, Handle child) throws Exception
+	{
+		int exitCode = child.process.waitFor();
+		if(child.killer != null)
+		{
+			child.killer.cancel(false);
+		}
+		Metrics.toolRun(tool, child.startTime, exitCode);
+		if(child.timedOut)
+		{
+			throw timedOut(tool);
+		}
+		return exitCode;
+	}
+
+	static TimeoutException timedOut(String tool)
+	{
+		Metrics.inc("iris_tool_timeouts_total{tool=\"" + tool + "\"}", "External tool processes killed for running past their timeout");
+		return new TimeoutException(tool, tool + " was killed after running for more than " + timeoutFor(tool) + " seconds");
+	}
+
+	/*
+	 * Schedules a process and everything it started to be killed once the tool's timeout has passed,
+	 * running onKill first - returns null if there is no timeout
+	 */
+	static ScheduledFuture<?> scheduleKill(String tool, final ProcessHandle process, final Runnable onKill)
+	{
+		int timeout = timeoutFor(tool);
+		if(timeout <= 0)
+		{
+			return null;
+		}
+		return getWatchdog().schedule(new Runnable() {
+			public void run() {
+				onKill.run();
+				kill(process);
+			}
+		}, timeout, TimeUnit.SECONDS);
+	}
+
+	/*
+	 * Forcibly kills a process along with all of its descendants, such as the commands run by a shell
+	 */
+	static void kill(ProcessHandle process)
+	{
+		// Find the descendants first, since they can't be found from the process once it is gone
+		ArrayList<ProcessHandle> descendants = new ArrayList<ProcessHandle>();
+		Iterator<ProcessHandle> it = process.descendants().iterator();
+		while(it.hasNext())
+		{
+			descendants.add(it.next());
+		}
+		process.destroyForcibly();
+		for(ProcessHandle p : descendants)
+		{
+			p.destroyForcibly();
+		}
+	}
+
+	static synchronized ScheduledExecutorService getWatchdog()
+	{
+		if(watchdog == null)
+		{
+			watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "iris-tool-watchdog");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return watchdog;
+	}
+}
@@ -1,69 +1,367 @@
 /*
- * A structure for storing intermediate results.  
- * It is backed by a file which lists VCF IDs and the refined sequence/position
- * The format of each line is (tab-separated) ID, Sequence, Position, CompletionCertificate
- * 
+ * A structure for storing intermediate results so that a terminated run can be resumed.
+ * It is backed by an append-only binary log of the refined sequence/position of each variant.
+ * The file starts with MAGIC, and each record after it is:
+ *   int payload length, int CRC32 of the payload, then the payload -
+ *   key (int length + UTF-8 bytes), long position, long completion time, sequence (int length + UTF-8 bytes)
+ * Variants with no refined result have position -1, -2 if their refinement timed out, or -3 if they were kept
+ * as called because their reads already supported them
+ *
+ * Records are buffered and written with a single fsync once enough have built up or every few hundred
+ * milliseconds (group commit), so threads finishing variants don't each wait on the disk.  A crash can lose
+ * at most the records from the last interval, and those variants are simply refined again on resume.
+ * When resuming, the log is read once from start to end, and anything after the last complete record
+ * with a valid checksum (a record torn by the crash) is cut off before new records are appended.
+ * Stores from older versions, which were text files with one tab-separated line per variant, are
+ * also read when resuming, and their results are copied into the new log.
  */
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 public class IntermediateResultsStore {
+
+	static final byte[] MAGIC = "IRISRS01".getBytes(StandardCharsets.US_ASCII);
+
+	// Records longer than this must be corrupt, since no variant sequence is anywhere near this long
+	static final int MAX_RECORD_LENGTH = 1 << 28;
+
+	// Positions stored for variants without a refined result
+	static final long NULL_POS = -1;
+	static final long TIMED_OUT_POS = -2;
+	static final long DRAFT_SUPPORTED_POS = -3;
+
 	String fileName;
-	PrintWriter out;
+	FileChannel channel;
 	Set<String> set;
+
+	// Results loaded from a previous run, which are added to the output at the end
+	ArrayList<Entry> resumed;
+
+	// Records which have been added but not written yet
+	ByteArrayOutputStream pending;
+	DataOutputStream pendingOut;
+
+	// Held while writing and syncing a batch of records, so batches reach the file in order
+	Object commitLock = new Object();
+
+	ScheduledExecutorService committer = null;
+
 	IntermediateResultsStore(String s, boolean resume) throws Exception
+	{
+		this(s, IrisSettings.LEGACY_RESULTS_FILE, resume);
+	}
+
+	IntermediateResultsStore(String s, String legacyFileName, boolean resume) throws Exception
 	{
 		fileName = s;
-		HashSet<String> ids = new HashSet<String>();
-		set = Collections.synchronizedSet(ids);
-		// If we are resuming, read in results so far and open appending output stream
-		if(new File(s).exists() && resume)
+		set = Collections.synchronizedSet(new HashSet<String>());
+		resumed = new ArrayList<Entry>();
+		pending = new ByteArrayOutputStream();
+		pendingOut = new DataOutputStream(pending);
+
+		File f = new File(s);
+		long validLength = -1;
+		if(resume && f.exists() && isBinaryStore(f))
 		{
-			Scanner input = new Scanner(new FileInputStream(new File(s)));
-			while(input.hasNext())
+			// If we are resuming, read in results so far and append after the last complete record
+			validLength = readStore(f);
+			if(validLength < MAGIC.length)
 			{
-				String line = input.nextLine().trim();
-				String[] tokens = line.split("\t");
-				if(tokens.length != 5)
-				{
-					continue;
-				}
-				set.add(tokens[0]);
+				// Not even the header was written, so start the log over
+				validLength = -1;
 			}
-			input.close();
-			FileWriter fileWriter = new FileWriter(s, true);
-		    out = new PrintWriter(fileWriter);
+			else if(validLength < f.length())
+			{
+				Logger.warn("Discarding " + (f.length() - validLength) + " bytes of incomplete results at the end of " + s);
+			}
+		}
+		else if(resume && f.exists())
+		{
+			readLegacyStore(f);
+		}
+		else if(resume && legacyFileName.length() > 0 && new File(legacyFileName).exists())
+		{
+			readLegacyStore(new File(legacyFileName));
+		}
 
+		channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if(validLength >= 0)
+		{
+			channel.truncate(validLength);
+			channel.position(validLength);
 		}
 		else
 		{
-			out = new PrintWriter(s);
+			// Start a new log, copying over anything read from an old text store
+			channel.truncate(0);
+			channel.write(ByteBuffer.wrap(MAGIC));
+			for(Entry e : resumed)
+			{
+				appendRecord(e.key, e.seq, e.pos, e.time);
+			}
+			commit();
+		}
+		if(resume)
+		{
+			Logger.log("Loaded " + set.size() + " results from a previous run");
+		}
+
+		if(IrisSettings.STORE_SYNC_MILLIS > 0)
+		{
+			committer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "iris-results-store");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			committer.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					tryCommit();
+				}
+			}, IrisSettings.STORE_SYNC_MILLIS, IrisSettings.STORE_SYNC_MILLIS, TimeUnit.MILLISECONDS);
 		}
 	}
-	
+
 	void addVariant(String key, String seq, long pos)
 	{
-		out.println(key+"\t"+seq+"\t"+pos+"\t"+System.currentTimeMillis()+"\t"+"$");
-		out.flush();
+		boolean full;
+		synchronized(this)
+		{
+			appendRecord(key, seq, pos, System.currentTimeMillis());
+			full = pending.size() >= IrisSettings.STORE_BATCH_BYTES || committer == null;
+		}
 		set.add(key);
+		if(full)
+		{
+			tryCommit();
+		}
 	}
-	
+
 	void addNullVariant(String key)
 	{
-		addVariant(key, "X", -1);
+		addVariant(key, "X", NULL_POS);
+	}
+
+	/*
+	 * Records that a variant's refinement was stopped for taking too long, so it keeps its original call
+	 */
+	void addTimedOutVariant(String key)
+	{
+		addVariant(key, "T", TIMED_OUT_POS);
+	}
+
+	/*
+	 * Records that a variant was kept as called without polishing because its reads already supported it
+	 */
+	void addDraftSupportedVariant(String key)
+	{
+		addVariant(key, "S", DRAFT_SUPPORTED_POS);
 	}
 	
+	/*
+	 * Adds a record to the pending batch - the caller must hold the lock on this object
+	 */
+	void appendRecord(String key, String seq, long pos, long time)
+	{
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		byte[] seqBytes = seq.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(4 + keyBytes.length + 8 + 8 + 4 + seqBytes.length);
+		payload.putInt(keyBytes.length).put(keyBytes).putLong(pos).putLong(time).putInt(seqBytes.length).put(seqBytes);
+		CRC32 crc = new CRC32();
+		crc.update(payload.array());
+		try {
+			pendingOut.writeInt(payload.capacity());
+			pendingOut.writeInt((int)crc.getValue());
+			pendingOut.write(payload.array());
+		} catch (IOException e) {
+			// Can't happen when writing to memory
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 * Commits pending records, logging rather than throwing if they can't be written
+	 * The results are still used for this run, and a variant which isn't saved is just refined again when resuming
+	 */
+	void tryCommit()
+	{
+		try {
+			commit();
+		} catch (Exception e) {
+			Logger.warn("Could not write intermediate results to " + fileName + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Writes all pending records to the file and syncs it to disk
+	 */
+	void commit() throws Exception
+	{
+		synchronized(commitLock)
+		{
+			byte[] batch;
+			synchronized(this)
+			{
+				if(pending.size() == 0)
+				{
+					return;
+				}
+				batch = pending.toByteArray();
+				pending.reset();
+			}
+			ByteBuffer buf = ByteBuffer.wrap(batch);
+			while(buf.hasRemaining())
+			{
+				channel.write(buf);
+			}
+			channel.force(false);
+			Metrics.add("iris_out_dir_bytes_written_total{file=\"results_store\"}", "Bytes written to files in the output directory", batch.length);
+			Metrics.inc("iris_results_store_commits_total", "Batches of intermediate results synced to disk");
+		}
+	}
+
+	/*
+	 * Writes any pending records and closes the file
+	 */
+	void close() throws Exception
+	{
+		if(committer != null)
+		{
+			committer.shutdown();
+			committer.awaitTermination(10, TimeUnit.SECONDS);
+			committer = null;
+		}
+		if(channel.isOpen())
+		{
+			commit();
+			channel.close();
+		}
+	}
+
+	/*
+	 * Adds the refined variants from the previous run to the map - the ones from this run were added as they finished
+	 */
 	void fillMapFromStore(NewSequenceMap nsm) throws Exception
 	{
-		out.close();
-		Scanner input = new Scanner(new FileInputStream(new File(fileName)));
+		close();
+		for(Entry e : resumed)
+		{
+			if(e.pos >= 0 && !nsm.containsKey(e.key))
+			{
+				nsm.add(e.key, e.seq, e.pos);
+			}
+			else if(e.pos == DRAFT_SUPPORTED_POS)
+			{
+				nsm.addReason(e.key, NewSequenceMap.DRAFT_SUPPORTED);
+			}
+		}
+		
+		// The map has its own copy now, which may be off the heap
+		resumed.clear();
+	}
+
+	static boolean isBinaryStore(File f) throws Exception
+	{
+		byte[] start = new byte[MAGIC.length];
+		FileInputStream input = new FileInputStream(f);
+		try {
+			int read = 0;
+			while(read < start.length)
+			{
+				int n = input.read(start, read, start.length - read);
+				if(n == -1)
+				{
+					// Too short to hold the header, which can happen if a run was killed right away
+					return f.length() == 0 || Arrays.equals(Arrays.copyOf(start, read), Arrays.copyOf(MAGIC, read));
+				}
+				read += n;
+			}
+		} finally {
+			input.close();
+		}
+		return Arrays.equals(start, MAGIC);
+	}
+
+	/*
+	 * Reads all complete records from a binary store, and returns the length of the file up to the end of the last one
+	 * Returns 0 if not even the header is complete, so that the file is started over
+	 */
+	long readStore(File f) throws Exception
+	{
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		long offset = 0;
+		try {
+			byte[] header = new byte[MAGIC.length];
+			input.readFully(header);
+			offset = MAGIC.length;
+			CRC32 crc = new CRC32();
+			while(true)
+			{
+				int length = input.readInt();
+				int checksum = input.readInt();
+				if(length < 24 || length > MAX_RECORD_LENGTH)
+				{
+					break;
+				}
+				byte[] payload = new byte[length];
+				input.readFully(payload);
+				crc.reset();
+				crc.update(payload);
+				if((int)crc.getValue() != checksum)
+				{
+					break;
+				}
+				ByteBuffer buf = ByteBuffer.wrap(payload);
+				byte[] keyBytes = new byte[buf.getInt()];
+				buf.get(keyBytes);
+				long pos = buf.getLong();
+				long time = buf.getLong();
+				byte[] seqBytes = new byte[buf.getInt()];
+				buf.get(seqBytes);
+				addResumed(new String(keyBytes, StandardCharsets.UTF_8), new String(seqBytes, StandardCharsets.UTF_8), pos, time);
+				offset += 8 + length;
+			}
+		} catch (EOFException e) {
+			// The run ended partway through writing a record
+		} catch (RuntimeException e) {
+			// The lengths inside a record don't match up, which the checksum should have caught
+		} finally {
+			input.close();
+		}
+		return offset;
+	}
+
+	/*
+	 * Reads results from the text format used by older versions
+	 * The format of each line is (tab-separated) ID, Sequence, Position, CompletionCertificate, $
+	 */
+	void readLegacyStore(File f) throws Exception
+	{
+		Scanner input = new Scanner(new FileInputStream(f));
 		while(input.hasNext())
 		{
 			String line = input.nextLine().trim();
@@ -72,17 +370,32 @@ public class IntermediateResultsStore {
 			{
 				continue;
 			}
-			String key = tokens[0];
-			if(!nsm.containsKey(key))
-			{
-				String seq = tokens[1];
-				long pos = Long.parseLong(tokens[2]);
-				if(pos != -1)
-				{
-					nsm.add(key, seq, pos);
-				}
-			}
+			addResumed(tokens[0], tokens[1], Long.parseLong(tokens[2]), Long.parseLong(tokens[3]));
 		}
 		input.close();
 	}
+
+	void addResumed(String key, String seq, long pos, long time)
+	{
+		if(set.add(key))
+		{
+			resumed.add(new Entry(key, seq, pos, time));
+		}
+	}
+
+	/*
+	 * The result of a single variant from a previous run
+	 */
+	static class Entry
+	{
+		String key, seq;
+		long pos, time;
+		Entry(String key, String seq, long pos, long time)
+		{
+			this.key = key;
+			this.seq = seq;
+			this.pos = pos;
+			this.time = time;
+		}
+	}
 }
@@ -6,22 +6,49 @@ public static void main(String[] args) throws Exception
 
 static void runIris(String[] args) throws Exception
 {
-	Logger.init(IrisSettings.LOG_OUT_FILE);
 	IrisSettings.parseArgs(args);
+	Logger.init(IrisSettings.LOG_OUT_FILE);
+	if(IrisSettings.STAGE_TIMES_FILE.length() > 0)
+	{
+		StageTimer.enable();
+	}
+	Metrics.start();
 	SupportingReadMap srm = new SupportingReadMap(IrisSettings.VCF_FILE);
 	IrisGenomeQuery gq = new IrisGenomeQuery(IrisSettings.GENOME_FILE);
 	
 	ParallelRunningStitch prs = new ParallelRunningStitch(srm, IrisSettings.THREADS, gq);
-	prs.run();
+	
+	// Stop the helper shells and clear out the short-lived files even if refining the variants fails
+	try {
+		prs.run();
+	} finally {
+		try {
+			ToolPool.shutdown();
+		} finally {
+			MinimapIndexCache.shutdown();
+			IrisSettings.removeScratchDir();
+		}
+	}
 	
 	NewSequenceMap nsm = prs.results;
 	
 	VcfEditor ved = new VcfEditor(IrisSettings.VCF_FILE, IrisSettings.VCF_OUT_FILE, 
 			IrisSettings.TABLE_OUT_FILE, nsm, gq);
 	ved.run();
+	nsm.close();
+	
+	if(IrisSettings.STAGE_TIMES_FILE.length() > 0)
+	{
+		StageTimer.write(IrisSettings.STAGE_TIMES_FILE);
+	}
 	
 	Logger.log("Iris completed - output is in " + IrisSettings.VCF_OUT_FILE);
 	Logger.log("Total number of variants with errors: " + prs.variantsWithErrors.get() + " out of " + prs.variantsProcessed.get());
+	if(prs.variantsTimedOut.get() > 0)
+	{
+		Logger.log("Total number of variants which timed out: " + prs.variantsTimedOut.get());
+	}
+	Metrics.stop();
 	Logger.close();
 }
 }
@@ -0,0 +1,230 @@
+/*
+ * End-to-end throughput benchmark - runs Iris on the same input with several thread counts and reports
+ * variants per second, scaling efficiency, and per-stage latency percentiles for each run.
+ * Each run is a separate JVM so that JIT warm-up, caches, and settings don't carry over between runs.
+ * Usage: java IrisBenchmark [Iris args] [bench_threads=1,2,4] [bench_out=iris_bench]
+ */
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+
+public class IrisBenchmark {
+
+	static String THREAD_COUNTS = "1,2,4";
+	static String OUT_PREFIX = "iris_bench";
+	static double[] PERCENTILES = new double[] {50, 95, 99};
+
+	static void usage()
+	{
+		System.out.println("Usage: java IrisBenchmark [Iris args] [benchmark args]");
+		System.out.println("  Example: java IrisBenchmark genome_in=genome.fa vcf_in=sniffles.vcf ");
+		System.out.println("      reads_in=reads.bam vcf_out=refined.vcf bench_threads=1,2,4,8");
+		System.out.println();
+		System.out.println("Benchmark args:");
+		System.out.println("  bench_threads (String) [1,2,4]      - comma-separated thread counts to run Iris with");
+		System.out.println("  bench_out     (String) [iris_bench] - prefix of the report (.csv and .json), logs, and per-variant stage times");
+		System.out.println();
+		System.out.println("All other args are passed to Iris, except that threads is set by the benchmark for each run");
+		System.out.println();
+	}
+
+	/*
+	 * The measurements from running Iris with one thread count
+	 */
+	static class Run
+	{
+		int threads;
+		long wallMs;
+		int variants;
+		double variantsPerSec;
+		double efficiency;
+
+		// For each stage, the number of variants which spent time in it and their latency percentiles/total in ms
+		int[] counts = new int[StageTimer.STAGE_NAMES.length];
+		double[][] percentiles = new double[StageTimer.STAGE_NAMES.length][PERCENTILES.length];
+		double[] totals = new double[StageTimer.STAGE_NAMES.length];
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		ArrayList<String> irisArgs = new ArrayList<String>();
+		for(String arg : args)
+		{
+			String stripped = arg;
+			while(stripped.startsWith("-"))
+			{
+				stripped = stripped.substring(1);
+			}
+			if(stripped.startsWith("bench_threads="))
+			{
+				THREAD_COUNTS = stripped.substring("bench_threads=".length());
+			}
+			else if(stripped.startsWith("bench_out="))
+			{
+				OUT_PREFIX = stripped.substring("bench_out=".length());
+			}
+			else if(stripped.equals("help") || stripped.equals("h"))
+			{
+				usage();
+				return;
+			}
+			else if(!stripped.startsWith("threads=") && !stripped.startsWith("stage_times_out="))
+			{
+				irisArgs.add(arg);
+			}
+		}
+
+		ArrayList<Run> runs = new ArrayList<Run>();
+		for(String threadString : THREAD_COUNTS.split(","))
+		{
+			int threads = Integer.parseInt(threadString.trim());
+			Run run = runIris(irisArgs, threads);
+			runs.add(run);
+
+			// Efficiency is throughput per thread compared to the first run
+			Run base = runs.get(0);
+			run.efficiency = (run.variantsPerSec / base.variantsPerSec) / ((double)run.threads / base.threads);
+			System.out.printf(Locale.ROOT, "threads=%d: %d variants in %d ms (%.2f variants/sec, efficiency %.2f)\n",
+					run.threads, run.variants, run.wallMs, run.variantsPerSec, run.efficiency);
+		}
+
+		writeCsv(runs, OUT_PREFIX + ".csv");
+		writeJson(runs, OUT_PREFIX + ".json");
+		System.out.println("Benchmark report written to " + OUT_PREFIX + ".csv and " + OUT_PREFIX + ".json");
+	}
+
+	/*
+	 * Runs Iris in a new JVM with the given number of threads and collects its stage timings
+	 */
+	static Run runIris(ArrayList<String> irisArgs, int threads) throws Exception
+	{
+		String runPrefix = OUT_PREFIX + ".threads" + threads;
+		String timesFile = new File(runPrefix + ".stages.tsv").getAbsolutePath();
+
+		// Use the same JVM and options (heap size, etc.) as the benchmark itself
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + "/bin/java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("Iris");
+		command.addAll(irisArgs);
+		command.add("threads=" + threads);
+		command.add("stage_times_out=" + timesFile);
+
+		// Logging goes to stdout unless log_out was given, so capture it with the run
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(new File(runPrefix + ".log"));
+
+		new File(timesFile).delete();
+		long start = System.nanoTime();
+		int exitCode = pb.start().waitFor();
+		long wallMs = (System.nanoTime() - start) / 1000000;
+		if(exitCode != 0 || !new File(timesFile).exists())
+		{
+			throw new Exception("Iris failed with " + threads + " threads (exit code " + exitCode + ") - see " + runPrefix + ".log");
+		}
+
+		StageTimer.read(timesFile);
+		Run res = new Run();
+		res.threads = threads;
+		res.wallMs = wallMs;
+		res.variants = StageTimer.times.size();
+		res.variantsPerSec = res.variants / (Math.max(wallMs, 1) / 1000.0);
+		for(int stage = 0; stage < StageTimer.STAGE_NAMES.length; stage++)
+		{
+			double[] sorted = StageTimer.sortedStageTimes(stage);
+			res.counts[stage] = sorted.length;
+			for(int i = 0; i<PERCENTILES.length; i++)
+			{
+				res.percentiles[stage][i] = StageTimer.percentile(sorted, PERCENTILES[i]);
+			}
+			for(double ms : sorted)
+			{
+				res.totals[stage] += ms;
+			}
+		}
+		return res;
+	}
+
+	/*
+	 * Writes one row per run and stage
+	 */
+	static void writeCsv(ArrayList<Run> runs, String fn) throws Exception
+	{
+		PrintWriter out = new PrintWriter(new File(fn));
+		StringBuilder header = new StringBuilder("threads,wall_ms,variants,variants_per_sec,efficiency,stage,count");
+		for(double p : PERCENTILES)
+		{
+			header.append(",p").append((int)p).append("_ms");
+		}
+		header.append(",total_ms");
+		out.println(header);
+		for(Run run : runs)
+		{
+			for(int stage = 0; stage < StageTimer.STAGE_NAMES.length; stage++)
+			{
+				StringBuilder line = new StringBuilder();
+				line.append(run.threads).append(',').append(run.wallMs).append(',').append(run.variants).append(',');
+				line.append(format(run.variantsPerSec)).append(',').append(format(run.efficiency)).append(',');
+				line.append(StageTimer.STAGE_NAMES[stage]).append(',').append(run.counts[stage]);
+				for(int i = 0; i<PERCENTILES.length; i++)
+				{
+					line.append(',').append(format(run.percentiles[stage][i]));
+				}
+				line.append(',').append(format(run.totals[stage]));
+				out.println(line);
+			}
+		}
+		out.close();
+	}
+
+	/*
+	 * Writes the same report as the CSV file, nested by run and then by stage
+	 */
+	static void writeJson(ArrayList<Run> runs, String fn) throws Exception
+	{
+		PrintWriter out = new PrintWriter(new File(fn));
+		out.println("{");
+		out.println("  \"runs\": [");
+		for(int r = 0; r<runs.size(); r++)
+		{
+			Run run = runs.get(r);
+			out.println("    {");
+			out.println("      \"threads\": " + run.threads + ",");
+			out.println("      \"wall_ms\": " + run.wallMs + ",");
+			out.println("      \"variants\": " + run.variants + ",");
+			out.println("      \"variants_per_sec\": " + format(run.variantsPerSec) + ",");
+			out.println("      \"efficiency\": " + format(run.efficiency) + ",");
+			out.println("      \"stages\": {");
+			for(int stage = 0; stage < StageTimer.STAGE_NAMES.length; stage++)
+			{
+				StringBuilder line = new StringBuilder("        \"" + StageTimer.STAGE_NAMES[stage] + "\": {");
+				line.append("\"count\": ").append(run.counts[stage]);
+				for(int i = 0; i<PERCENTILES.length; i++)
+				{
+					line.append(", \"p").append((int)PERCENTILES[i]).append("_ms\": ").append(format(run.percentiles[stage][i]));
+				}
+				line.append(", \"total_ms\": ").append(format(run.totals[stage])).append("}");
+				if(stage < StageTimer.STAGE_NAMES.length - 1)
+				{
+					line.append(',');
+				}
+				out.println(line);
+			}
+			out.println("      }");
+			out.println("    }" + (r < runs.size() - 1 ? "," : ""));
+		}
+		out.println("  ]");
+		out.println("}");
+		out.close();
+	}
+
+	static String format(double d)
+	{
+		return String.format(Locale.ROOT, "%.3f", d);
+	}
+}
@@ -1,20 +1,75 @@
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
 
+/*
+ * Random access to the reference genome.  Sequences are served directly from a memory-mapped
+ * copy of the FASTA file using the line lengths stored in its .fai index, which is built here if it is missing.
+ * Compressed FASTA files can't be mapped, so for those we fall back to calling samtools faidx.
+ */
 public class IrisGenomeQuery {
 	String filename;
-	
-	// Assume that samtools is on the user's path
-	
+
+	// Whether we need to go through samtools because the FASTA is compressed
+	boolean useSamtools;
+
+	// The index entries for each chromosome, keyed by name
+	HashMap<String, FaiEntry> index;
+
+	// Mapped regions of the FASTA file for each chromosome, created the first time the chromosome is queried
+	ConcurrentHashMap<String, MappedByteBuffer> mapped;
+
 	IrisGenomeQuery(String filename) throws Exception
 	{
-		testSamtoolsInstalled();
 		boolean validFile = new File(filename).exists();
 		if(!validFile) {
 			throw new Exception("geonome file does not exist: " + filename);
 		}
 		this.filename = filename;
+		useSamtools = filename.endsWith(".gz") || filename.endsWith(".bgz");
+		if(useSamtools)
+		{
+			testSamtoolsInstalled();
+			return;
+		}
+		String faiFilename = filename + ".fai";
+		if(!new File(faiFilename).exists())
+		{
+			buildIndex(filename, faiFilename);
+		}
+		index = readIndex(faiFilename);
+		mapped = new ConcurrentHashMap<String, MappedByteBuffer>();
+	}
+
+	/*
+	 * Makes a query object sharing the index and mapped file of an existing one
+	 */
+	IrisGenomeQuery(IrisGenomeQuery other)
+	{
+		filename = other.filename;
+		useSamtools = other.useSamtools;
+		index = other.index;
+		mapped = other.mapped;
+	}
+	
+	/*
+	 * Gets the length of a chromosome, or -1 if it is unknown
+	 */
+	long chromosomeLength(String chr)
+	{
+		if(useSamtools || !index.containsKey(chr))
+		{
+			return -1;
+		}
+		return index.get(chr).length;
 	}
 	
 	/*
@@ -25,27 +80,105 @@ public class IrisGenomeQuery {
 		String samtoolsTestCommand = IrisSettings.SAMTOOLS_PATH;
 		Process child = Runtime.getRuntime().exec(samtoolsTestCommand);
         int seqExit = child.waitFor();
-		
+
 		// Make sure an exit code is output
         // Exit code > 1 means the command failed, usually because samtools is not installed or on path
         if(seqExit > 1)
         {
-        	throw new Exception("samtools produced bad exit code (" 
+        	throw new Exception("samtools produced bad exit code ("
         			+ seqExit + ") - perhaps it is not on your path: " + IrisSettings.SAMTOOLS_PATH);
         }
 	}
-	
+
+	/*
+	 * Gets the (1-based, inclusive) region [startPos, endPos] of a chromosome, matching the output of samtools faidx
+	 */
 	String genomeSubstring(String chr, long startPos, long endPos) throws Exception
 	{
 		if(startPos > endPos)
 		{
 			return "";
 		}
+		if(useSamtools)
+		{
+			return samtoolsSubstring(chr, startPos, endPos);
+		}
+
+		FaiEntry entry = index.get(chr);
+		if(entry == null)
+		{
+			throw new Exception("chromosome not found in genome index: " + chr);
+		}
+
+		// Clip the region to the chromosome like samtools does
+		long start = Math.max(startPos, 1) - 1;
+		long end = Math.min(endPos, entry.length);
+		if(start >= end)
+		{
+			throw new Exception("genome region is past the end of the chromosome: " + chr + ":" + startPos + "-" + endPos);
+		}
+
+		MappedByteBuffer buf = getMapped(entry);
+		char[] res = new char[(int)(end - start)];
+
+		// Walk line by line, copying the bases and skipping the line terminators
+		long pos = start;
+		int idx = 0;
+		while(pos < end)
+		{
+			long lineIdx = pos / entry.lineBases;
+			int lineOffset = (int)(pos % entry.lineBases);
+			int count = (int)Math.min(entry.lineBases - lineOffset, end - pos);
+			int bufOffset = (int)(lineIdx * entry.lineWidth + lineOffset);
+			for(int i = 0; i<count; i++)
+			{
+				res[idx++] = (char)buf.get(bufOffset + i);
+			}
+			pos += count;
+		}
+		return new String(res);
+	}
+
+	/*
+	 * Gets the mapped region of the FASTA file holding a chromosome's sequence, mapping it if needed
+	 */
+	MappedByteBuffer getMapped(FaiEntry entry) throws Exception
+	{
+		MappedByteBuffer res = mapped.get(entry.name);
+		if(res != null)
+		{
+			return res;
+		}
+
+		// Size of the sequence including line terminators, but not past the end of the file
+		long fullLines = entry.length / entry.lineBases;
+		long lastLine = entry.length % entry.lineBases;
+		long size = fullLines * entry.lineWidth + lastLine;
+		if(size > Integer.MAX_VALUE)
+		{
+			throw new Exception("chromosome too long to map into memory: " + entry.name);
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			res = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, entry.offset, size);
+		} finally {
+			raf.close();
+		}
+		MappedByteBuffer prev = mapped.putIfAbsent(entry.name, res);
+		return prev == null ? res : prev;
+	}
+
+	/*
+	 * Gets a genome region with samtools faidx - only used for compressed genome files
+	 */
+	String samtoolsSubstring(String chr, long startPos, long endPos) throws Exception
+	{
 		String faidxCommand = String.format(IrisSettings.SAMTOOLS_PATH + " faidx %s %s:%d-%d", filename, chr, startPos, endPos);
 		Process child = Runtime.getRuntime().exec(faidxCommand);
         InputStream seqStream = child.getInputStream();
 		Scanner seqInput = new Scanner(seqStream);
-		
+
 		// Make sure it produced an actual output
 		if(!seqInput.hasNext())
         {
@@ -54,7 +187,7 @@ public class IrisGenomeQuery {
         }
 		// Read in and ignore sequence name
 		seqInput.next();
-		
+
 		// Make sure there's also a sequence
 		if(!seqInput.hasNext())
 		{
@@ -69,4 +202,171 @@ public class IrisGenomeQuery {
 		seqInput.close();
 		return res.toString();
 	}
+
+	/*
+	 * Reads a samtools-style .fai index
+	 */
+	static HashMap<String, FaiEntry> readIndex(String faiFilename) throws Exception
+	{
+		HashMap<String, FaiEntry> res = new HashMap<String, FaiEntry>();
+		Scanner input = new Scanner(new FileInputStream(new File(faiFilename)));
+		while(input.hasNextLine())
+		{
+			String line = input.nextLine();
+			if(line.length() == 0)
+			{
+				continue;
+			}
+			String[] tokens = line.split("\t");
+			if(tokens.length < 5)
+			{
+				input.close();
+				throw new Exception("malformed genome index line in " + faiFilename + ": " + line);
+			}
+			FaiEntry entry = new FaiEntry(tokens[0], Long.parseLong(tokens[1]), Long.parseLong(tokens[2]),
+					Integer.parseInt(tokens[3]), Integer.parseInt(tokens[4]));
+			res.put(entry.name, entry);
+		}
+		input.close();
+		return res;
+	}
+
+	/*
+	 * Builds a .fai index for a FASTA file in the same format as samtools faidx
+	 */
+	static void buildIndex(String fastaFilename, String faiFilename) throws Exception
+	{
+		InputStream input = new BufferedInputStream(new FileInputStream(new File(fastaFilename)), 1 << 16);
+		PrintWriter out = new PrintWriter(new File(faiFilename));
+
+		String name = null;
+		long length = 0, offset = 0;
+		int lineBases = -1, lineWidth = -1;
+
+		// Whether the last line we saw was shorter than the others, so it should be the last one of the sequence
+		boolean sawShortLine = false;
+
+		long filePos = 0;
+		StringBuilder header = null;
+		int curBases = 0, curWidth = 0;
+		boolean atLineStart = true;
+		int b;
+		while(true)
+		{
+			b = input.read();
+			if(b == -1 && atLineStart)
+			{
+				break;
+			}
+			filePos++;
+			if(atLineStart && b == '>')
+			{
+				if(name != null)
+				{
+					out.println(name + "\t" + length + "\t" + offset + "\t" + Math.max(lineBases, 0) + "\t" + Math.max(lineWidth, 0));
+				}
+				header = new StringBuilder();
+				atLineStart = false;
+				continue;
+			}
+			if(header != null)
+			{
+				// Reading the name line
+				if(b == '\n' || b == -1)
+				{
+					String line = header.toString().trim();
+					int space = line.indexOf(' ');
+					int tab = line.indexOf('\t');
+					int end = line.length();
+					if(space != -1) end = Math.min(end, space);
+					if(tab != -1) end = Math.min(end, tab);
+					name = line.substring(0, end);
+					length = 0;
+					offset = filePos;
+					lineBases = -1;
+					lineWidth = -1;
+					sawShortLine = false;
+					header = null;
+					atLineStart = true;
+					if(b == -1) break;
+				}
+				else
+				{
+					header.append((char)b);
+				}
+				continue;
+			}
+			atLineStart = false;
+			if(b == '\n' || b == -1)
+			{
+				if(b == '\n') curWidth++;
+				if(curBases > 0)
+				{
+					if(sawShortLine)
+					{
+						input.close();
+						out.close();
+						new File(faiFilename).delete();
+						throw new Exception("different line length in sequence " + name + " of " + fastaFilename);
+					}
+					if(lineBases == -1)
+					{
+						lineBases = curBases;
+						lineWidth = curWidth;
+					}
+					else if(curBases < lineBases || curWidth != lineWidth)
+					{
+						sawShortLine = true;
+					}
+					else if(curBases > lineBases)
+					{
+						input.close();
+						out.close();
+						new File(faiFilename).delete();
+						throw new Exception("different line length in sequence " + name + " of " + fastaFilename);
+					}
+					length += curBases;
+				}
+				curBases = 0;
+				curWidth = 0;
+				atLineStart = true;
+				if(b == -1) break;
+			}
+			else
+			{
+				curWidth++;
+				if(b != '\r')
+				{
+					curBases++;
+				}
+			}
+		}
+		if(name != null)
+		{
+			out.println(name + "\t" + length + "\t" + offset + "\t" + Math.max(lineBases, 0) + "\t" + Math.max(lineWidth, 0));
+		}
+		input.close();
+		out.close();
+	}
+
+	/*
+	 * A single line of a .fai index - the name, length, and file offset of a sequence as well as
+	 * the number of bases and bytes (including the line terminator) on each line
+	 */
+	static class FaiEntry
+	{
+		String name;
+		long length;
+		long offset;
+		int lineBases;
+		int lineWidth;
+		FaiEntry(String name, long length, long offset, int lineBases, int lineWidth)
+		{
+			this.name = name;
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineWidth = lineWidth;
+		}
+	}
 }
@@ -18,14 +18,36 @@ public class IrisSettings {
 	// System options
 	static int THREADS = 4;
 	static int ALIGNMENT_THREADS = 1;
+	static int OUTPUT_THREADS = -1; // Use THREADS if not set
+	static int CORE_BUDGET = -1; // Use THREADS * ALIGNMENT_THREADS if not set
+	static boolean SCHEDULE_BY_COST = true;
+	static int OUTPUT_WINDOW = 16384;
 	static boolean CLEAN_INTERMEDIATE_FILES = true;
+	static int TOOL_POOL_SIZE = 0; // Start tools directly from the JVM if not set
+	static int TOOL_TIMEOUT = 0; // In seconds, with no timeout if not set
+	static int RACON_TIMEOUT = 0; // Use TOOL_TIMEOUT if not set
+	static int MINIMAP_TIMEOUT = 0; // Use TOOL_TIMEOUT if not set
+	static int SAMTOOLS_TIMEOUT = 0; // Use TOOL_TIMEOUT if not set
+	static int SLOW_VARIANT_SECONDS = 60;
 	static boolean RESUME = false;
 	static boolean PROCESS_DELETIONS = false;
+	static boolean BATCH_READ_GATHERING = false;
+	static int TILE_SIZE = 100000;
 	static String LOG_OUT_FILE = "";
+	static int LOG_BUFFER_SIZE = 8192;
 	static String TABLE_OUT_FILE = "results.tsv";
-	static String INTERMEDIATE_RESULTS_FILE = "resultsstore.txt";
+	static String INTERMEDIATE_RESULTS_FILE = "resultsstore.bin";
+	static String LEGACY_RESULTS_FILE = "resultsstore.txt"; // Read when resuming a run from an older version
+	static int STORE_SYNC_MILLIS = 500;
+	static int STORE_BATCH_BYTES = 1 << 20;
+	static int SPILL_LENGTH = 0; // Keep all refined sequences on the heap if not set
 	static String RNAMES_FIELDNAME = "RNAMES";
 	static String OUT_DIR = "";
+	static String SCRATCH_DIR = "";
+	static String STAGE_TIMES_FILE = "";
+	static String METRICS_FILE = "";
+	static int METRICS_INTERVAL = 10;
+	static int METRICS_PORT = -1;
 	
 	// External tool paths
 	static String getIrisWorkingDir()
@@ -49,11 +71,19 @@ public class IrisSettings {
 	// Consensus options
 	static int RACON_BUFFER = 1000;
 	static int RACON_ITERS = 1;
+	static boolean TRIM_READS = true;
+	static int TRIM_MARGIN = 500;
+	static int MAX_READS = 0; // Use every supporting read if not set
 	
 	// Alignment options
 	static boolean HELP = false;
 	static int GENOME_REGION_BUFFER = 100000;
 	static String MINIMAP_MODE = "map-ont";
+	static String CONSENSUS_ALIGNER = "minimap";
+	static double DRAFT_SUPPORT = 0; // Always polish if not set
+	static double DRAFT_MAX_ERROR = 0.1;
+	static long INDEX_CACHE_BYTES = 256L << 20; // Index each variant's region separately if not set
+	static String CONSENSUS_ENGINE = "racon";
 	
 	// Insertion filter
 	static int INSERTION_MIN_LENGTH = 30;
@@ -84,19 +114,49 @@ public class IrisSettings {
 		System.out.println("  minimap_path     (String)     - the path to minimap if using minimap and not using included binary");
 		System.out.println("  racon_path       (String)     - the path to racon if not using included binary");
 		System.out.println("  log_out          (String)     - the name of the log file to be produced");
+		System.out.println("  log_level        (String) [debug] - the most detailed messages to log (error, warn, info, or debug for per-variant progress)");
+		System.out.println("  log_buffer       (int)    [8192] - the number of log messages which can be waiting to be written");
 		System.out.println("  out_dir          (String)     - the directory where intermediate files go");
+		System.out.println("  scratch_dir      (String)     - the directory for short-lived per-variant files (default /dev/shm if available)");
 		System.out.println("  genome_buffer    (int)    [100k] - the genome region on each side of the SV to align assembled reads to");
 		System.out.println("  min_ins_length   (int)    [30]   - the min length allowed for a refined insertion sequence");
 		System.out.println("  max_ins_dist     (int)    [100]  - the max distance a refined insertion call can be from its old position");
 		System.out.println("  max_out_length   (int)    [100k] - the max length of variant which will be output");
 		System.out.println("  max_len_change   (float)  [0.25] - the max proportion by which a variant's length can change");
-		System.out.println("  --keep_files                  - don't remove intermediate files - used for debugging");
+		System.out.println("  tile_size        (int)    [100k] - the size of the genome regions whose variants are processed together by one thread");
+		System.out.println("  aligner          (String) [minimap] - how to align consensus sequences to the reference (minimap or embedded)");
+		System.out.println("  trim_margin      (int)    [500]  - how far past the draft sequence to keep supporting reads when trimming them for polishing");
+		System.out.println("  max_reads        (int)    [0]    - polish each variant with at most this many supporting reads, preferring ones which span it with good base qualities (0 for no limit)");
+		System.out.println("  index_cache      (long)   [256m] - the space for minimap2 indexes of the genome shared by nearby variants (0 to index each variant's region separately)");
+		System.out.println("  draft_support    (float)  [0]    - keep a variant as called without polishing if at least this fraction of its reads contain it (0 to always polish)");
+		System.out.println("  draft_max_error  (float)  [0.1]  - the max edits per base for a read to count as containing a variant for draft_support");
+		System.out.println("  consensus        (String) [racon] - how to polish the variant sequence with its reads (racon or poa for the built-in partial order aligner)");
+		System.out.println("  output_threads   (int)    [threads] - the number of threads to use when writing the output VCF");
+		System.out.println("  output_window    (int)    [16k]  - the max number of VCF records being processed or waiting to be written at once");
+		System.out.println("  core_budget      (int)    [threads] - the max cores used by external tools at once, shared among the last variants once the rest are done");
+		System.out.println("  tool_pool        (int)    [0]    - run external tools through this many long-lived helper shells instead of starting each one from Iris");
+		System.out.println("  tool_timeout     (int)    [0]    - kill any external tool which runs for more than this many seconds (0 for no limit)");
+		System.out.println("  racon_timeout    (int)    [tool_timeout] - the timeout in seconds for racon, which marks the variant as timed out");
+		System.out.println("  minimap_timeout  (int)    [tool_timeout] - the timeout in seconds for minimap2");
+		System.out.println("  samtools_timeout (int)    [tool_timeout] - the timeout in seconds for samtools");
+		System.out.println("  slow_variant     (int)    [60]   - log variants whose refinement takes more than this many seconds (0 to disable)");
+		System.out.println("  spill_length     (int)    [0]    - keep refined sequences at least this long in a memory-mapped file in out_dir instead of on the heap (0 to disable)");
+		System.out.println("  store_sync       (int)    [500]  - the max milliseconds between syncs of the resume store to disk (0 to sync after every variant)");
+		System.out.println("  store_batch      (int)    [1m]   - sync the resume store early once this many bytes of results are waiting");
+		System.out.println("  stage_times_out  (String)     - write the time each variant spent in each stage of refinement to this file");
+		System.out.println("  metrics_out      (String)     - periodically write metrics about the run to this file in the Prometheus text format");
+		System.out.println("  metrics_interval (int)    [10]   - the number of seconds between writes of metrics_out");
+		System.out.println("  metrics_port     (int)           - serve the metrics at http://localhost:<port>/metrics while running");
+		System.out.println("  --keep_files                  - write intermediate files to out_dir and don't remove them - used for debugging");
 		System.out.println("  --also_deletions              - also try to refine deletion positions/lengths");
 		System.out.println("  --resume                      - use the results already computed from a previously terminated run");
 		System.out.println("  --pacbio                      - run minimap alignment in pacbio mode");
 		System.out.println("  --hifi                        - run minimap alignment in hifi mode");
 		System.out.println("  --rerunracon                  - run racon twice for additional polishing");
 		System.out.println("  --keep_long_variants          - output original VCF line for very long variants instead of ignoring them");
+		System.out.println("  --batch_reads                 - gather reads for all variants in a single pass over each chromosome");
+		System.out.println("  --full_reads                  - polish with the whole of each supporting read instead of only the part around the variant");
+		System.out.println("  --position_order              - refine variants in position order instead of starting with the ones expected to take longest");
 		System.out.println();
 	}
 	
@@ -160,6 +220,18 @@ public class IrisSettings {
 				{
 					KEEP_LONG_VARIANTS = true;
 				}
+				else if(args[i].endsWith("batch_reads"))
+				{
+					BATCH_READ_GATHERING = true;
+				}
+				else if(args[i].endsWith("full_reads"))
+				{
+					TRIM_READS = false;
+				}
+				else if(args[i].endsWith("position_order"))
+				{
+					SCHEDULE_BY_COST = false;
+				}
 				else if(args[i].equalsIgnoreCase("-h") || args[i].toLowerCase().endsWith("-help"))
 				{
 					HELP = true;
@@ -178,6 +250,42 @@ public class IrisSettings {
 				case "threads":
 					THREADS = Integer.parseInt(val);
 					break;
+				case "output_threads":
+					OUTPUT_THREADS = Integer.parseInt(val);
+					break;
+				case "output_window":
+					OUTPUT_WINDOW = parseInt(val);
+					break;
+				case "core_budget":
+					CORE_BUDGET = parseInt(val);
+					break;
+				case "tool_pool":
+					TOOL_POOL_SIZE = Math.max(0, parseInt(val));
+					break;
+				case "tool_timeout":
+					TOOL_TIMEOUT = Math.max(0, parseInt(val));
+					break;
+				case "racon_timeout":
+					RACON_TIMEOUT = Math.max(0, parseInt(val));
+					break;
+				case "minimap_timeout":
+					MINIMAP_TIMEOUT = Math.max(0, parseInt(val));
+					break;
+				case "samtools_timeout":
+					SAMTOOLS_TIMEOUT = Math.max(0, parseInt(val));
+					break;
+				case "spill_length":
+					SPILL_LENGTH = Math.max(0, parseInt(val));
+					break;
+				case "store_sync":
+					STORE_SYNC_MILLIS = Math.max(0, parseInt(val));
+					break;
+				case "store_batch":
+					STORE_BATCH_BYTES = Math.max(1, parseInt(val));
+					break;
+				case "slow_variant":
+					SLOW_VARIANT_SECONDS = Math.max(0, parseInt(val));
+					break;
 				case "genome_buffer":
 					GENOME_REGION_BUFFER = parseInt(val);
 					break;
@@ -208,6 +316,12 @@ public class IrisSettings {
 				case "log_out":
 					LOG_OUT_FILE = val;
 					break;
+				case "log_level":
+					Logger.setLevel(val);
+					break;
+				case "log_buffer":
+					LOG_BUFFER_SIZE = Math.max(2, parseInt(val));
+					break;
 				case "vcf_in":
 					VCF_FILE = val;
 					break;
@@ -220,6 +334,21 @@ public class IrisSettings {
 				case "reads_in":
 					READS_FILE = val;
 					break;
+				case "trim_margin":
+					TRIM_MARGIN = parseInt(val);
+					break;
+				case "draft_support":
+					DRAFT_SUPPORT = Double.parseDouble(val);
+					break;
+				case "draft_max_error":
+					DRAFT_MAX_ERROR = Double.parseDouble(val);
+					break;
+				case "index_cache":
+					INDEX_CACHE_BYTES = parseLong(val);
+					break;
+				case "max_reads":
+					MAX_READS = parseInt(val);
+					break;
 				case "racon_iters":
 					RACON_ITERS = parseInt(val);
 					break;
@@ -232,6 +361,38 @@ public class IrisSettings {
 				case "max_len_change":
 					MAX_LENGTH_CHANGE = Double.parseDouble(val);
 					break;
+				case "tile_size":
+					TILE_SIZE = Math.max(1, parseInt(val));
+					break;
+				case "scratch_dir":
+					SCRATCH_DIR = val;
+					break;
+				case "stage_times_out":
+					STAGE_TIMES_FILE = val;
+					break;
+				case "metrics_out":
+					METRICS_FILE = val;
+					break;
+				case "metrics_interval":
+					METRICS_INTERVAL = parseInt(val);
+					break;
+				case "metrics_port":
+					METRICS_PORT = parseInt(val);
+					break;
+				case "consensus":
+					CONSENSUS_ENGINE = val.toLowerCase();
+					if(!CONSENSUS_ENGINE.equals("racon") && !CONSENSUS_ENGINE.equals("poa"))
+					{
+						throw new Exception("unknown consensus engine: " + val + " (must be racon or poa)");
+					}
+					break;
+				case "aligner":
+					CONSENSUS_ALIGNER = val.toLowerCase();
+					if(!CONSENSUS_ALIGNER.equals("minimap") && !CONSENSUS_ALIGNER.equals("embedded"))
+					{
+						throw new Exception("unknown aligner: " + val + " (must be minimap or embedded)");
+					}
+					break;
 				case "out_dir":
 					
 					OUT_DIR = val;
@@ -242,6 +403,7 @@ public class IrisSettings {
 					}
 					File f = new File(OUT_DIR);
 					f.mkdir();
+					break;
 				default:
 					break;
 			}
@@ -257,6 +419,7 @@ public class IrisSettings {
 			System.exit(0);
 		}
 		INTERMEDIATE_RESULTS_FILE = addOutDir(INTERMEDIATE_RESULTS_FILE);
+		LEGACY_RESULTS_FILE = addOutDir(LEGACY_RESULTS_FILE);
 		TABLE_OUT_FILE = addOutDir(TABLE_OUT_FILE);
 		if(LOG_OUT_FILE.length() > 0)
 		{
@@ -275,4 +438,80 @@ public class IrisSettings {
 		}
 		else return fn;
 	}
+	
+	// The per-run directory for short-lived files, created the first time it is needed
+	static File scratchRunDir = null;
+	
+	/*
+	 * Gets the path for a short-lived per-variant file such as the input or output of an external tool.
+	 * These go in a memory-backed scratch directory so that refining a variant never touches the output directory,
+	 * unless intermediate files are being kept for debugging, in which case they go in the output directory.
+	 */
+	static String addScratchDir(String fn) throws Exception
+	{
+		if(!CLEAN_INTERMEDIATE_FILES)
+		{
+			return addOutDir(fn);
+		}
+		return getScratchRunDir().getAbsolutePath() + "/" + fn;
+	}
+	
+	static synchronized File getScratchRunDir() throws Exception
+	{
+		if(scratchRunDir != null)
+		{
+			return scratchRunDir;
+		}
+		String base = SCRATCH_DIR;
+		if(base.length() == 0)
+		{
+			File shm = new File("/dev/shm");
+			base = (shm.isDirectory() && shm.canWrite()) ? shm.getPath() : System.getProperty("java.io.tmpdir");
+		}
+		final File dir = new File(base, "iris_" + ProcessHandle.current().pid() + "_" + System.currentTimeMillis());
+		if(!dir.mkdirs())
+		{
+			throw new Exception("could not create scratch directory " + dir.getPath());
+		}
+		
+		// Also clear it out if the program exits without reaching removeScratchDir, since deleteOnExit only removes empty
+		// directories and the scratch space is usually in memory.  This doesn't take the lock, in case whatever exits holds it.
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				deleteScratchFiles(dir);
+			}
+		});
+		scratchRunDir = dir;
+		return dir;
+	}
+	
+	/*
+	 * Removes the scratch directory along with anything left in it
+	 */
+	static synchronized void removeScratchDir()
+	{
+		if(scratchRunDir == null)
+		{
+			return;
+		}
+		deleteScratchFiles(scratchRunDir);
+		scratchRunDir = null;
+	}
+	
+	/*
+	 * Deletes a scratch directory and the files in it if it still exists
+	 */
+	static void deleteScratchFiles(File dir)
+	{
+		File[] files = dir.listFiles();
+		if(files != null)
+		{
+			for(File f : files)
+			{
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
 }
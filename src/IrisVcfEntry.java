@@ -1,6 +1,6 @@
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.HashMap;
 
 /*
  * Methods for handling VCF v4.2 entries for structural variants
@@ -10,6 +10,15 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 	String originalLine;
 	String[] tabTokens;
 	
+	// The INFO column split on semicolons, along with the index of the first KEY=VALUE token for each key
+	// These are only built the first time an INFO field is accessed, and the column is rebuilt from them when output
+	ArrayList<String> infoTokens;
+	HashMap<String, Integer> infoIndex;
+	boolean infoChanged;
+	
+	// The variant type, which is cached because it is needed for the key of every entry
+	String type;
+	
 	public IrisVcfEntry(String line) throws Exception
 	{
 		originalLine = line;
@@ -23,6 +32,7 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 	
 	public String toString()
 	{
+		updateInfoColumn();
 		StringBuilder sb = new StringBuilder("");
 		for(int i = 0; i<tabTokens.length; i++)
 		{
@@ -72,6 +82,7 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 	public void setRef(String s)
 	{
 		tabTokens[3] = s;
+		type = null;
 	}
 	
 	public String getAlt()
@@ -82,6 +93,7 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 	public void setAlt(String s)
 	{
 		tabTokens[4] = s;
+		type = null;
 	}
 	
 	public int getLength() throws Exception
@@ -102,38 +114,85 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 	}
 	
 	/*
-	 * Set a particular VCF INFO field, adding the field if it doesn't already exist
+	 * Splits the INFO column into its fields if that hasn't been done yet
+	 * Empty fields are kept so that the column is unchanged when it is rebuilt
 	 */
-	public void setInfo(String field, String val) throws Exception
+	void indexInfo()
 	{
-		String[] infoFields = tabTokens[7].split(";");
-		for(String semitoken : infoFields)
+		if(infoTokens != null)
 		{
+			return;
+		}
+		String info = tabTokens[7];
+		infoTokens = new ArrayList<String>();
+		infoIndex = new HashMap<String, Integer>();
+		int start = 0;
+		while(true)
+		{
+			int end = info.indexOf(';', start);
+			String semitoken = end == -1 ? info.substring(start) : info.substring(start, end);
 			int equalIndex = semitoken.indexOf('=');
-			if(equalIndex == -1)
-			{
-				continue;
-			}
-			String key = semitoken.substring(0, equalIndex);
-			if(key.equals(field))
+			if(equalIndex != -1)
 			{
-				String updatedToken = key + "=" + val;
-				
-				// Special case if this is the first INFO field
-				if(tabTokens[7].startsWith(semitoken))
+				String key = semitoken.substring(0, equalIndex);
+				if(!infoIndex.containsKey(key))
 				{
-					tabTokens[7] = tabTokens[7].replaceFirst(Pattern.quote(semitoken), Matcher.quoteReplacement(updatedToken));
+					infoIndex.put(key, infoTokens.size());
 				}
-				else
-				{
-					tabTokens[7] = tabTokens[7].replace(";" + semitoken, ";" + updatedToken);
-				}
-				return;
 			}
+			infoTokens.add(semitoken);
+			if(end == -1)
+			{
+				break;
+			}
+			start = end + 1;
+		}
+	}
+	
+	/*
+	 * Rebuilds the INFO column if any of its fields have been changed
+	 */
+	void updateInfoColumn()
+	{
+		if(!infoChanged)
+		{
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i<infoTokens.size(); i++)
+		{
+			if(i > 0)
+			{
+				sb.append(';');
+			}
+			sb.append(infoTokens.get(i));
+		}
+		tabTokens[7] = sb.toString();
+		infoChanged = false;
+	}
+	
+	/*
+	 * Set a particular VCF INFO field, adding the field if it doesn't already exist
+	 */
+	public void setInfo(String field, String val) throws Exception
+	{
+		indexInfo();
+		Integer idx = infoIndex.get(field);
+		if(idx != null)
+		{
+			infoTokens.set(idx, field + "=" + val);
+		}
+		else
+		{
+			// Field not found, so add it!
+			infoIndex.put(field, infoTokens.size());
+			infoTokens.add(field + "=" + val);
+		}
+		infoChanged = true;
+		if(field.equals("SVTYPE"))
+		{
+			type = null;
 		}
-		
-		// Field not found, so add it!
-		tabTokens[7] += ";" + field + "=" + val;
 	}
 	
 	public void setLength(int len) throws Exception
@@ -143,6 +202,10 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 	
 	public String getType() throws Exception
 	{
+		if(type != null)
+		{
+			return type;
+		}
 		String res = getInfo("SVTYPE");
 		if(res.length() == 0)
 		{
@@ -150,18 +213,15 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 			int altLength = getAlt().length();
 			if(refLength > altLength)
 			{
-				return "INS";
+				res = "INS";
 			}
 			else if(refLength < altLength)
 			{
-				return "DEL";
-			}
-			else
-			{
-				return "";
+				res = "DEL";
 			}
 		}
-		else return res;
+		type = res;
+		return res;
 	}
 	
 	public void setType(String s) throws Exception
@@ -244,42 +304,20 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 	
 	public String getInfo(String field) throws Exception
 	{
-		String infoToken = tabTokens[7];
-		String[] semicolonSplit = infoToken.split(";");
-		for(String semitoken : semicolonSplit)
+		indexInfo();
+		Integer idx = infoIndex.get(field);
+		if(idx == null)
 		{
-			int equalIndex = semitoken.indexOf('=');
-			if(equalIndex == -1)
-			{
-				continue;
-			}
-			String key = semitoken.substring(0, equalIndex);
-			if(key.equals(field))
-			{
-				return semitoken.substring(1 + equalIndex);
-			}
+			return "";
 		}
-		return "";
+		String semitoken = infoTokens.get(idx);
+		return semitoken.substring(field.length() + 1);
 	}
 	
 	public boolean hasInfoField(String fieldName)
 	{
-		String infoToken = tabTokens[7];
-		String[] semicolonSplit = infoToken.split(";");
-		for(String semitoken : semicolonSplit)
-		{
-			int equalIndex = semitoken.indexOf('=');
-			if(equalIndex == -1)
-			{
-				continue;
-			}
-			String key = semitoken.substring(0, equalIndex);
-			if(key.equals(fieldName))
-			{
-				return true;
-			}
-		}
-		return false;
+		indexInfo();
+		return infoIndex.containsKey(fieldName);
 	}
 	
 	public void updateInsertionSequence(String newSeq) throws Exception
@@ -310,29 +348,47 @@ public class IrisVcfEntry implements Comparable<IrisVcfEntry> {
 	
 	public String getKey() throws Exception
 	{
-		return getChromosome().replaceAll(":", chrNameReplacement) + ":" + getPos() + ":" + getType() + ":" + getId();
+		return getChromosome().replace(":", chrNameReplacement) + ":" + getPos() + ":" + getType() + ":" + getId();
 	}
 	
 	static String getChrFromKey(String key)
 	{
-		String[] tokens = key.split(":");
-		return tokens[0].replaceAll(chrNameReplacement, ":");
+		int end = key.indexOf(':');
+		return (end == -1 ? key : key.substring(0, end)).replace(chrNameReplacement, ":");
 	}
 	
 	static long getPosFromKey(String key)
 	{
-		String[] tokens = key.split(":");
-		return Long.parseLong(tokens[1]);
+		return Long.parseLong(getKeyToken(key, 1));
 	}
 	
 	static String getTypeFromKey(String key)
 	{
-		String[] tokens = key.split(":");
-		return tokens[2];
+		return getKeyToken(key, 2);
+	}
+	
+	/*
+	 * Gets one of the colon-separated parts of a variant key without splitting the whole key
+	 */
+	static String getKeyToken(String key, int index)
+	{
+		int start = 0;
+		for(int i = 0; i<index; i++)
+		{
+			start = key.indexOf(':', start) + 1;
+			if(start == 0)
+			{
+				throw new ArrayIndexOutOfBoundsException("Invalid variant key: " + key);
+			}
+		}
+		int end = key.indexOf(':', start);
+		return end == -1 ? key.substring(start) : key.substring(start, end);
 	}
 	
 	@Override
 	public int compareTo(IrisVcfEntry o) {
+		updateInfoColumn();
+		o.updateInfoColumn();
 		for(int i = 0; i<tabTokens.length && i < o.tabTokens.length; i++)
 		{
 			if(!tabTokens[i].equals(o.tabTokens[i]))
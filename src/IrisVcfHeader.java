@@ -1,4 +1,4 @@
-import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashSet;
 
@@ -20,11 +20,12 @@ public class IrisVcfHeader {
 		lastInfoFieldIndex = -1;
 	}
 	
-	void print(PrintWriter out)
+	void print(Writer out) throws Exception
 	{
 		for(String s : lines)
 		{
-			out.println(s);
+			out.write(s);
+			out.write('\n');
 		}
 	}
 	
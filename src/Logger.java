@@ -1,40 +1,376 @@
+/*
+ * Logging for the whole program.  Once initialized, messages are handed off through a bounded ring buffer
+ * to a single writer thread, so that worker threads never wait on the log file or on formatting timestamps.
+ * Messages are written in the order their slots in the buffer were claimed, and the buffer is flushed when
+ * the log is closed, when the program exits, and when a thread dies from an uncaught exception.
+ * Before init is called (or if it never is), messages are written to standard output right away.
+ */
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 public class Logger {
-	static PrintWriter out = null;
-	static long startTime;
-	static void init(String fn) throws Exception
+
+	// Log levels - each level includes the ones before it
+	static final int ERROR = 0;
+	static final int WARN = 1;
+	static final int INFO = 2;
+	static final int DEBUG = 3;
+	static final String[] LEVEL_NAMES = new String[] {"error", "warn", "info", "debug"};
+
+	// Messages above this level are ignored - per-variant progress messages are at the debug level
+	static volatile int level = DEBUG;
+
+	static long startTime = System.currentTimeMillis();
+
+	// The ring buffer and the thread emptying it, or null when logging synchronously
+	static volatile RingBuffer buffer = null;
+	static Thread writerThread = null;
+	static Writer out = null;
+
+	// Whether out is a log file which should be closed along with the log, rather than standard output
+	static boolean ownsOutput = false;
+	static Thread shutdownHook = null;
+
+	/*
+	 * Starts the writer thread, writing to the given file or to standard output if the filename is empty
+	 */
+	static synchronized void init(String fn) throws Exception
 	{
+		close();
 		startTime = System.currentTimeMillis();
-		if(fn.length() != 0)
+		ownsOutput = fn.length() != 0;
+		if(ownsOutput)
+		{
+			out = new BufferedWriter(new FileWriter(new File(fn)), 1 << 16);
+		}
+		else
+		{
+			out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		}
+		buffer = new RingBuffer(IrisSettings.LOG_BUFFER_SIZE);
+		final RingBuffer ring = buffer;
+		final Writer writer = out;
+		writerThread = new Thread("iris-logger") {
+			@Override
+			public void run() {
+				drain(ring, writer);
+			}
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		// Make sure buffered messages are written if the program exits or a thread crashes before close is called
+		if(shutdownHook == null)
 		{
-			out = new PrintWriter(new File(fn));
+			shutdownHook = new Thread() {
+				@Override
+				public void run() {
+					flush();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
 		}
+		final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+		if(previous == null || !(previous instanceof CrashHandler))
+		{
+			Thread.setDefaultUncaughtExceptionHandler(new CrashHandler(previous));
+		}
+	}
+
+	/*
+	 * Sets the log level from its name
+	 */
+	static void setLevel(String name) throws Exception
+	{
+		for(int i = 0; i<LEVEL_NAMES.length; i++)
+		{
+			if(LEVEL_NAMES[i].equalsIgnoreCase(name))
+			{
+				level = i;
+				return;
+			}
+		}
+		throw new Exception("unknown log level: " + name + " (must be error, warn, info, or debug)");
+	}
+
+	static boolean enabled(int messageLevel)
+	{
+		return messageLevel <= level;
+	}
+
+	static void error(String s)
+	{
+		log(ERROR, s);
+	}
+
+	static void warn(String s)
+	{
+		log(WARN, s);
 	}
+
 	static void log(String s)
 	{
-		s = addTimeToLog(s);
-		if(out != null) out.println(s);
-		else System.out.println(s);
+		log(INFO, s);
+	}
+
+	static void debug(String s)
+	{
+		log(DEBUG, s);
+	}
+
+	static void log(int messageLevel, String s)
+	{
+		if(messageLevel > level)
+		{
+			return;
+		}
+		long time = System.currentTimeMillis();
+		RingBuffer ring = buffer;
+		if(ring == null || !ring.offer(s, time))
+		{
+			// Not initialized, or the writer thread has stopped
+			System.out.println(addTimeToLog(s, time));
+		}
 	}
+
 	static String addTimeToLog(String s)
 	{
-		long curTime = System.currentTimeMillis() - startTime;
+		return addTimeToLog(s, System.currentTimeMillis());
+	}
+
+	static String addTimeToLog(String s, long time)
+	{
+		long curTime = time - startTime;
 		return s + " (time = " + formatTime(curTime) + ")";
 	}
-	static void close()
+
+	/*
+	 * Waits until every message logged so far has been written out
+	 */
+	static void flush()
+	{
+		RingBuffer ring = buffer;
+		if(ring == null)
+		{
+			return;
+		}
+		long target = ring.claimed.get();
+		while(ring.flushed.get() < target && writerThread != null && writerThread.isAlive())
+		{
+			LockSupport.unpark(writerThread);
+			LockSupport.parkNanos(100000);
+		}
+	}
+
+	/*
+	 * Writes out any buffered messages and stops the writer thread
+	 */
+	static synchronized void close()
+	{
+		RingBuffer ring = buffer;
+		if(ring == null)
+		{
+			return;
+		}
+		flush();
+		buffer = null;
+		ring.closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writerThread = null;
+		try {
+			if(out != null)
+			{
+				out.flush();
+				if(ownsOutput)
+				{
+					out.close();
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("Could not close log: " + e.getMessage());
+		}
+		out = null;
+	}
+
+	/*
+	 * The writer thread's loop - takes messages from the buffer in order and writes them,
+	 * flushing the output whenever the buffer is empty
+	 */
+	static void drain(RingBuffer ring, Writer writer)
 	{
-		if(out != null) out.close();
+		StringBuilder line = new StringBuilder();
+		while(true)
+		{
+			long next = ring.written.get();
+			int slot = (int)(next & ring.mask);
+			if(ring.sequence.get(slot) != next + 1)
+			{
+				// Nothing ready to write, so flush what has been written and wait
+				try {
+					writer.flush();
+				} catch (Exception e) {
+					System.err.println("Could not write to log: " + e.getMessage());
+				}
+				ring.flushed.set(next);
+				if(ring.closed && ring.written.get() >= ring.claimed.get())
+				{
+					return;
+				}
+				LockSupport.parkNanos(1000000);
+				continue;
+			}
+			String message = ring.messages.get(slot);
+			long time = ring.times.get(slot);
+			ring.messages.set(slot, null);
+
+			// Release the slot for the message which will use it next time around the buffer
+			ring.sequence.set(slot, next + ring.capacity);
+			ring.written.set(next + 1);
+
+			line.setLength(0);
+			line.append(message).append(" (time = ");
+			appendTime(line, time - startTime);
+			line.append(")\n");
+			try {
+				writer.append(line);
+			} catch (Exception e) {
+				System.err.println("Could not write to log: " + e.getMessage());
+			}
+		}
 	}
-	
+
 	static String formatTime(long ms)
+	{
+		StringBuilder sb = new StringBuilder();
+		appendTime(sb, ms);
+		return sb.toString();
+	}
+
+	/*
+	 * Appends a duration as days:hours:minutes:seconds.millis, with each field zero-padded
+	 */
+	static void appendTime(StringBuilder sb, long ms)
 	{
 		long days = ms / 1000 / 60 / 60 / 24;
 		long hours = (ms / 1000 / 60 / 60) % 24;
 		long minutes = (ms / 1000 / 60) % 60;
 		long seconds = (ms / 1000) % 60;
 		long millis = ms % 1000;
-		return String.format("%02d:%02d:%02d:%02d.%03d", days, hours, minutes, seconds, millis);
+		pad(sb, days, 2).append(':');
+		pad(sb, hours, 2).append(':');
+		pad(sb, minutes, 2).append(':');
+		pad(sb, seconds, 2).append('.');
+		pad(sb, millis, 3);
+	}
+
+	static StringBuilder pad(StringBuilder sb, long val, int width)
+	{
+		String s = Long.toString(val);
+		for(int i = s.length(); i<width; i++)
+		{
+			sb.append('0');
+		}
+		return sb.append(s);
+	}
+
+	/*
+	 * A bounded buffer with many producers and one consumer.  Producers claim a position with a
+	 * single atomic increment, and each slot has a sequence number saying whether it is free for the
+	 * position being claimed (equal to the position) or holds a message ready to write (one more than it).
+	 * If the buffer is full, producers wait for the writer to free up their slot rather than dropping messages.
+	 */
+	static class RingBuffer
+	{
+		int capacity;
+		long mask;
+		AtomicReferenceArray<String> messages;
+		AtomicLongArray times;
+		AtomicLongArray sequence;
+
+		// The number of positions claimed by producers, and the number of messages written and flushed by the consumer
+		AtomicLong claimed = new AtomicLong(0);
+		AtomicLong written = new AtomicLong(0);
+		AtomicLong flushed = new AtomicLong(0);
+
+		volatile boolean closed = false;
+
+		RingBuffer(int size)
+		{
+			capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+			mask = capacity - 1;
+			messages = new AtomicReferenceArray<String>(capacity);
+			times = new AtomicLongArray(capacity);
+			sequence = new AtomicLongArray(capacity);
+			for(int i = 0; i<capacity; i++)
+			{
+				sequence.set(i, i);
+			}
+		}
+
+		/*
+		 * Adds a message, waiting if the buffer is full
+		 * Returns false if the buffer was closed, in which case the message was not added
+		 */
+		boolean offer(String message, long time)
+		{
+			if(closed)
+			{
+				return false;
+			}
+			long pos = claimed.getAndIncrement();
+			int slot = (int)(pos & mask);
+			while(sequence.get(slot) != pos)
+			{
+				if(closed && written.get() <= pos - capacity)
+				{
+					// The writer is gone and will never free this slot
+					return false;
+				}
+				LockSupport.parkNanos(10000);
+			}
+			messages.set(slot, message);
+			times.set(slot, time);
+			sequence.set(slot, pos + 1);
+			return true;
+		}
+	}
+
+	/*
+	 * Writes out buffered log messages when a thread dies from an uncaught exception, before doing
+	 * whatever would have been done without this handler
+	 */
+	static class CrashHandler implements Thread.UncaughtExceptionHandler
+	{
+		Thread.UncaughtExceptionHandler previous;
+		CrashHandler(Thread.UncaughtExceptionHandler previous)
+		{
+			this.previous = previous;
+		}
+		public void uncaughtException(Thread t, Throwable e)
+		{
+			error("Thread " + t.getName() + " crashed: " + e);
+			flush();
+			if(previous != null)
+			{
+				previous.uncaughtException(t, e);
+			}
+			else
+			{
+				System.err.print("Exception in thread \"" + t.getName() + "\" ");
+				e.printStackTrace();
+			}
+		}
 	}
 }
@@ -0,0 +1,383 @@
+/*
+ * A registry of counters, histograms, and gauges describing a run, such as how many reads each variant used,
+ * how long the external tools take, and how many variants were refined or left alone and why.
+ * Metrics are only collected when a snapshot file or HTTP port is given.  They are written in the Prometheus
+ * text format to the snapshot file periodically and at the end of the run, and served at /metrics on the port.
+ * Metric names can include labels in the Prometheus style, for example iris_tool_seconds{tool="racon"}.
+ */
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class Metrics {
+
+	// Bucket upper bounds for histograms of durations in seconds and of counts
+	static final double[] SECONDS_BUCKETS = new double[] {0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 300};
+	static final double[] COUNT_BUCKETS = new double[] {0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+	static volatile boolean enabled = false;
+
+	// All metrics, sorted by name so that the ones sharing a base name are printed together
+	static ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+
+	// The help text of each base name
+	static ConcurrentHashMap<String, String> help = new ConcurrentHashMap<String, String>();
+
+	static ScheduledExecutorService snapshotter = null;
+	static HttpServer server = null;
+
+	/*
+	 * Starts collecting metrics if they are being written anywhere, and starts the snapshot thread and HTTP server
+	 */
+	static void start() throws Exception
+	{
+		metrics.clear();
+		if(IrisSettings.METRICS_FILE.length() == 0 && IrisSettings.METRICS_PORT < 0)
+		{
+			return;
+		}
+		enabled = true;
+
+		ThreadFactory daemon = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "iris-metrics");
+				t.setDaemon(true);
+				return t;
+			}
+		};
+
+		if(IrisSettings.METRICS_FILE.length() > 0)
+		{
+			snapshotter = Executors.newSingleThreadScheduledExecutor(daemon);
+			long interval = Math.max(1, IrisSettings.METRICS_INTERVAL);
+			snapshotter.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					try {
+						writeSnapshot(IrisSettings.METRICS_FILE);
+					} catch (Exception e) {
+						Logger.warn("Could not write metrics to " + IrisSettings.METRICS_FILE + ": " + e.getMessage());
+					}
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+
+		if(IrisSettings.METRICS_PORT >= 0)
+		{
+			// Only listen locally since there is no authentication
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), IrisSettings.METRICS_PORT), 0);
+			server.createContext("/metrics", new HttpHandler() {
+				public void handle(HttpExchange exchange) {
+					try {
+						byte[] body = render().getBytes();
+						exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+						exchange.sendResponseHeaders(200, body.length);
+						OutputStream os = exchange.getResponseBody();
+						os.write(body);
+						os.close();
+					} catch (Exception e) {
+						exchange.close();
+					}
+				}
+			});
+			server.setExecutor(Executors.newSingleThreadExecutor(daemon));
+			server.start();
+			Logger.log("Serving metrics at http://localhost:" + server.getAddress().getPort() + "/metrics");
+		}
+	}
+
+	/*
+	 * Writes the final snapshot and stops the snapshot thread and HTTP server
+	 */
+	static void stop() throws Exception
+	{
+		if(!enabled)
+		{
+			return;
+		}
+		if(snapshotter != null)
+		{
+			snapshotter.shutdownNow();
+			snapshotter = null;
+		}
+		if(server != null)
+		{
+			server.stop(0);
+			server = null;
+		}
+		if(IrisSettings.METRICS_FILE.length() > 0)
+		{
+			writeSnapshot(IrisSettings.METRICS_FILE);
+		}
+		enabled = false;
+	}
+
+	/*
+	 * Adds one to a counter
+	 */
+	static void inc(String name, String helpText)
+	{
+		add(name, helpText, 1);
+	}
+
+	/*
+	 * Adds an amount to a counter
+	 */
+	static void add(String name, String helpText, long amount)
+	{
+		if(!enabled)
+		{
+			return;
+		}
+		Metric m = metrics.get(name);
+		if(m == null)
+		{
+			m = register(name, helpText, new Counter());
+		}
+		((Counter)m).value.addAndGet(amount);
+	}
+
+	/*
+	 * Adds a value to a histogram, which is created with the given buckets the first time it is used
+	 */
+	static void observe(String name, String helpText, double[] buckets, double value)
+	{
+		if(!enabled)
+		{
+			return;
+		}
+		Metric m = metrics.get(name);
+		if(m == null)
+		{
+			m = register(name, helpText, new Histogram(buckets));
+		}
+		((Histogram)m).observe(value);
+	}
+
+	/*
+	 * Adds a gauge whose value is computed whenever the metrics are written
+	 */
+	static void gauge(String name, String helpText, LongSupplier value)
+	{
+		if(!enabled)
+		{
+			return;
+		}
+		metrics.put(name, new Gauge(value));
+		help.putIfAbsent(baseName(name), helpText);
+	}
+
+	/*
+	 * Records how long an external tool ran and whether it failed
+	 */
+	static void toolRun(String tool, long startTime, int exitCode)
+	{
+		if(!enabled)
+		{
+			return;
+		}
+		String label = "{tool=\"" + tool + "\"}";
+		observe("iris_tool_seconds" + label, "Wall time of each external tool process",
+				SECONDS_BUCKETS, (System.nanoTime() - startTime) / 1e9);
+		if(exitCode != 0)
+		{
+			inc("iris_tool_failures_total" + label, "External tool processes which exited with an error");
+		}
+	}
+
+	/*
+	 * Records the outcome of trying to refine a variant - refined, unrefined (no candidate was found),
+	 * rejected (a candidate failed a filter), error, or resumed - along with the reason
+	 */
+	static void outcome(String outcome, String reason)
+	{
+		inc("iris_variants_total{outcome=\"" + outcome + "\",reason=\"" + reason + "\"}",
+				"Variants by the outcome of refinement and the reason for it");
+	}
+
+	static Metric register(String name, String helpText, Metric m)
+	{
+		help.putIfAbsent(baseName(name), helpText);
+		Metric prev = metrics.putIfAbsent(name, m);
+		return prev == null ? m : prev;
+	}
+
+	static String baseName(String name)
+	{
+		int brace = name.indexOf('{');
+		return brace == -1 ? name : name.substring(0, brace);
+	}
+
+	/*
+	 * The labels of a metric name without the braces, or an empty string if there are none
+	 */
+	static String labels(String name)
+	{
+		int brace = name.indexOf('{');
+		return brace == -1 ? "" : name.substring(brace + 1, name.length() - 1);
+	}
+
+	/*
+	 * Writes all metrics in the Prometheus text format
+	 */
+	static String render()
+	{
+		StringBuilder sb = new StringBuilder();
+		String lastBase = null;
+		for(Map.Entry<String, Metric> entry : metrics.entrySet())
+		{
+			String name = entry.getKey();
+			String base = baseName(name);
+			Metric m = entry.getValue();
+			if(!base.equals(lastBase))
+			{
+				sb.append("# HELP ").append(base).append(' ').append(help.get(base)).append('\n');
+				sb.append("# TYPE ").append(base).append(' ').append(m.type()).append('\n');
+				lastBase = base;
+			}
+			m.write(sb, base, labels(name));
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Writes the metrics to a file, replacing it all at once so readers never see a partial snapshot
+	 */
+	static synchronized void writeSnapshot(String fn) throws Exception
+	{
+		File tmp = new File(fn + ".tmp");
+		PrintWriter out = new PrintWriter(tmp);
+		out.print(render());
+		out.close();
+		Files.move(tmp.toPath(), new File(fn).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static String format(double d)
+	{
+		if(d == Math.rint(d) && !Double.isInfinite(d))
+		{
+			return Long.toString((long)d);
+		}
+		return Double.toString(d);
+	}
+
+	static abstract class Metric
+	{
+		abstract String type();
+		abstract void write(StringBuilder sb, String base, String labels);
+	}
+
+	static class Counter extends Metric
+	{
+		AtomicLong value = new AtomicLong(0);
+		String type()
+		{
+			return "counter";
+		}
+		void write(StringBuilder sb, String base, String labels)
+		{
+			sb.append(base);
+			if(labels.length() > 0)
+			{
+				sb.append('{').append(labels).append('}');
+			}
+			sb.append(' ').append(value.get()).append('\n');
+		}
+	}
+
+	static class Gauge extends Metric
+	{
+		LongSupplier value;
+		Gauge(LongSupplier value)
+		{
+			this.value = value;
+		}
+		String type()
+		{
+			return "gauge";
+		}
+		void write(StringBuilder sb, String base, String labels)
+		{
+			sb.append(base);
+			if(labels.length() > 0)
+			{
+				sb.append('{').append(labels).append('}');
+			}
+			sb.append(' ').append(value.getAsLong()).append('\n');
+		}
+	}
+
+	/*
+	 * A histogram with fixed buckets - the count of each bucket is for values in (previous bound, bound],
+	 * and they are made cumulative when written
+	 */
+	static class Histogram extends Metric
+	{
+		double[] bounds;
+		AtomicLongArray counts;
+
+		// The sum of all values, stored as the bits of a double
+		AtomicLong sumBits = new AtomicLong(Double.doubleToLongBits(0));
+
+		Histogram(double[] bounds)
+		{
+			this.bounds = bounds;
+			counts = new AtomicLongArray(bounds.length + 1);
+		}
+
+		void observe(double value)
+		{
+			int bucket = 0;
+			while(bucket < bounds.length && value > bounds[bucket])
+			{
+				bucket++;
+			}
+			counts.incrementAndGet(bucket);
+			while(true)
+			{
+				long old = sumBits.get();
+				if(sumBits.compareAndSet(old, Double.doubleToLongBits(Double.longBitsToDouble(old) + value)))
+				{
+					break;
+				}
+			}
+		}
+
+		String type()
+		{
+			return "histogram";
+		}
+
+		void write(StringBuilder sb, String base, String labels)
+		{
+			String prefix = labels.length() > 0 ? labels + "," : "";
+			long total = 0;
+			for(int i = 0; i<=bounds.length; i++)
+			{
+				total += counts.get(i);
+				String le = i == bounds.length ? "+Inf" : format(bounds[i]);
+				sb.append(base).append("_bucket{").append(prefix).append("le=\"").append(le).append("\"} ").append(total).append('\n');
+			}
+			String suffix = labels.length() > 0 ? "{" + labels + "}" : "";
+			sb.append(base).append("_sum").append(suffix).append(' ').append(format(Double.longBitsToDouble(sumBits.get()))).append('\n');
+			sb.append(base).append("_count").append(suffix).append(' ').append(total).append('\n');
+		}
+	}
+}
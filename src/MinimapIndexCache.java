@@ -0,0 +1,216 @@
+/*
+ * A cache of minimap2 indexes of the reference, shared by nearby variants.
+ * The genome is split into tiles of GENOME_REGION_BUFFER bases, and each tile's index covers the tile plus
+ * GENOME_REGION_BUFFER on each side, so it contains the whole region that any variant in the tile is aligned to.
+ * The variants in a tile then share a single index instead of minimap2 indexing a region for each of them.
+ * Once the indexes take up more than INDEX_CACHE_BYTES, the least recently used ones which aren't being
+ * aligned to are deleted.
+ */
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+
+public class MinimapIndexCache {
+
+	static MinimapIndexCache instance = null;
+
+	// The indexes in order from least to most recently used
+	LinkedHashMap<String, Index> indexes;
+
+	// The total size of the index files which exist now
+	long totalBytes;
+
+	/*
+	 * The index of the genome region around one tile
+	 */
+	static class Index
+	{
+		String chr;
+
+		// The 1-based genome position of the first base in the index
+		long start;
+		long end;
+
+		String fileName;
+		long bytes = 0;
+		boolean built = false;
+
+		// The number of alignments using the index right now, which keeps it from being deleted
+		int users = 0;
+
+		Index(String chr, long start, long end, String fileName)
+		{
+			this.chr = chr;
+			this.start = start;
+			this.end = end;
+			this.fileName = fileName;
+		}
+	}
+
+	static boolean enabled()
+	{
+		return IrisSettings.INDEX_CACHE_BYTES > 0;
+	}
+
+	static synchronized MinimapIndexCache get()
+	{
+		if(instance == null)
+		{
+			instance = new MinimapIndexCache();
+		}
+		return instance;
+	}
+
+	MinimapIndexCache()
+	{
+		indexes = new LinkedHashMap<String, Index>(16, 0.75f, true);
+		totalBytes = 0;
+		Metrics.gauge("iris_index_cache_bytes", "Size of the minimap2 indexes currently cached", new LongSupplier() {
+			public long getAsLong() {
+				synchronized(MinimapIndexCache.this)
+				{
+					return totalBytes;
+				}
+			}
+		});
+	}
+
+	/*
+	 * Gets the index to align a variant's consensus sequences to, building it if no nearby variant has yet
+	 * The index must be given back with release once the alignment is done
+	 */
+	Index acquire(String id, IrisGenomeQuery gq) throws Exception
+	{
+		String chr = IrisVcfEntry.getChrFromKey(id);
+		long pos = IrisVcfEntry.getPosFromKey(id);
+		long tileSize = Math.max(1, IrisSettings.GENOME_REGION_BUFFER);
+		long tile = (pos - 1) / tileSize;
+		String key = chr + "_" + tile;
+
+		Index index;
+		synchronized(this)
+		{
+			index = indexes.get(key);
+			if(index == null)
+			{
+				long start = Math.max(1, tile * tileSize + 1 - IrisSettings.GENOME_REGION_BUFFER);
+				long end = (tile + 1) * tileSize + IrisSettings.GENOME_REGION_BUFFER;
+				index = new Index(chr, start, end, IrisSettings.addScratchDir("index_" + key + ".mmi"));
+				indexes.put(key, index);
+			}
+			index.users++;
+		}
+
+		try {
+			// Other variants in the tile wait here while the index is built rather than building their own
+			synchronized(index)
+			{
+				if(index.built)
+				{
+					Metrics.inc("iris_index_cache_hits_total", "Consensus alignments which reused a cached minimap2 index");
+				}
+				else
+				{
+					build(index, gq);
+					synchronized(this)
+					{
+						totalBytes += index.bytes;
+						evict();
+					}
+				}
+			}
+		} catch (Exception e) {
+			// Leave the index to be built by the next variant which needs it
+			release(index);
+			throw e;
+		}
+		return index;
+	}
+
+	synchronized void release(Index index)
+	{
+		index.users--;
+		evict();
+	}
+
+	/*
+	 * Deletes the least recently used indexes until the cache is within its budget, skipping any in use
+	 */
+	synchronized void evict()
+	{
+		Iterator<Index> it = indexes.values().iterator();
+		while(totalBytes > IrisSettings.INDEX_CACHE_BYTES && it.hasNext())
+		{
+			Index index = it.next();
+			if(index.users > 0)
+			{
+				continue;
+			}
+			it.remove();
+			if(index.built)
+			{
+				new File(index.fileName).delete();
+				totalBytes -= index.bytes;
+				Metrics.inc("iris_index_cache_evictions_total", "Cached minimap2 indexes deleted to stay within index_cache");
+			}
+		}
+	}
+
+	/*
+	 * Deletes every index which was built, since they are only reused within a run and aren't worth keeping
+	 * even when intermediate files are
+	 */
+	static synchronized void shutdown()
+	{
+		if(instance == null)
+		{
+			return;
+		}
+		synchronized(instance)
+		{
+			for(Index index : instance.indexes.values())
+			{
+				if(index.built)
+				{
+					new File(index.fileName).delete();
+				}
+			}
+			instance.indexes.clear();
+			instance.totalBytes = 0;
+		}
+		instance = null;
+	}
+
+	/*
+	 * Writes out the index's genome region and runs minimap2 to index it
+	 */
+	static void build(Index index, IrisGenomeQuery gq) throws Exception
+	{
+		String regionFn = index.fileName + ".fa";
+		PrintWriter out = new PrintWriter(new File(regionFn));
+		out.println(String.format(">%s\n%s", index.chr, gq.genomeSubstring(index.chr, index.start, index.end)));
+		out.close();
+
+		int threads = ExternalTool.claimThreads();
+		try {
+			String minimapCommand = String.format(
+					"%s -x %s -t %d -d %s %s",
+					IrisSettings.MINIMAP_PATH, IrisSettings.MINIMAP_MODE, threads,
+					index.fileName, regionFn);
+			int p = ExternalTool.runShell(ExternalTool.MINIMAP, minimapCommand);
+			if(p != 0 || !new File(index.fileName).exists())
+			{
+				new File(index.fileName).delete();
+				throw new Exception("error building minimap index of " + index.chr + ":" + index.start + "-" + index.end);
+			}
+		} finally {
+			ExternalTool.releaseThreads(threads);
+			new File(regionFn).delete();
+		}
+		index.bytes = new File(index.fileName).length();
+		index.built = true;
+		Metrics.inc("iris_index_cache_builds_total", "minimap2 indexes built for the consensus alignments of a tile");
+	}
+}
@@ -1,64 +1,162 @@
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  * Maps variant IDs to their new sequence/position
+ * Results are added by all of the refinement threads at once.  Sequences at least spill_length long
+ * can be kept off the heap in a SequenceArena until the output is written.
  */
 public class NewSequenceMap {
 	
-	HashMap<String, UpdatedEntry> map;
+	ConcurrentHashMap<String, UpdatedEntry> map;
+	
+	// Why some of the variants without a new sequence were left as they are, which is noted in the output
+	ConcurrentHashMap<String, String> reasons;
+	
+	// Created when the first sequence is spilled
+	SequenceArena arena = null;
 
 	NewSequenceMap()
 	{
-		map = new HashMap<String, UpdatedEntry>();
+		map = new ConcurrentHashMap<String, UpdatedEntry>();
+		reasons = new ConcurrentHashMap<String, String>();
+	}
+	
+	/*
+	 * Records that a variant was deliberately kept as it was called
+	 */
+	void addReason(String key, String reason)
+	{
+		reasons.put(key, reason);
+	}
+	
+	String getReason(String key)
+	{
+		return reasons.get(key);
 	}
 	
 	void add(String key, String seq, long pos)
 	{
+		if(IrisSettings.SPILL_LENGTH > 0 && seq.length() >= IrisSettings.SPILL_LENGTH)
+		{
+			try {
+				long offset = getArena().put(seq);
+				if(offset != -1)
+				{
+					map.put(key, new SpilledEntry(offset, seq.length(), pos));
+					return;
+				}
+			} catch (Exception e) {
+				Logger.warn("Could not spill the sequence of " + key + " off the heap: " + e.getMessage());
+			}
+		}
 		map.put(key, new UpdatedEntry(seq, pos));
 	}
 	
+	synchronized SequenceArena getArena() throws Exception
+	{
+		if(arena == null)
+		{
+			arena = new SequenceArena(IrisSettings.addOutDir("spilled_sequences.bin"));
+		}
+		return arena;
+	}
+	
 	public boolean containsKey(String key)
 	{
 		return map.containsKey(key);
 	}
 	
-	public String getSeq(String key)
+	/*
+	 * Gets the new sequence and position of a variant, or null if it has none
+	 */
+	public UpdatedEntry get(String key)
 	{
-		if(!map.containsKey(key))
+		UpdatedEntry res = map.get(key);
+		if(res instanceof SpilledEntry)
 		{
-			return null;
+			SpilledEntry spilled = (SpilledEntry)res;
+			return new UpdatedEntry(arena.get(spilled.offset, spilled.length), spilled.pos);
 		}
-		return map.get(key).seq;
+		return res;
+	}
+	
+	public String getSeq(String key)
+	{
+		UpdatedEntry res = get(key);
+		return res == null ? null : res.seq;
 	}
 	
 	public Long getPos(String key)
 	{
-		if(!map.containsKey(key))
+		UpdatedEntry res = map.get(key);
+		return res == null ? null : res.pos;
+	}
+	
+	/*
+	 * Frees the space used by spilled sequences once the output has been written
+	 */
+	synchronized void close() throws Exception
+	{
+		if(arena != null)
 		{
-			return null;
+			arena.close();
+			arena = null;
 		}
-		return map.get(key).pos;
 	}
 	
-	static UpdatedEntry fromReadNames(String key, HashMap<String, String> seqMap, ArrayList<String> names, IrisGenomeQuery gq) throws Exception
+	static UpdatedEntry fromReadNames(String key, SupportingReadMap.SequenceTable seqMap, ArrayList<String> names, IrisGenomeQuery gq) throws Exception
 	{
+		long startTime = StageTimer.start();
 		ArrayList<String> readSeqs = ReadGathering.getReads(key, names);
-		Logger.log("Found " + readSeqs.size() + " relevant reads for " + key);
+		StageTimer.stop(key, StageTimer.READ_GATHERING, startTime);
+		return fromReads(key, seqMap, readSeqs, gq);
+	}
+	
+	/*
+	 * Computes the refined sequence/position of a variant from the sequences of its supporting reads
+	 */
+	static UpdatedEntry fromReads(String key, SupportingReadMap.SequenceTable seqMap, ArrayList<String> readSeqs, IrisGenomeQuery gq) throws Exception
+	{
+		Logger.debug("Found " + readSeqs.size() + " relevant reads for " + key);
+		Metrics.observe("iris_reads_per_variant", "Supporting reads fetched for each variant", Metrics.COUNT_BUCKETS, readSeqs.size());
         if(readSeqs.size() == 0)
         {
-            return null;
+            return notUpdated(key, UNREFINED, "no_reads", "Did not update " + key + " because no supporting reads were found");
         }
 		ArrayList<String> consensusSequences;
+		long startTime = StageTimer.start();
+		if(DraftCheck.enabled() && DraftCheck.isSupported(key, seqMap.get(key), gq, readSeqs))
+		{
+			StageTimer.stop(key, StageTimer.RACON, startTime);
+			Logger.debug("Did not polish " + key + " because its reads already support the called sequence");
+			Metrics.outcome(SKIPPED, DRAFT_SUPPORTED);
+			return DRAFT_SUPPORTED_ENTRY;
+		}
 		consensusSequences = Racon.getConsensusSequences(key, seqMap.get(key), gq, readSeqs);
-		Logger.log("Found " + consensusSequences.size() + " consensus sequences for " + key);
+		StageTimer.stop(key, StageTimer.RACON, startTime);
+		Logger.debug("Found " + consensusSequences.size() + " consensus sequences for " + key);
 		if(consensusSequences.size() == 0)
 		{
-			Logger.log("Did not update " + key + " because of invalid or missing variant sequence");
-			return null;
+			return notUpdated(key, UNREFINED, "no_consensus", "Did not update " + key + " because of invalid or missing variant sequence");
 		}
-		ArrayList<String> alignmentRecords = AlignConsensus.getConsensusAlignmentRecords(key, consensusSequences, gq);
-		Logger.log("Found " + alignmentRecords.size() + " alignment records for " + key);
+		startTime = StageTimer.start();
+		ArrayList<AlignmentRecord> alignmentRecords = AlignConsensus.getConsensusAlignmentRecords(key, consensusSequences, gq);
+		StageTimer.stop(key, StageTimer.MINIMAP, startTime);
+		Logger.debug("Found " + alignmentRecords.size() + " alignment records for " + key);
+		startTime = StageTimer.start();
+		try {
+			return findBestEntry(key, alignmentRecords);
+		} finally {
+			StageTimer.stop(key, StageTimer.INSERT_FINDING, startTime);
+		}
+	}
+	
+	/*
+	 * Picks the refined sequence/position out of the consensus alignments, or null if there is no good enough candidate
+	 */
+	static UpdatedEntry findBestEntry(String key, ArrayList<AlignmentRecord> alignmentRecords) throws Exception
+	{
 		String type = IrisVcfEntry.getTypeFromKey(key);
 		UpdatedEntry res = null;
 		if(type.equals("INS"))
@@ -84,8 +182,8 @@ public class NewSequenceMap {
 			
 			if(originalPlace.compareTo(closestToRefined) != 0)
 			{
-				Logger.log("Did not change position of " + key + " to " + res.pos + " because too close to other variant");
-				return null;
+				return notUpdated(key, REJECTED, "near_other_variant",
+						"Did not change position of " + key + " to " + res.pos + " because too close to other variant");
 			}
 			
 			long oldLength = PosStore.getLength(type, closestToRefined.chr, closestToRefined.pos);
@@ -93,20 +191,45 @@ public class NewSequenceMap {
 			
 			if(newLength > oldLength * (1 + IrisSettings.MAX_LENGTH_CHANGE))
 			{
-				Logger.log("Did not change " + key + " because new sequence too long");
-				return null;
+				return notUpdated(key, REJECTED, "too_long", "Did not change " + key + " because new sequence too long");
 			}
 			
 			if(newLength < oldLength * (1 - IrisSettings.MAX_LENGTH_CHANGE))
 			{
-				Logger.log("Did not change " + key + " because new sequence too short");
-				return null;
+				return notUpdated(key, REJECTED, "too_short", "Did not change " + key + " because new sequence too short");
 			}
 		}
+		else
+		{
+			return notUpdated(key, UNREFINED, "no_candidate", "Did not update " + key + " because no candidate sequence was found");
+		}
 		
+		Metrics.outcome(REFINED, "refined");
 		return res;
 	}
 	
+	// Outcomes of refining a variant - unrefined means no candidate was found, while rejected means one was found but failed a filter
+	static final String REFINED = "refined";
+	static final String UNREFINED = "unrefined";
+	static final String REJECTED = "rejected";
+	static final String SKIPPED = "skipped";
+	
+	// The reason given for variants whose reads already support them
+	static final String DRAFT_SUPPORTED = "draft_supported";
+	
+	// Returned in place of a refined entry for variants which are kept as called because their reads support them
+	static final UpdatedEntry DRAFT_SUPPORTED_ENTRY = new UpdatedEntry("", -1);
+	
+	/*
+	 * Logs why a variant was not updated and records the outcome, returning null for the caller to return
+	 */
+	static UpdatedEntry notUpdated(String key, String outcome, String reason, String message)
+	{
+		Logger.debug(message);
+		Metrics.outcome(outcome, reason);
+		return null;
+	}
+	
 	static class UpdatedEntry
 	{
 		String seq;
@@ -118,4 +241,19 @@ public class NewSequenceMap {
 		}
 	}
 	
+	/*
+	 * An entry whose sequence is stored in the arena rather than on the heap
+	 */
+	static class SpilledEntry extends UpdatedEntry
+	{
+		long offset;
+		int length;
+		SpilledEntry(long offset, int length, long pos)
+		{
+			super(null, pos);
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+	
 }
@@ -3,8 +3,19 @@
  */
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
 public class ParallelRunningStitch {
 	IrisGenomeQuery gq;
@@ -13,9 +24,20 @@ public class ParallelRunningStitch {
 	IntermediateResultsStore irs;
 	int numThreads;
 	String[] keys;
+	// Limit the number of variants in each tile so dense clusters are still spread across threads
+	static final int MAX_TILE_VARIANTS = 16;
+	
 	AtomicInteger variantsProcessed = new AtomicInteger(0);
 	AtomicInteger variantsWithErrors = new AtomicInteger(0);
-	ConcurrentLinkedQueue<Integer> todo;
+	AtomicInteger variantsTimedOut = new AtomicInteger(0);
+	ConcurrentLinkedQueue<Tile> todo;
+	
+	// Variants with their reads already gathered, used instead of todo when gathering reads in batches
+	LinkedBlockingQueue<GatheredReads> gathered;
+	
+	// The start times of the variants currently being refined, and the ones already reported as slow
+	ConcurrentHashMap<String, Long> inProgress = new ConcurrentHashMap<String, Long>();
+	Set<String> reportedSlow = ConcurrentHashMap.newKeySet();
 	
 	ParallelRunningStitch(SupportingReadMap readMap, int numThreads, IrisGenomeQuery gq) throws Exception
 	{
@@ -27,16 +49,60 @@ public class ParallelRunningStitch {
 		
 		irs = new IntermediateResultsStore(IrisSettings.INTERMEDIATE_RESULTS_FILE, IrisSettings.RESUME);
 		
-		todo = new ConcurrentLinkedQueue<Integer>();
-		for(int i = 0; i<keys.length; i++)
+		ArrayList<Tile> tiles = makeTiles(readMap.sortedKeyArray());
+		if(IrisSettings.SCHEDULE_BY_COST)
 		{
-			todo.add(i);
+			orderByCost(tiles);
 		}
+		todo = new ConcurrentLinkedQueue<Tile>(tiles);
 		results = new NewSequenceMap();
+		
+		Metrics.gauge("iris_tiles_queued", "Tiles of variants waiting for a thread", new LongSupplier() {
+			public long getAsLong() {
+				return todo.size();
+			}
+		});
+		Metrics.gauge("iris_variants_remaining", "Variants which have not finished refinement", new LongSupplier() {
+			public long getAsLong() {
+				return keys.length - variantsProcessed.get();
+			}
+		});
 	}
 	
 	void run() throws Exception
 	{
+		if(IrisSettings.BATCH_READ_GATHERING)
+		{
+			if(BatchedReadGathering.supported())
+			{
+				startBatchedGathering();
+			}
+			else
+			{
+				Logger.warn("Batched read gathering is not supported for CRAM files, so gathering reads for each variant separately");
+			}
+		}
+		
+		// Periodically report variants which have been running for a long time, so stuck ones show up in the log
+		ScheduledFuture<?> slowCheck = null;
+		if(IrisSettings.SLOW_VARIANT_SECONDS > 0)
+		{
+			long interval = Math.max(1, Math.min(30, IrisSettings.SLOW_VARIANT_SECONDS / 2));
+			slowCheck = ExternalTool.getWatchdog().scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					reportSlowVariants();
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+		
+		ExternalTool.activeWorkers.set(numThreads);
+		ExternalTool.queueDrained = false;
+		Metrics.gauge("iris_tool_cores_in_use", "Cores claimed by the external tools which are running", new LongSupplier() {
+			public long getAsLong() {
+				return ExternalTool.coresInUse.get();
+			}
+		});
+		
 		// Here the last thread in the array is the main thread, so it calls
 		// run() instead of start() and doesn't get joined below
 		Rayon[] threads = new Rayon[numThreads];
@@ -56,110 +122,427 @@ public class ParallelRunningStitch {
 		{
 			threads[i].join();
 		}
+		if(slowCheck != null)
+		{
+			slowCheck.cancel(false);
+		}
 		irs.fillMapFromStore(results);
 	}
 	
-	public class Rayon extends Thread {
-		
-		@Override
-		public void run() {
-			while(!todo.isEmpty()) {
-				Integer cur = todo.poll();
-				if(cur != null)
+	/*
+	 * Splits the variants (sorted by position) into tiles of nearby variants on the same chromosome
+	 */
+	static ArrayList<Tile> makeTiles(String[] sortedKeys)
+	{
+		ArrayList<Tile> res = new ArrayList<Tile>();
+		Tile cur = null;
+		for(String key : sortedKeys)
+		{
+			String chr = IrisVcfEntry.getChrFromKey(key);
+			long pos = IrisVcfEntry.getPosFromKey(key);
+			if(cur == null || !cur.chr.equals(chr) || pos / IrisSettings.TILE_SIZE != cur.start / IrisSettings.TILE_SIZE
+					|| cur.keys.size() >= MAX_TILE_VARIANTS)
+			{
+				cur = new Tile(chr, pos);
+				res.add(cur);
+			}
+			cur.keys.add(key);
+			cur.end = pos;
+		}
+		return res;
+	}
+	
+	/*
+	 * Sorts tiles so that the ones expected to take longest are started first, so that the run doesn't end
+	 * with a few threads working through expensive variants while the rest sit idle
+	 * Variants already done in a previous run are skipped, so they don't count towards a tile's cost
+	 */
+	void orderByCost(ArrayList<Tile> tiles)
+	{
+		for(Tile tile : tiles)
+		{
+			for(String key : tile.keys)
+			{
+				if(!IrisSettings.RESUME || !irs.set.contains(key))
 				{
-					String variantKey = keys[cur];
-					Logger.log("Starting to process " + variantKey);
-					
-					if(IrisSettings.RESUME && irs.set.contains(variantKey))
+					tile.cost += readMap.estimatedCost(key);
+				}
+			}
+		}
+		Collections.sort(tiles, new Comparator<Tile>() {
+			public int compare(Tile a, Tile b)
+			{
+				return Long.compare(b.cost, a.cost);
+			}
+		});
+	}
+	
+	/*
+	 * Refines all of the variants in a tile, sharing the reference sequence and read gathering between them
+	 * Returns false if the thread should stop because too many refinements have failed
+	 */
+	boolean processTile(Tile tile)
+	{
+		// Cover every reference lookup made for any variant in the tile
+		long buffer = Math.max(IrisSettings.GENOME_REGION_BUFFER, IrisSettings.RACON_BUFFER) + IrisSettings.VCF_PADDING_BEFORE + 1;
+		IrisGenomeQuery tileGq = gq;
+		try {
+			tileGq = new CachedGenomeQuery(gq, tile.chr, tile.start - buffer, tile.end + buffer);
+		} catch (Exception e) {
+			Logger.warn("Could not cache genome region for variants near " + tile.chr + ":" + tile.start);
+		}
+		
+		// Get the reads for all variants in the tile with a single pass over the region
+		final HashMap<String, ArrayList<String>> tileReads = new HashMap<String, ArrayList<String>>();
+		if(BatchedReadGathering.supported())
+		{
+			// The results set is synchronized and other workers add to it meanwhile, so check it directly rather than copying it
+			Set<String> alreadyDone = IrisSettings.RESUME ? irs.set : new HashSet<String>();
+			BatchedReadGathering brg = new BatchedReadGathering(readMap, tile.keys.toArray(new String[0]), alreadyDone);
+			try {
+				// Each variant is charged with the time spent reading since the previous one was handed off
+				final long[] lastTime = new long[] {StageTimer.start()};
+				brg.run(new BatchedReadGathering.Handler() {
+					public void handle(String key, ArrayList<String> reads)
 					{
-						Logger.log("Using results from previous run for " + variantKey);
-						int numDone = variantsProcessed.incrementAndGet();
-						Logger.log("Done processing " + variantKey + " (total processed = " + numDone + ")");
-						continue;
+						lastTime[0] = StageTimer.stop(key, StageTimer.READ_GATHERING, lastTime[0]);
+						tileReads.put(key, reads);
 					}
-					
-					ArrayList<String> readNames = readMap.get(variantKey);
-					NewSequenceMap.UpdatedEntry ue;
-					try {
-						ue = NewSequenceMap.fromReadNames(variantKey, readMap.seqMap, readNames, gq);
-						if(ue == null) {
-							Logger.log("No refined SV found for " + variantKey);
-							irs.addNullVariant(variantKey);
-							continue;
+				});
+			} catch (Exception e) {
+				// Variants without reads will gather them on their own
+				e.printStackTrace();
+				Logger.warn("Could not gather reads for variants near " + tile.chr + ":" + tile.start);
+			}
+		}
+		
+		for(String key : tile.keys)
+		{
+			if(!processVariant(key, tileReads.get(key), tileGq))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Streams the reads for all variants in position order and queues them up for the worker threads
+	 */
+	void startBatchedGathering()
+	{
+		HashSet<String> alreadyDone = IrisSettings.RESUME ? new HashSet<String>(irs.set) : new HashSet<String>();
+		final BatchedReadGathering brg = new BatchedReadGathering(readMap, readMap.sortedKeyArray(), alreadyDone);
+		gathered = new LinkedBlockingQueue<GatheredReads>(2 * numThreads);
+		Metrics.gauge("iris_gathered_queue_depth", "Variants with gathered reads waiting for a thread", new LongSupplier() {
+			public long getAsLong() {
+				return gathered.size();
+			}
+		});
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				HashSet<String> sent = new HashSet<String>();
+				try {
+					// Each variant is charged with the time spent reading since the previous one was queued,
+					// not counting time spent waiting for space in the queue
+					final long[] lastTime = new long[] {StageTimer.start()};
+					brg.run(new BatchedReadGathering.Handler() {
+						public void handle(String key, ArrayList<String> reads) throws Exception
+						{
+							StageTimer.stop(key, StageTimer.READ_GATHERING, lastTime[0]);
+							gathered.put(new GatheredReads(key, reads));
+							sent.add(key);
+							lastTime[0] = StageTimer.start();
 						}
-						Logger.log("Found refined SV of new length " + ue.seq.length() + 
-								" and new pos " + ue.pos + " for " + variantKey);
-						irs.addVariant(variantKey, ue.seq, ue.pos);
-						results.add(variantKey, ue.seq, ue.pos);
-					} catch (Exception e) {
-						variantsWithErrors.incrementAndGet();
-						e.printStackTrace();
-						
-						// Remove Racon's files in the case of a crash since there can be many of them
-						if(IrisSettings.CLEAN_INTERMEDIATE_FILES)
+					});
+				} catch (Exception e) {
+					// Any variants which didn't get their reads will gather them on their own
+					e.printStackTrace();
+					Logger.warn("Batched read gathering failed, so gathering reads separately for remaining variants");
+					for(String key : keys)
+					{
+						if(!sent.contains(key))
 						{
-							File f;
-							
-							// Remove racon intermediate files
-							String raconInAll = IrisSettings.addOutDir(variantKey + ".racon.fa");
-							String raconInSingle = IrisSettings.addOutDir(variantKey + ".racon.seq.fa");
-							String raconInAlign = IrisSettings.addOutDir(variantKey + ".racon.align.sam");
-							String raconOutFn = IrisSettings.addOutDir(variantKey + ".racon.out");
-							if((f = new File(raconInAll)).exists()) f.delete();
-							if((f = new File(raconInSingle)).exists()) f.delete();
-							if((f = new File(raconInAlign)).exists()) f.delete();
-							if((f = new File(raconOutFn)).exists()) f.delete();
-							if(IrisSettings.RACON_ITERS > 1)
-							{
-								for(int i = 2; i<=IrisSettings.RACON_ITERS; i++)
-								{
-									String fastaName = raconOutFn + "_" + i + ".fa";
-									String outName = raconOutFn + "_" + i + ".sam";
-									if((f = new File(fastaName)).exists()) f.delete();
-									if((f = new File(outName)).exists()) f.delete();
-								}
+							try {
+								gathered.put(new GatheredReads(key, null));
+							} catch (InterruptedException e1) {
+								return;
 							}
-							
-							// Remove falconsense intermediate files
-							String falconInFn = IrisSettings.addOutDir(variantKey + ".falcon.in");
-							String falconOutFn = IrisSettings.addOutDir(variantKey + ".falcon.out");
-							if((f=new File(falconInFn)).exists()) f.delete();
-							if((f=new File(falconOutFn)).exists()) f.delete();
-							
-							// Remove alignment files
-							String alignInFn = IrisSettings.addOutDir(variantKey + ".align.in");
-							String alignOutFn = IrisSettings.addOutDir(variantKey + ".align.out");
-							String genomeSampleFn = IrisSettings.addOutDir(variantKey + ".region.fa");
-							if((f=new File(alignInFn)).exists()) f.delete();
-							if((f=new File(alignOutFn)).exists()) f.delete();
-							if((f=new File(genomeSampleFn)).exists()) f.delete();
-							if((f=new File(genomeSampleFn + "-enc.2.ngm")).exists()) f.delete();
-							if((f=new File(genomeSampleFn + "-ht-13-2.2.ngm")).exists()) f.delete();
-							
-							// Remove read extraction files
-							String samFileName = IrisSettings.addOutDir(variantKey + ".sam");
-							String bamFileName = IrisSettings.addOutDir(variantKey + ".bam");
-							String fastqFileName = IrisSettings.addOutDir(variantKey + ".fastq");
-							if((f=new File(samFileName)).exists()) f.delete();
-							if((f=new File(bamFileName)).exists()) f.delete();
-							if((f=new File(fastqFileName)).exists()) f.delete();
 						}
-						
-						Logger.log("Found error in " + variantKey);
 					}
-					int numDone = variantsProcessed.incrementAndGet();
-					Logger.log("Done processing " + variantKey + " (total processed = " + numDone + ")");
-					
-					// Safeguard against creating too many intermediate files
-					if(numDone >= 50 && variantsWithErrors.get() * 2 > numDone)
+				}
+				try {
+					gathered.put(GatheredReads.END);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		};
+		producer.setDaemon(true);
+		producer.start();
+	}
+	
+	/*
+	 * Refines a single variant and stores the result
+	 * If the supporting reads were already gathered they are passed in, and otherwise reads is null
+	 * Returns false if the thread should stop because too many refinements have failed
+	 */
+	boolean processVariant(String variantKey, ArrayList<String> reads, IrisGenomeQuery gq)
+	{
+		Logger.debug("Starting to process " + variantKey);
+		
+		if(IrisSettings.RESUME && irs.set.contains(variantKey))
+		{
+			Logger.debug("Using results from previous run for " + variantKey);
+			Metrics.outcome("resumed", "resumed");
+			int numDone = variantsProcessed.incrementAndGet();
+			Logger.debug("Done processing " + variantKey + " (total processed = " + numDone + ")");
+			return true;
+		}
+		
+		ArrayList<String> readNames = readMap.get(variantKey);
+		NewSequenceMap.UpdatedEntry ue;
+		long startTime = System.currentTimeMillis();
+		inProgress.put(variantKey, startTime);
+		try {
+			if(reads == null)
+			{
+				ue = NewSequenceMap.fromReadNames(variantKey, readMap.seqMap, readNames, gq);
+			}
+			else
+			{
+				ue = NewSequenceMap.fromReads(variantKey, readMap.seqMap, reads, gq);
+			}
+			if(ue == null) {
+				Logger.debug("No refined SV found for " + variantKey);
+				irs.addNullVariant(variantKey);
+			}
+			else if(ue == NewSequenceMap.DRAFT_SUPPORTED_ENTRY)
+			{
+				irs.addDraftSupportedVariant(variantKey);
+				results.addReason(variantKey, NewSequenceMap.DRAFT_SUPPORTED);
+			}
+			else
+			{
+				Logger.debug("Found refined SV of new length " + ue.seq.length() + 
+						" and new pos " + ue.pos + " for " + variantKey);
+				irs.addVariant(variantKey, ue.seq, ue.pos);
+				results.add(variantKey, ue.seq, ue.pos);
+			}
+		} catch (ExternalTool.TimeoutException e) {
+			// The variant keeps its original call, and isn't retried when resuming since it would likely time out again
+			Logger.warn("Refinement of " + variantKey + " timed out: " + e.getMessage());
+			variantsTimedOut.incrementAndGet();
+			Metrics.outcome("timed_out", e.tool);
+			irs.addTimedOutVariant(variantKey);
+			removeIntermediateFilesAfterFailure(variantKey);
+		} catch (Exception e) {
+			variantsWithErrors.incrementAndGet();
+			Metrics.outcome("error", e.getClass().getSimpleName());
+			e.printStackTrace();
+			removeIntermediateFilesAfterFailure(variantKey);
+			Logger.error("Found error in " + variantKey);
+		} finally {
+			inProgress.remove(variantKey);
+			long elapsed = System.currentTimeMillis() - startTime;
+			if(IrisSettings.SLOW_VARIANT_SECONDS > 0 && elapsed > IrisSettings.SLOW_VARIANT_SECONDS * 1000L)
+			{
+				Logger.warn("Slow variant: " + variantKey + " took " + Logger.formatTime(elapsed) + " to refine");
+				Metrics.inc("iris_slow_variants_total", "Variants whose refinement took more than slow_variant seconds");
+			}
+			reportedSlow.remove(variantKey);
+		}
+		int numDone = variantsProcessed.incrementAndGet();
+		Logger.debug("Done processing " + variantKey + " (total processed = " + numDone + ")");
+		
+		// Safeguard against creating too many intermediate files
+		if(numDone >= 50 && variantsWithErrors.get() * 2 > numDone)
+		{
+			Logger.error("Terminating thread because too many refinements crashed");
+			return false;
+		}
+		return true;
+	}
+	
+	/*
+	 * Logs the variants which have been refining for longer than the slow variant threshold and haven't been reported yet
+	 */
+	void reportSlowVariants()
+	{
+		long now = System.currentTimeMillis();
+		for(Map.Entry<String, Long> entry : inProgress.entrySet())
+		{
+			long elapsed = now - entry.getValue();
+			if(elapsed > IrisSettings.SLOW_VARIANT_SECONDS * 1000L && reportedSlow.add(entry.getKey()))
+			{
+				Logger.warn("Still refining " + entry.getKey() + " after " + Logger.formatTime(elapsed));
+			}
+		}
+	}
+	
+	/*
+	 * Removes Racon's files in the case of a crash or timeout since there can be many of them
+	 */
+	static void removeIntermediateFilesAfterFailure(String variantKey)
+	{
+		if(IrisSettings.CLEAN_INTERMEDIATE_FILES)
+		{
+			try {
+				removeIntermediateFiles(variantKey);
+			} catch (Exception e) {
+				Logger.warn("Could not remove intermediate files for " + variantKey);
+			}
+		}
+	}
+	
+	/*
+	 * Removes any intermediate files left behind by a variant whose refinement crashed
+	 */
+	static void removeIntermediateFiles(String variantKey) throws Exception
+	{
+		File f;
+		
+		// Remove racon intermediate files
+		String raconInAll = IrisSettings.addScratchDir(variantKey + ".racon.fa");
+		String raconInSingle = IrisSettings.addScratchDir(variantKey + ".racon.seq.fa");
+		String raconInAlign = IrisSettings.addScratchDir(variantKey + ".racon.align.sam");
+		String raconOutFn = IrisSettings.addScratchDir(variantKey + ".racon.out");
+		if((f = new File(raconInAll)).exists()) f.delete();
+		if((f = new File(raconInSingle)).exists()) f.delete();
+		if((f = new File(raconInAlign)).exists()) f.delete();
+		if((f = new File(raconOutFn)).exists()) f.delete();
+		if((f = new File(raconInSingle + ".polished")).exists()) f.delete();
+		if(IrisSettings.RACON_ITERS > 1)
+		{
+			for(int i = 2; i<=IrisSettings.RACON_ITERS; i++)
+			{
+				String fastaName = raconOutFn + "_" + i + ".fa";
+				String outName = raconOutFn + "_" + i + ".sam";
+				if((f = new File(fastaName)).exists()) f.delete();
+				if((f = new File(outName)).exists()) f.delete();
+			}
+		}
+		
+		// Remove falconsense intermediate files
+		String falconInFn = IrisSettings.addScratchDir(variantKey + ".falcon.in");
+		String falconOutFn = IrisSettings.addScratchDir(variantKey + ".falcon.out");
+		if((f=new File(falconInFn)).exists()) f.delete();
+		if((f=new File(falconOutFn)).exists()) f.delete();
+		
+		// Remove alignment files
+		String alignInFn = IrisSettings.addScratchDir(variantKey + ".align.in");
+		String alignOutFn = IrisSettings.addScratchDir(variantKey + ".align.out");
+		String genomeSampleFn = IrisSettings.addScratchDir(variantKey + ".region.fa");
+		if((f=new File(alignInFn)).exists()) f.delete();
+		if((f=new File(alignOutFn)).exists()) f.delete();
+		if((f=new File(genomeSampleFn)).exists()) f.delete();
+		if((f=new File(genomeSampleFn + "-enc.2.ngm")).exists()) f.delete();
+		if((f=new File(genomeSampleFn + "-ht-13-2.2.ngm")).exists()) f.delete();
+		
+		// Remove read extraction files
+		String samFileName = IrisSettings.addScratchDir(variantKey + ".sam");
+		String bamFileName = IrisSettings.addScratchDir(variantKey + ".bam");
+		String fastqFileName = IrisSettings.addScratchDir(variantKey + ".fastq");
+		if((f=new File(samFileName)).exists()) f.delete();
+		if((f=new File(bamFileName)).exists()) f.delete();
+		if((f=new File(fastqFileName)).exists()) f.delete();
+		
+	}
+	
+	public class Rayon extends Thread {
+		
+		@Override
+		public void run() {
+			try {
+				if(gathered != null)
+				{
+					runBatched();
+					return;
+				}
+				while(true) {
+					Tile cur = todo.poll();
+					if(cur == null)
+					{
+						// Nothing left to hand out, so the remaining tool calls can use more threads
+						ExternalTool.queueDrained = true;
+						break;
+					}
+					if(!processTile(cur))
 					{
-						Logger.log("Terminating thread because too many refinements crashed");
 						break;
 					}
 				}
+			} finally {
+				ExternalTool.activeWorkers.decrementAndGet();
 			}
-			
 		}
 		
+		/*
+		 * Processes variants whose reads have already been gathered until there are none left
+		 */
+		void runBatched() {
+			while(true) {
+				GatheredReads cur;
+				try {
+					cur = gathered.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if(cur == GatheredReads.END)
+				{
+					ExternalTool.queueDrained = true;
+					
+					// Put it back so the other threads see it too
+					gathered.offer(cur);
+					return;
+				}
+				if(!processVariant(cur.key, cur.reads, gq))
+				{
+					break;
+				}
+			}
+		}
+		
+	}
+	
+	/*
+	 * A group of variants which are close together on the same chromosome, processed by a single thread
+	 */
+	static class Tile
+	{
+		String chr;
+		
+		// Positions of the first and last variant
+		long start, end;
+		
+		// The estimated time to refine all of the variants, in arbitrary units
+		long cost;
+		
+		ArrayList<String> keys;
+		Tile(String chr, long start)
+		{
+			this.chr = chr;
+			this.start = start;
+			this.end = start;
+			keys = new ArrayList<String>();
+		}
+	}
+	
+	/*
+	 * The supporting reads for a variant which were found by the batched gathering
+	 */
+	static class GatheredReads
+	{
+		// Marker placed at the end of the queue
+		static final GatheredReads END = new GatheredReads(null, null);
+		
+		String key;
+		ArrayList<String> reads;
+		GatheredReads(String key, ArrayList<String> reads)
+		{
+			this.key = key;
+			this.reads = reads;
+		}
 	}
 }
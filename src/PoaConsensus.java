@@ -0,0 +1,823 @@
+/*
+ * An in-process consensus engine using partial order alignment (POA), in the style of spoa, as an
+ * alternative to polishing the draft with minimap2 and racon.
+ * The draft is the initial path through a graph of bases.  Each read is placed on the draft with
+ * shared k-mers, aligned to the graph within a band around that placement, and merged into the graph,
+ * and the consensus is the heaviest path through the graph once all of the reads are added.
+ * A read can place an indel of any length between two of its anchors, such as where the draft of an
+ * insertion is shorter than the real one, and the band there is widened to fit it.  The cost of a run of
+ * inserted read bases is capped so that the read still aligns however much longer it is.  Bases which were
+ * inserted relative to the draft keep track of how far along their branch they are, so the band of
+ * each later read follows the branch instead of staying where it starts.
+ * As in racon, the ends of the consensus which are covered by fewer than half of the sequences are trimmed.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class PoaConsensus {
+
+	// Scores for aligning reads to the graph - racon's defaults, with linear gaps
+	static final int MATCH = 3;
+	static final int MISMATCH = -5;
+	static final int GAP = -4;
+
+	// The most that a run of read bases inserted relative to the graph can cost, so that a read which covers an
+	// insertion much longer than its draft still scores above 0 from its flanks
+	static final int LONG_INSERTION = -200;
+
+	// The length of the k-mers used to place reads on the draft, and the fewest shared ones needed to use a read
+	static final int K = 15;
+	static final int MIN_ANCHORS = 3;
+
+	// Anchors further apart than this on the draft, or implying a large indel between them, cost LONG_GAP_COST
+	// anchors to chain directly, and at most CHAIN_LOOKBACK earlier anchors are tried
+	static final int MAX_CHAIN_GAP = 1000;
+	static final int LONG_GAP_COST = 10;
+	static final int CHAIN_LOOKBACK = 50;
+
+	// Each read is aligned within this many bases of where the anchors place it, plus half the distance to the nearest anchor
+	// and the size of any indel between the anchors on either side
+	static final int MIN_BAND = 100;
+
+	static final int NEG_INF = Integer.MIN_VALUE / 4;
+
+	/*
+	 * Polishes the draft sequence of a variant with its supporting reads, returning the consensus
+	 */
+	static ArrayList<String> getConsensusSequences(String id, String draft, ArrayList<String> reads) throws Exception
+	{
+		String consensus = draft.toUpperCase();
+		for(int iter = 0; iter < Math.max(1, IrisSettings.RACON_ITERS); iter++)
+		{
+			Graph graph = new Graph(consensus.getBytes());
+			DraftIndex index = new DraftIndex(graph.draft);
+			int used = 0;
+			for(String read : reads)
+			{
+				Placement placement = index.place(read.toUpperCase().getBytes());
+				if(placement != null && graph.addRead(placement))
+				{
+					used++;
+				}
+			}
+			if(used == 0)
+			{
+				throw new Exception("No alignments found for polishing " + id);
+			}
+			consensus = graph.consensus();
+		}
+		ArrayList<String> res = new ArrayList<String>();
+		res.add(consensus);
+		return res;
+	}
+
+	static int baseIndex(byte b)
+	{
+		switch(b)
+		{
+			case 'A': return 0;
+			case 'C': return 1;
+			case 'G': return 2;
+			case 'T': return 3;
+			default: return 4;
+		}
+	}
+
+	static byte[] reverseComplement(byte[] seq)
+	{
+		byte[] res = new byte[seq.length];
+		for(int i = 0; i<seq.length; i++)
+		{
+			byte b = seq[seq.length - 1 - i];
+			res[i] = (byte)(b == 'A' ? 'T' : b == 'C' ? 'G' : b == 'G' ? 'C' : b == 'T' ? 'A' : 'N');
+		}
+		return res;
+	}
+
+	/*
+	 * Where a read lies on the draft - the part of the read (on the draft's strand) to align, and for
+	 * each draft position, the offset in that part where it is expected to be and how far away it can be
+	 */
+	static class Placement
+	{
+		byte[] seq;
+		int[] expected;
+		int[] band;
+	}
+
+	/*
+	 * The draft's k-mers which occur only once, for placing reads on it
+	 */
+	static class DraftIndex
+	{
+		int draftLength;
+		HashMap<Integer, Integer> kmers = new HashMap<Integer, Integer>();
+
+		DraftIndex(byte[] draft)
+		{
+			draftLength = draft.length;
+			int[] codes = kmerCodes(draft);
+			HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+			for(int i = 0; i<codes.length; i++)
+			{
+				if(codes[i] >= 0)
+				{
+					Integer prev = kmers.put(codes[i], i);
+					if(prev != null)
+					{
+						counts.put(codes[i], 2);
+					}
+				}
+			}
+			for(Integer repeated : counts.keySet())
+			{
+				kmers.remove(repeated);
+			}
+		}
+
+		/*
+		 * The 2-bit encoding of the k-mer starting at each position, or -1 if it contains a base other than ACGT
+		 */
+		static int[] kmerCodes(byte[] seq)
+		{
+			int n = Math.max(0, seq.length - K + 1);
+			int[] res = new int[n];
+			int code = 0, valid = 0, mask = (1 << (2 * K)) - 1;
+			for(int i = 0; i<seq.length; i++)
+			{
+				int b = baseIndex(seq[i]);
+				if(b == 4)
+				{
+					valid = 0;
+					code = 0;
+				}
+				else
+				{
+					code = ((code << 2) | b) & mask;
+					valid++;
+				}
+				if(i >= K - 1)
+				{
+					res[i - K + 1] = valid >= K ? code : -1;
+				}
+			}
+			return res;
+		}
+
+		/*
+		 * Finds the anchors (read position, draft position) of the read's k-mers in the draft, in draft order
+		 */
+		ArrayList<int[]> anchors(byte[] read)
+		{
+			ArrayList<int[]> res = new ArrayList<int[]>();
+			int[] codes = kmerCodes(read);
+			for(int i = 0; i<codes.length; i++)
+			{
+				if(codes[i] >= 0)
+				{
+					Integer pos = kmers.get(codes[i]);
+					if(pos != null)
+					{
+						res.add(new int[] {i, pos});
+					}
+				}
+			}
+			res.sort(new java.util.Comparator<int[]>() {
+				public int compare(int[] a, int[] b)
+				{
+					return a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]);
+				}
+			});
+			return res;
+		}
+
+		/*
+		 * Finds the best chain of anchors which increase on both the draft and the read, where each anchor
+		 * adds one to the score and each large gap in either one relative to the other costs LONG_GAP_COST
+		 */
+		static ArrayList<int[]> chain(ArrayList<int[]> anchors)
+		{
+			int n = anchors.size();
+			int[] score = new int[n];
+			int[] prev = new int[n];
+			int best = -1;
+			for(int i = 0; i<n; i++)
+			{
+				int[] a = anchors.get(i);
+				score[i] = 1;
+				prev[i] = -1;
+				for(int j = i - 1; j >= Math.max(0, i - CHAIN_LOOKBACK); j--)
+				{
+					int[] b = anchors.get(j);
+					int dDraft = a[1] - b[1], dRead = a[0] - b[0];
+					if(dDraft <= 0 || dRead <= 0)
+					{
+						continue;
+					}
+					int linkScore = score[j] + 1;
+					if(dDraft > MAX_CHAIN_GAP || Math.abs(dDraft - dRead) > 50 + Math.max(dDraft, dRead) / 4)
+					{
+						linkScore -= LONG_GAP_COST;
+					}
+					if(linkScore > score[i])
+					{
+						score[i] = linkScore;
+						prev[i] = j;
+					}
+				}
+				if(best == -1 || score[i] > score[best])
+				{
+					best = i;
+				}
+			}
+			ArrayList<int[]> res = new ArrayList<int[]>();
+			for(int i = best; i != -1; i = prev[i])
+			{
+				res.add(anchors.get(i));
+			}
+			java.util.Collections.reverse(res);
+			return res;
+		}
+
+		/*
+		 * Places a read on the draft, trying both strands, or returns null if it doesn't share enough k-mers with it
+		 */
+		Placement place(byte[] read)
+		{
+			if(draftLength < K)
+			{
+				return null;
+			}
+			ArrayList<int[]> forward = chain(anchors(read));
+			byte[] rc = reverseComplement(read);
+			ArrayList<int[]> reverse = chain(anchors(rc));
+			ArrayList<int[]> chain = forward;
+			byte[] seq = read;
+			if(reverse.size() > forward.size())
+			{
+				chain = reverse;
+				seq = rc;
+			}
+			if(chain.size() < MIN_ANCHORS)
+			{
+				return null;
+			}
+
+			// Take the part of the read which should cover the draft, with some room for indels past the outer anchors
+			int[] first = chain.get(0), last = chain.get(chain.size() - 1);
+			int before = first[1] + first[1] / 5 + 50;
+			int after = (draftLength - last[1]) + (draftLength - last[1]) / 5 + 50;
+			int start = Math.max(0, first[0] - before);
+			int end = (int)Math.min(seq.length, (long)last[0] + after);
+
+			Placement res = new Placement();
+			res.seq = Arrays.copyOfRange(seq, start, end);
+			res.expected = new int[draftLength];
+			res.band = new int[draftLength];
+
+			// Interpolate between the anchors, with a band wide enough for any indel between them, and assume no indels outside of them
+			int idx = 0;
+			for(int d = 0; d<draftLength; d++)
+			{
+				while(idx < chain.size() && chain.get(idx)[1] < d)
+				{
+					idx++;
+				}
+				int[] left = idx > 0 ? chain.get(idx - 1) : null;
+				int[] right = idx < chain.size() ? chain.get(idx) : null;
+				double readPos;
+				int distance, indel = 0;
+				if(left == null)
+				{
+					readPos = right[0] - (right[1] - d);
+					distance = right[1] - d;
+				}
+				else if(right == null)
+				{
+					readPos = left[0] + (d - left[1]);
+					distance = d - left[1];
+				}
+				else if(right[1] == left[1])
+				{
+					readPos = right[0];
+					distance = 0;
+				}
+				else
+				{
+					readPos = left[0] + (double)(right[0] - left[0]) * (d - left[1]) / (right[1] - left[1]);
+					distance = Math.min(d - left[1], right[1] - d);
+					indel = Math.abs((right[0] - left[0]) - (right[1] - left[1]));
+				}
+				res.expected[d] = (int)Math.round(readPos) - start;
+				res.band[d] = MIN_BAND + distance / 2 + indel;
+			}
+			return res;
+		}
+	}
+
+	/*
+	 * A partial order graph of the sequences added so far
+	 */
+	static class Graph
+	{
+		byte[] draft;
+
+		// For each node, its base, the draft position it lines up with, how many bases after that position it is
+		// along a branch of inserted bases, and the number of sequences through it
+		int nodeCount = 0;
+		byte[] bases = new byte[1024];
+		int[] coords = new int[1024];
+		int[] offsets = new int[1024];
+		int[] coverage = new int[1024];
+
+		// Edges into and out of each node, and the weight of each incoming edge
+		ArrayList<int[]> inNodes = new ArrayList<int[]>();
+		ArrayList<int[]> inWeights = new ArrayList<int[]>();
+		int[] inCount = new int[1024];
+		ArrayList<int[]> outNodes = new ArrayList<int[]>();
+		int[] outCount = new int[1024];
+
+		// Nodes with different bases which have been aligned to each node
+		ArrayList<int[]> alignedNodes = new ArrayList<int[]>();
+		int[] alignedCount = new int[1024];
+
+		int sequenceCount = 0;
+
+		// The nodes in topological order
+		int[] order;
+
+		// Alignment scores, reused between reads
+		int[] scores = new int[0];
+
+		Graph(byte[] draft)
+		{
+			this.draft = draft;
+			int prev = -1;
+			for(int i = 0; i<draft.length; i++)
+			{
+				int node = addNode(draft[i], i, 0);
+				coverage[node]++;
+				if(prev != -1)
+				{
+					addEdge(prev, node);
+				}
+				prev = node;
+			}
+			sequenceCount = 1;
+			sort();
+		}
+
+		int addNode(byte base, int coord, int offset)
+		{
+			if(nodeCount == bases.length)
+			{
+				int size = 2 * nodeCount;
+				bases = Arrays.copyOf(bases, size);
+				coords = Arrays.copyOf(coords, size);
+				offsets = Arrays.copyOf(offsets, size);
+				coverage = Arrays.copyOf(coverage, size);
+				inCount = Arrays.copyOf(inCount, size);
+				outCount = Arrays.copyOf(outCount, size);
+				alignedCount = Arrays.copyOf(alignedCount, size);
+			}
+			bases[nodeCount] = base;
+			coords[nodeCount] = coord;
+			offsets[nodeCount] = offset;
+			inNodes.add(new int[2]);
+			inWeights.add(new int[2]);
+			outNodes.add(new int[2]);
+			alignedNodes.add(new int[0]);
+			return nodeCount++;
+		}
+
+		/*
+		 * Adds an edge or increases its weight if it already exists
+		 */
+		void addEdge(int from, int to)
+		{
+			int[] in = inNodes.get(to);
+			for(int i = 0; i<inCount[to]; i++)
+			{
+				if(in[i] == from)
+				{
+					inWeights.get(to)[i]++;
+					return;
+				}
+			}
+			if(inCount[to] == in.length)
+			{
+				inNodes.set(to, in = Arrays.copyOf(in, 2 * in.length));
+				inWeights.set(to, Arrays.copyOf(inWeights.get(to), 2 * in.length));
+			}
+			in[inCount[to]] = from;
+			inWeights.get(to)[inCount[to]++] = 1;
+			int[] out = outNodes.get(from);
+			if(outCount[from] == out.length)
+			{
+				outNodes.set(from, out = Arrays.copyOf(out, 2 * out.length));
+			}
+			out[outCount[from]++] = to;
+		}
+
+		/*
+		 * Marks two nodes as aligned to each other
+		 */
+		void addAligned(int a, int b)
+		{
+			int[] list = alignedNodes.get(a);
+			if(alignedCount[a] == list.length)
+			{
+				alignedNodes.set(a, list = Arrays.copyOf(list, Math.max(2, 2 * list.length)));
+			}
+			list[alignedCount[a]++] = b;
+		}
+
+		/*
+		 * Orders the nodes so that every edge goes forward
+		 */
+		void sort()
+		{
+			order = new int[nodeCount];
+			int[] remaining = Arrays.copyOf(inCount, nodeCount);
+			int head = 0, tail = 0;
+			for(int i = 0; i<nodeCount; i++)
+			{
+				if(remaining[i] == 0)
+				{
+					order[tail++] = i;
+				}
+			}
+			while(head < tail)
+			{
+				int node = order[head++];
+				int[] out = outNodes.get(node);
+				for(int i = 0; i<outCount[node]; i++)
+				{
+					if(--remaining[out[i]] == 0)
+					{
+						order[tail++] = out[i];
+					}
+				}
+			}
+		}
+
+		/*
+		 * Aligns a read to the graph and merges it in, returning false if it didn't align
+		 */
+		boolean addRead(Placement placement)
+		{
+			byte[] seq = placement.seq;
+			int m = seq.length;
+			if(m == 0)
+			{
+				return false;
+			}
+
+			// The substitution score of each base against each read position, so the inner loop has no branches
+			int[][] profile = new int[5][m];
+			for(int j = 0; j<m; j++)
+			{
+				int b = baseIndex(seq[j]);
+				for(int c = 0; c<5; c++)
+				{
+					profile[c][j] = (c == b && c != 4) ? MATCH : MISMATCH;
+				}
+			}
+
+			// Each node's scores are stored for the read positions 1 to m within its band, as positions lo to hi
+			int n = nodeCount;
+			int[] rank = new int[n];
+			int[] lo = new int[n], hi = new int[n], offset = new int[n];
+			long total = 0;
+			for(int r = 0; r<n; r++)
+			{
+				int node = order[r];
+				rank[node] = r;
+				int coord = Math.min(coords[node], placement.expected.length - 1);
+				int e = placement.expected[coord] + offsets[node], b = placement.band[coord];
+				lo[node] = Math.max(1, e - b);
+				hi[node] = Math.min(m, e + b);
+				offset[node] = (int)total;
+				total += Math.max(0, hi[node] - lo[node] + 1);
+			}
+			if(total > Integer.MAX_VALUE - 8)
+			{
+				return false;
+			}
+			if(scores.length < total)
+			{
+				scores = new int[(int)Math.min(Integer.MAX_VALUE - 8, Math.max(total, 2L * scores.length))];
+			}
+			int[] h = scores;
+
+			int bestScore = 0, bestNode = -1, bestJ = -1;
+			for(int r = 0; r<n; r++)
+			{
+				int node = order[r];
+				int nodeLo = lo[node], nodeHi = hi[node], nodeOffset = offset[node];
+				if(nodeLo > nodeHi)
+				{
+					continue;
+				}
+				int[] sub = profile[baseIndex(bases[node])];
+				Arrays.fill(h, nodeOffset, nodeOffset + nodeHi - nodeLo + 1, NEG_INF);
+
+				if(inCount[node] == 0)
+				{
+					// The read can skip any number of bases before the start of the graph
+					for(int j = nodeLo; j<=nodeHi; j++)
+					{
+						h[nodeOffset + j - nodeLo] = sub[j-1];
+					}
+				}
+				else if(nodeLo == 1)
+				{
+					// The graph can be entered anywhere before the read starts, so every node scores 0 at read position 0
+					h[nodeOffset] = sub[0];
+				}
+				int[] in = inNodes.get(node);
+				for(int p = 0; p<inCount[node]; p++)
+				{
+					int pred = in[p];
+					int predLo = lo[pred], predHi = hi[pred], predOffset = offset[pred];
+
+					// Match/mismatch from the previous read position in the predecessor
+					int from = Math.max(nodeLo, predLo + 1), to = Math.min(nodeHi, predHi + 1);
+					for(int j = from; j<=to; j++)
+					{
+						int score = h[predOffset + j - 1 - predLo] + sub[j-1];
+						if(score > h[nodeOffset + j - nodeLo])
+						{
+							h[nodeOffset + j - nodeLo] = score;
+						}
+					}
+
+					// Skipping this node
+					from = Math.max(nodeLo, predLo);
+					to = Math.min(nodeHi, predHi);
+					for(int j = from; j<=to; j++)
+					{
+						int score = h[predOffset + j - predLo] + GAP;
+						if(score > h[nodeOffset + j - nodeLo])
+						{
+							h[nodeOffset + j - nodeLo] = score;
+						}
+					}
+				}
+
+				// Read bases inserted after this node, which depend on the previous read position so can't be vectorized
+				int left = nodeLo == 1 ? 0 : NEG_INF, bestLeft = left;
+				for(int j = nodeLo; j<=nodeHi; j++)
+				{
+					int idx = nodeOffset + j - nodeLo;
+					int score = Math.max(left + GAP, bestLeft + LONG_INSERTION);
+					if(score > h[idx])
+					{
+						h[idx] = score;
+					}
+					left = h[idx];
+					bestLeft = Math.max(bestLeft, left);
+				}
+
+				// The alignment can end once the read is used up or at the end of the graph
+				if(nodeHi == m && h[nodeOffset + m - nodeLo] > bestScore)
+				{
+					bestScore = h[nodeOffset + m - nodeLo];
+					bestNode = node;
+					bestJ = m;
+				}
+				if(outCount[node] == 0)
+				{
+					for(int j = nodeLo; j<=nodeHi; j++)
+					{
+						if(h[nodeOffset + j - nodeLo] > bestScore)
+						{
+							bestScore = h[nodeOffset + j - nodeLo];
+							bestNode = node;
+							bestJ = j;
+						}
+					}
+				}
+			}
+			if(bestNode == -1)
+			{
+				return false;
+			}
+
+			// Trace back, recording the node each read position is aligned to (-1 for inserted bases)
+			int[] alignedTo = new int[m];
+			Arrays.fill(alignedTo, -2);
+			int node = bestNode, j = bestJ;
+			while(node != -1 && j > 0)
+			{
+				int score = h[offset[node] + j - lo[node]];
+				int[] sub = profile[baseIndex(bases[node])];
+				int next = -2;
+				if(inCount[node] == 0 && score == sub[j-1])
+				{
+					alignedTo[j-1] = node;
+					j = 0;
+					break;
+				}
+				if(j == 1 && score == sub[0])
+				{
+					alignedTo[0] = node;
+					j = 0;
+					break;
+				}
+				// With linear gaps, an indel scores the same split into pieces around bases which happen to match,
+				// so ties go to the gaps first to keep each indel in one piece and in the same place for every read
+				int leftScore = j == 1 ? (lo[node] == 1 ? 0 : NEG_INF) : (j - 1 >= lo[node] ? h[offset[node] + j - 1 - lo[node]] : NEG_INF);
+				if(leftScore + GAP == score)
+				{
+					alignedTo[j-1] = -1;
+					j--;
+					next = node;
+				}
+				int[] in = inNodes.get(node);
+				for(int p = 0; p<inCount[node] && next == -2; p++)
+				{
+					int pred = in[p];
+					if(j >= lo[pred] && j <= hi[pred] && h[offset[pred] + j - lo[pred]] + GAP == score)
+					{
+						next = pred;
+					}
+				}
+				for(int p = 0; p<inCount[node] && next == -2; p++)
+				{
+					int pred = in[p];
+					if(j - 1 >= lo[pred] && j - 1 <= hi[pred] && h[offset[pred] + j - 1 - lo[pred]] + sub[j-1] == score)
+					{
+						alignedTo[j-1] = node;
+						j--;
+						next = pred;
+					}
+				}
+				if(next == -2)
+				{
+					// A long insertion, which starts after the last read position in this node that scores enough higher
+					for(int k = j - 1; k >= lo[node] - 1 && next == -2; k--)
+					{
+						int kScore = k >= lo[node] ? h[offset[node] + k - lo[node]] : (k == 0 ? 0 : NEG_INF);
+						if(kScore + LONG_INSERTION == score)
+						{
+							for(int i = k; i<j; i++)
+							{
+								alignedTo[i] = -1;
+							}
+							j = k;
+							next = node;
+						}
+					}
+				}
+				if(next == -2)
+				{
+					// Shouldn't happen, but stop rather than produce a wrong alignment
+					return false;
+				}
+				node = next;
+			}
+
+			// Merge the aligned part of the read into the graph
+			int first = 0;
+			while(first < m && alignedTo[first] == -2)
+			{
+				first++;
+			}
+			int last = m - 1;
+			while(last >= 0 && alignedTo[last] == -2)
+			{
+				last--;
+			}
+			// Inserted bases line up with the draft position of the node before them, or after them at the start,
+			// and are one base further along than the node before them
+			int prev = -1, prevCoord = 0, prevOffset = 0;
+			for(int i = first; i<=last; i++)
+			{
+				if(alignedTo[i] >= 0)
+				{
+					prevCoord = coords[alignedTo[i]];
+					prevOffset = offsets[alignedTo[i]] - (i - first) - 1;
+					break;
+				}
+			}
+			for(int i = first; i<=last; i++)
+			{
+				byte base = seq[i];
+				int target = alignedTo[i];
+				if(target < 0)
+				{
+					target = addNode(base, prevCoord, prevOffset + 1);
+				}
+				else if(bases[target] != base)
+				{
+					int match = -1;
+					int[] aligned = alignedNodes.get(target);
+					for(int a = 0; a<alignedCount[target]; a++)
+					{
+						if(bases[aligned[a]] == base)
+						{
+							match = aligned[a];
+						}
+					}
+					if(match == -1)
+					{
+						match = addNode(base, coords[target], offsets[target]);
+						for(int a = 0; a<alignedCount[target]; a++)
+						{
+							addAligned(match, aligned[a]);
+							addAligned(aligned[a], match);
+						}
+						addAligned(match, target);
+						addAligned(target, match);
+					}
+					target = match;
+				}
+				coverage[target]++;
+				prevCoord = coords[target];
+				prevOffset = offsets[target];
+				if(prev != -1)
+				{
+					addEdge(prev, target);
+				}
+				prev = target;
+			}
+			sequenceCount++;
+			sort();
+			return true;
+		}
+
+		/*
+		 * Finds the heaviest path through the graph, following the heaviest incoming edge into each node,
+		 * and trims its ends where fewer than half of the sequences cover it
+		 */
+		String consensus()
+		{
+			long[] score = new long[nodeCount];
+			int[] pred = new int[nodeCount];
+			int best = -1;
+			for(int node : order)
+			{
+				pred[node] = -1;
+				int[] in = inNodes.get(node);
+				int[] weights = inWeights.get(node);
+				int bestWeight = -1;
+				for(int p = 0; p<inCount[node]; p++)
+				{
+					if(weights[p] > bestWeight || (weights[p] == bestWeight && score[in[p]] >= score[pred[node]]))
+					{
+						bestWeight = weights[p];
+						pred[node] = in[p];
+					}
+				}
+				score[node] = pred[node] == -1 ? 0 : bestWeight + score[pred[node]];
+				if(best == -1 || score[node] > score[best])
+				{
+					best = node;
+				}
+			}
+
+			ArrayList<Integer> path = new ArrayList<Integer>();
+			for(int node = best; node != -1; node = pred[node])
+			{
+				path.add(node);
+			}
+			java.util.Collections.reverse(path);
+
+			int[] pathCoverage = new int[path.size()];
+			for(int i = 0; i<path.size(); i++)
+			{
+				int node = path.get(i);
+				pathCoverage[i] = coverage[node];
+				int[] aligned = alignedNodes.get(node);
+				for(int a = 0; a<alignedCount[node]; a++)
+				{
+					pathCoverage[i] += coverage[aligned[a]];
+				}
+			}
+			int minCoverage = (sequenceCount - 1) / 2;
+			int begin = 0, end = path.size() - 1;
+			while(begin < path.size() && pathCoverage[begin] < minCoverage)
+			{
+				begin++;
+			}
+			while(end >= 0 && pathCoverage[end] < minCoverage)
+			{
+				end--;
+			}
+			if(begin >= end)
+			{
+				// Nothing is well covered, so keep the whole path like racon does
+				begin = 0;
+				end = path.size() - 1;
+			}
+			StringBuilder res = new StringBuilder();
+			for(int i = begin; i<=end; i++)
+			{
+				res.append((char)bases[path.get(i)]);
+			}
+			return res.toString();
+		}
+	}
+}
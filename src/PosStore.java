@@ -1,74 +1,179 @@
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.TreeMap;
 /*
  * Data structure for storing a set of variant positions
+ * For each variant type and chromosome, the positions are kept in a sorted array of longs alongside
+ * an array of the variants' lengths, so that lookups are binary searches with no boxing
  */
 public class PosStore {
-	static HashMap<String, TreeMap<Place, Long>> positions;
+	static HashMap<String, HashMap<String, Positions>> positions;
 	static void init(String filename) throws Exception
 	{
-		positions = new HashMap<String, TreeMap<Place, Long>>();
+		positions = new HashMap<String, HashMap<String, Positions>>();
 		VcfEntryIterator vei = new VcfEntryIterator(filename);
 		for(IrisVcfEntry cur : vei)
 		{
-			String type = cur.getType();
-			String chr = cur.getChromosome();
-			long len = cur.getLength();
-			long pos = cur.getPos();
-			if(!positions.containsKey(type))
+			add(cur.getType(), cur.getChromosome(), cur.getPos(), cur.getLength());
+		}
+		for(HashMap<String, Positions> byChr : positions.values())
+		{
+			for(Positions p : byChr.values())
 			{
-				positions.put(type, new TreeMap<Place, Long>());
+				p.finish();
 			}
-			positions.get(type).put(new Place(chr, pos), len);
 		}
 	}
-	static long getLength(String type, String chr, long pos)
+	static void add(String type, String chr, long pos, long len)
 	{
-		return positions.get(type).get(new Place(chr, pos));
+		HashMap<String, Positions> byChr = positions.get(type);
+		if(byChr == null)
+		{
+			byChr = new HashMap<String, Positions>();
+			positions.put(type, byChr);
+		}
+		Positions p = byChr.get(chr);
+		if(p == null)
+		{
+			p = new Positions();
+			byChr.put(chr, p);
+		}
+		p.add(pos, len);
 	}
-	static Place getNearestVariant(String type, String chr, long pos)
+	static Positions get(String type, String chr)
 	{
-		if(!positions.containsKey(type))
+		if(positions == null || !positions.containsKey(type))
 		{
 			return null;
 		}
-		TreeMap<Place, Long> rightType = positions.get(type);
-		Place query = new Place(chr, pos);
-		Place floor = rightType.floorKey(query), ceiling = rightType.ceilingKey(query);
-		if(floor != null && !floor.chr.equals(chr))
+		return positions.get(type).get(chr);
+	}
+	static long getLength(String type, String chr, long pos)
+	{
+		return get(type, chr).getLength(pos);
+	}
+	/*
+	 * Gets the length of a variant, or null if there is no variant of this type at the position
+	 */
+	static Long findLength(String type, String chr, long pos)
+	{
+		Positions p = get(type, chr);
+		if(p == null)
 		{
-			floor = null;
+			return null;
 		}
-		if(ceiling != null && !ceiling.chr.equals(chr))
+		int idx = p.indexOf(pos);
+		return idx < 0 ? null : p.len[idx];
+	}
+	static Place getNearestVariant(String type, String chr, long pos)
+	{
+		Positions p = get(type, chr);
+		if(p == null || p.size == 0)
 		{
-			ceiling = null;
+			return null;
 		}
-		if(floor == null && ceiling == null)
+		int idx = p.indexOf(pos);
+		if(idx >= 0)
 		{
-			return null;
+			return new Place(chr, pos);
 		}
-		else if(floor == null)
+
+		// The variants just before and after the position, if there are any
+		int ceiling = -idx - 1, floor = ceiling - 1;
+		if(floor < 0)
 		{
-			return ceiling;
+			return new Place(chr, p.pos[ceiling]);
 		}
-		else if(ceiling == null)
+		else if(ceiling >= p.size)
 		{
-			return floor;
+			return new Place(chr, p.pos[floor]);
 		}
 		else
 		{
-			long floorDist = Math.abs(pos - floor.pos);
-			long ceilingDist = Math.abs(pos - ceiling.pos);
+			long floorDist = Math.abs(pos - p.pos[floor]);
+			long ceilingDist = Math.abs(pos - p.pos[ceiling]);
 			if(floorDist <= ceilingDist)
 			{
-				return floor;
+				return new Place(chr, p.pos[floor]);
 			}
 			else
 			{
-				return ceiling;
+				return new Place(chr, p.pos[ceiling]);
 			}
 		}
 	}
+	/*
+	 * The positions and lengths of the variants of one type on one chromosome
+	 */
+	static class Positions
+	{
+		long[] pos = new long[16];
+		long[] len = new long[16];
+		int size = 0;
+		void add(long p, long l)
+		{
+			if(size == pos.length)
+			{
+				pos = Arrays.copyOf(pos, size * 2);
+				len = Arrays.copyOf(len, size * 2);
+			}
+			pos[size] = p;
+			len[size] = l;
+			size++;
+		}
+		/*
+		 * Sorts the variants by position, keeping the last one seen at each position, and frees unused space
+		 */
+		void finish()
+		{
+			boolean sorted = true;
+			for(int i = 1; i<size && sorted; i++)
+			{
+				sorted = pos[i-1] < pos[i];
+			}
+			if(!sorted)
+			{
+				// Input VCFs are almost always sorted already, so this is rarely needed
+				Integer[] order = new Integer[size];
+				for(int i = 0; i<size; i++)
+				{
+					order[i] = i;
+				}
+				final long[] unsorted = pos;
+				Arrays.sort(order, new Comparator<Integer>() {
+					public int compare(Integer a, Integer b)
+					{
+						return Long.compare(unsorted[a], unsorted[b]);
+					}
+				});
+				long[] newPos = new long[size], newLen = new long[size];
+				int count = 0;
+				for(int i = 0; i<size; i++)
+				{
+					if(count > 0 && newPos[count-1] == pos[order[i]])
+					{
+						count--;
+					}
+					newPos[count] = pos[order[i]];
+					newLen[count] = len[order[i]];
+					count++;
+				}
+				pos = newPos;
+				len = newLen;
+				size = count;
+			}
+			pos = Arrays.copyOf(pos, size);
+			len = Arrays.copyOf(len, size);
+		}
+		int indexOf(long p)
+		{
+			return Arrays.binarySearch(pos, 0, size, p);
+		}
+		long getLength(long p)
+		{
+			return len[indexOf(p)];
+		}
+	}
 	static class Place implements Comparable<Place>
 	{
 		String chr;
@@ -1,6 +1,7 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Scanner;
 
@@ -50,18 +51,32 @@ public class Racon {
 	{
 		if(!isAlphanumeric(oldSeq))
 		{
-			Logger.log("Could not run racon on " + id + " because of non-alphanumeric variant sequence: " + oldSeq);
+			Logger.warn("Could not run racon on " + id + " because of non-alphanumeric variant sequence: " + oldSeq);
 			return new ArrayList<String>();
 		}
-		String raconInAll = IrisSettings.addOutDir(id + ".racon.fa");
-		String raconInSingle = IrisSettings.addOutDir(id + ".racon.seq.fa");
-		String raconInAlign = IrisSettings.addOutDir(id + ".racon.align.sam");
-		String raconOutFn = IrisSettings.addOutDir(id + ".racon.out");
 		String draft = getDraft(oldSeq, gq, id);
+		if(IrisSettings.CONSENSUS_ENGINE.equals("poa"))
+		{
+			return PoaConsensus.getConsensusSequences(id, draft, reads);
+		}
+		String raconInAll = IrisSettings.addScratchDir(id + ".racon.fa");
+		String raconInSingle = IrisSettings.addScratchDir(id + ".racon.seq.fa");
+		String raconInAlign = IrisSettings.addScratchDir(id + ".racon.align.sam");
+		String raconOutFn = IrisSettings.addScratchDir(id + ".racon.out");
 		writeRaconInput(reads, raconInAll, raconInSingle, raconInAlign, draft);
 		int numRuns = IrisSettings.RACON_ITERS;
-		executeRacon(raconInAll, raconInSingle, raconInAlign, raconOutFn, numRuns);
-		ArrayList<String> res = parseRaconOutput(raconOutFn);
+		ArrayList<String> res;
+		if(IrisSettings.CLEAN_INTERMEDIATE_FILES)
+		{
+			// Read the consensus straight from racon's output stream
+			String raconOutput = executeRacon(raconInAll, raconInSingle, raconInAlign, null, numRuns);
+			res = parseRaconOutput(new Scanner(raconOutput));
+		}
+		else
+		{
+			executeRacon(raconInAll, raconInSingle, raconInAlign, raconOutFn, numRuns);
+			res = parseRaconOutput(raconOutFn);
+		}
 		if(IrisSettings.CLEAN_INTERMEDIATE_FILES)
 		{
 			new File(raconInAll).delete();
@@ -121,33 +136,75 @@ public class Racon {
 	
 	/*
 	 * Run Racon through the command line using parameters from Settings
+	 * If raconOut is null, the output is returned instead of being written to a file
 	 */
-	static void executeRacon(String raconInAll, String raconInSingle,
+	static String executeRacon(String raconInAll, String raconInSingle,
 			String raconInAlignments, String raconOut, int numRuns) throws Exception
 	{
 		if(numRuns > 1)
 		{
-			String intermediateOutput = raconOut + "_" + numRuns + ".fa";
+			String intermediatePrefix = raconOut == null ? (raconInSingle + ".out") : raconOut;
+			String intermediateOutput = intermediatePrefix + "_" + numRuns + ".fa";
 			executeRacon(raconInAll, raconInSingle, raconInAlignments, intermediateOutput, 1);
-			String intermediateAlign = raconOut + "_" + numRuns + ".sam";
+			String intermediateAlign = intermediatePrefix + "_" + numRuns + ".sam";
 			AlignConsensus.executeMinimap(raconInAll, intermediateOutput, intermediateAlign);
-			executeRacon(raconInAll, intermediateOutput, intermediateAlign, raconOut, numRuns - 1);
-			return;
+			String res = executeRacon(raconInAll, intermediateOutput, intermediateAlign, raconOut, numRuns - 1);
+			if(raconOut == null && IrisSettings.CLEAN_INTERMEDIATE_FILES)
+			{
+				new File(intermediateOutput).delete();
+				new File(intermediateAlign).delete();
+			}
+			return res;
 		}
-		String fsCommand = String.format(
-				 "%s %s %s %s", 
-				 IrisSettings.RACON_PATH, raconInAll, raconInAlignments, raconInSingle);
+		int threads = ExternalTool.claimThreads();
+		try {
+			String fsCommand = String.format(
+					 "%s -t %d %s %s %s", 
+					 IrisSettings.RACON_PATH, threads, raconInAll, raconInAlignments, raconInSingle);
 		
-		ArrayList<String> fullFsCommand = new ArrayList<String>();
-		for(String s : fsCommand.split(" ")) fullFsCommand.add(s);
-		Process child = new ProcessBuilder()
-				.command(fullFsCommand)
-				.redirectOutput(new File(raconOut))
-				.start();
-		int p = child.waitFor();
-		if(p != 0)
-		{
-			throw new Exception("error running racon on " + raconInSingle +" "+p);
+			if(ExternalTool.pooled())
+			{
+				// Helper shells from the tool pool can only pass data through files
+				String outFn = raconOut == null ? raconInSingle + ".polished" : raconOut;
+				int p = ExternalTool.runShell(ExternalTool.RACON, fsCommand + " > " + outFn);
+				if(p != 0)
+				{
+					throw new Exception("error running racon on " + raconInSingle +" "+p);
+				}
+				if(raconOut != null)
+				{
+					return null;
+				}
+				try {
+					return new String(Files.readAllBytes(new File(outFn).toPath()));
+				} finally {
+					new File(outFn).delete();
+				}
+			}
+		
+			ArrayList<String> fullFsCommand = new ArrayList<String>();
+			for(String s : fsCommand.split(" ")) fullFsCommand.add(s);
+			ProcessBuilder pb = new ProcessBuilder()
+					.command(fullFsCommand)
+					.redirectError(ProcessBuilder.Redirect.DISCARD);
+			if(raconOut != null)
+			{
+				pb.redirectOutput(new File(raconOut));
+			}
+			ExternalTool.Handle child = ExternalTool.start(ExternalTool.RACON, pb);
+			String res = null;
+			if(raconOut == null)
+			{
+				res = new String(child.process.getInputStream().readAllBytes());
+			}
+			int p = ExternalTool.waitFor(ExternalTool.RACON, child);
+			if(p != 0)
+			{
+				throw new Exception("error running racon on " + raconInSingle +" "+p);
+			}
+			return res;
+		} finally {
+			ExternalTool.releaseThreads(threads);
 		}
 	}
 	
@@ -162,9 +219,16 @@ public class Racon {
 			throw new Exception("could not find racon output file: " + raconOutputFileName);
 		}
 		
+		return parseRaconOutput(new Scanner(new FileInputStream(toRead)));
+	}
+	
+	/*
+	 * Gets the corrected sequence from Racon's output
+	 */
+	static ArrayList<String> parseRaconOutput(Scanner input) throws Exception
+	{
 		StringBuilder currentSequence = new StringBuilder("");
 		
-		Scanner input = new Scanner(new FileInputStream(toRead));
 		while(input.hasNext())
 		{
 			String line = input.nextLine();
@@ -1,18 +1,20 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Scanner;
 
 /*
  * Gathering reads together to get a consensus sequence
  */
 public class ReadGathering {
+	
+	// How far on each side of a variant to look for its supporting reads
+	static final int READ_WINDOW = 10000;
+	
 	static ArrayList<String> getReads(String key, ArrayList<String> readNames) throws Exception
 	{
 		String readFile = IrisSettings.READS_FILE;
-		String samFileName = IrisSettings.addOutDir(key + ".sam");
-		String bamFileName = IrisSettings.addOutDir(key + ".bam");
-		String fastqFileName = IrisSettings.addOutDir(key + ".fastq");
 		
 		// Handle case when read file is actually a list of files
 		ArrayList<String> readFiles = new ArrayList<String>();
@@ -22,6 +24,94 @@ public class ReadGathering {
 			readFiles.add(rfn);
 		}
 		
+		// CRAM files can't be decoded directly, so go through samtools for those
+		for(String rfn : readFiles)
+		{
+			if(rfn.endsWith(".cram"))
+			{
+				return getReadsWithSamtools(key, readNames, readFiles);
+			}
+		}
+		
+		HashSet<String> nameSet = new HashSet<String>(readNames);
+		String chr = IrisVcfEntry.getChrFromKey(key);
+		long pos = IrisVcfEntry.getPosFromKey(key);
+		
+		ArrayList<ReadSelection.Candidate> candidates = new ArrayList<ReadSelection.Candidate>();
+		for(String rfn : readFiles)
+		{
+			ensureIndexed(rfn);
+			BamReader.RegionIterator it = BamReader.get(rfn).query(chr, pos - READ_WINDOW, pos + READ_WINDOW);
+			if(it == null)
+			{
+				continue;
+			}
+			try {
+				BamReader.Record record;
+				while((record = it.next(nameSet)) != null)
+				{
+					// Skip secondary/supplementary alignments like bam2fq does so each read is only used once
+					if(record.isSecondary())
+					{
+						continue;
+					}
+					String seq = readSequence(record, key);
+					if(seq.length() > 0)
+					{
+						candidates.add(ReadSelection.fromRecord(record, seq, key));
+					}
+				}
+			} finally {
+				it.close();
+			}
+		}
+		return ReadSelection.select(candidates);
+	}
+	
+	/*
+	 * The sequence of a supporting read to polish a variant with, which is just the part of the read around
+	 * the variant's draft sequence unless read trimming is turned off
+	 */
+	static String readSequence(BamReader.Record record, String key)
+	{
+		if(!IrisSettings.TRIM_READS)
+		{
+			return record.originalSequence();
+		}
+		long pos = IrisVcfEntry.getPosFromKey(key);
+		long buffer = IrisSettings.RACON_BUFFER + IrisSettings.TRIM_MARGIN;
+		
+		// Reads clipped at an insertion need enough of the clipped part to cover the inserted sequence, and
+		// reads with a deletion need the window to reach past the deleted bases to keep the flank after it
+		int clipSlack = 0;
+		long deletionLength = 0;
+		String type = IrisVcfEntry.getTypeFromKey(key);
+		if(type.equals("INS") || type.equals("DEL"))
+		{
+			Long length = PosStore.findLength(type, IrisVcfEntry.getChrFromKey(key), pos);
+			if(length != null && type.equals("INS"))
+			{
+				clipSlack = (int)Math.min(Integer.MAX_VALUE, Math.abs(length));
+			}
+			else if(length != null)
+			{
+				deletionLength = Math.abs(length);
+			}
+		}
+		String res = record.windowSequence(Math.max(0, pos - 1 - buffer), pos - 1 + buffer + deletionLength, clipSlack);
+		Metrics.add("iris_read_bases_trimmed_total", "Bases of supporting reads left out of polishing for being far from the variant", record.seq.length - res.length());
+		return res;
+	}
+	
+	/*
+	 * Get reads by extracting them with samtools and converting them to FASTQ - used for CRAM input
+	 */
+	static ArrayList<String> getReadsWithSamtools(String key, ArrayList<String> readNames, ArrayList<String> readFiles) throws Exception
+	{
+		String samFileName = IrisSettings.addScratchDir(key + ".sam");
+		String bamFileName = IrisSettings.addScratchDir(key + ".bam");
+		String fastqFileName = IrisSettings.addScratchDir(key + ".fastq");
+		
 		// Get SAM file with all relevant reads
 		extractReads(key, readNames, readFiles, samFileName);
 		
@@ -39,7 +129,7 @@ public class ReadGathering {
 			new File(bamFileName).delete();
 		}
 		
-		ArrayList<String> readSequences = getReadsFromFastq(fastqFileName);
+		ArrayList<String> readSequences = ReadSelection.select(getReadsFromFastq(fastqFileName));
 		if(IrisSettings.CLEAN_INTERMEDIATE_FILES)
 		{
 			new File(fastqFileName).delete();
@@ -48,6 +138,33 @@ public class ReadGathering {
 		return readSequences;
 	}
 	
+	/*
+	 * Makes sure an alignment file has an index, running samtools index if it doesn't
+	 */
+	static void ensureIndexed(String readFile) throws Exception
+	{
+		if(new File(readFile + ".bai").exists())
+		{
+			return;
+		}
+		synchronized(ReadGathering.class)
+		{
+			if(new File(readFile + ".bai").exists())
+			{
+				return;
+			}
+			String samtoolsCommand = String.format("%s index %s", 
+					IrisSettings.SAMTOOLS_PATH,
+					readFile);
+			
+			int p = ExternalTool.runShell(ExternalTool.SAMTOOLS, samtoolsCommand);
+			if(p != 0)
+			{
+				throw new Exception("running samtools index on " + readFile + " failed: " + samtoolsCommand);
+			}
+		}
+	}
+	
 	// Gets reads with names in the list that are within 10kbp of a target SV and outputs them to a SAM file
 	static void extractReads(String key, ArrayList<String> readNames, ArrayList<String> readFiles, String samFileName) throws Exception
 	{
@@ -67,36 +184,19 @@ public class ReadGathering {
 		{
 			String readFile = readFiles.get(i);
 
-			if(!new File(readFiles.get(i) + ".bai").exists())
-			{
-				String samtoolsCommand = String.format("%s index %s", 
-						IrisSettings.SAMTOOLS_PATH,
-						readFile);
-				
-				// Use bin/sh because pipes will not work when called directly
-				String[] fullSamtoolsCommmand = new String[] {"/bin/sh", "-c", samtoolsCommand};
-				Process child = Runtime.getRuntime().exec(fullSamtoolsCommmand);
-				int p = child.waitFor();
-				if(p != 0)
-				{
-					throw new Exception("running samtools index on " + readFile + " failed: " + samtoolsCommand);
-				}
-			}
+			ensureIndexed(readFile);
 			
 			String samtoolsCommand = String.format("%s view " 
 				+ (i == 0 ? "-h " : "") + "%s %s:%d-%d | grep -E %s " + (i == 0 ? ">" : ">>") + " %s", 
 					IrisSettings.SAMTOOLS_PATH,
 					readFile,
 					chr,
-					pos - 10000,
-					pos + 10000,
+					pos - READ_WINDOW,
+					pos + READ_WINDOW,
 					grepQuery.toString(),
 					samFileName);
 			
-			// Use bin/sh because pipes will not work when called directly
-			String[] fullSamtoolsCommmand = new String[] {"/bin/sh", "-c", samtoolsCommand};
-			Process child = Runtime.getRuntime().exec(fullSamtoolsCommmand);
-			int p = child.waitFor();
+			int p = ExternalTool.runShell(ExternalTool.SAMTOOLS, samtoolsCommand);
 			if(p != 0)
 			{
 				throw new Exception("getting alignments supporting " + key + " failed: " + samtoolsCommand);
@@ -107,9 +207,7 @@ public class ReadGathering {
 	static void samToBam(String samFileName, String bamFileName) throws Exception
 	{
 		String toBamCommand = String.format("%s view -h -S -b %s > %s", IrisSettings.SAMTOOLS_PATH, samFileName, bamFileName);
-		String[] fullBamtoolsCommmand = new String[] {"/bin/sh", "-c", toBamCommand};
-		Process child = Runtime.getRuntime().exec(fullBamtoolsCommmand);
-		int p = child.waitFor();
+		int p = ExternalTool.runShell(ExternalTool.SAMTOOLS, toBamCommand);
 		if(p != 0)
 		{
 			throw new Exception("converting alignments to bam failed: " + toBamCommand);
@@ -122,16 +220,17 @@ public class ReadGathering {
 				IrisSettings.SAMTOOLS_PATH,
 				bamFileName, 
 				fastqFileName);
-		String[] fullFastqCommmand = new String[] {"/bin/sh", "-c", toFastqCommand};
-		Process child = Runtime.getRuntime().exec(fullFastqCommmand);
-		int p = child.waitFor();
+		int p = ExternalTool.runShell(ExternalTool.SAMTOOLS, toFastqCommand);
 		if(p != 0)
 		{
 			throw new Exception("converting alignments to fastq failed: " + toFastqCommand);
 		}
 	}
 	
-	static ArrayList<String> getReadsFromFastq(String fastqFileName) throws Exception
+	/*
+	 * Gets the reads from a FASTQ file along with their base qualities
+	 */
+	static ArrayList<ReadSelection.Candidate> getReadsFromFastq(String fastqFileName) throws Exception
 	{
 		File f = new File(fastqFileName);
 		if(!f.exists())
@@ -139,13 +238,14 @@ public class ReadGathering {
 			throw new Exception("trying to get reads from a fastq file which does not exist: " + fastqFileName);
 		}
 		Scanner input = new Scanner(new FileInputStream(f));
-		ArrayList<String> res = new ArrayList<String>();
+		ArrayList<ReadSelection.Candidate> res = new ArrayList<ReadSelection.Candidate>();
 		while(input.hasNext())
 		{
 			try {
 				input.nextLine();
-				res.add(input.nextLine());
-				for(int i = 0; i<2; i++) input.nextLine();
+				String seq = input.nextLine();
+				input.nextLine();
+				res.add(ReadSelection.fromFastq(seq, input.nextLine()));
 			} catch(Exception e) {
 				input.close();
 				throw new Exception("trying to get reads from malformed fastq file: " + fastqFileName);
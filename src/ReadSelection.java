@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/*
+ * Chooses which supporting reads to polish a variant with when it has more than MAX_READS of them.
+ * Polishing time grows with the number of reads while accuracy levels off well before high-coverage
+ * variants run out of reads, so only the most useful ones are kept: reads whose alignments reach furthest
+ * past the variant on both sides come first, then reads with higher average base quality, and the reads
+ * taken are split as evenly as possible between the two strands.
+ * The choice only depends on the reads and the order they were found in, so it is the same in every run.
+ */
+public class ReadSelection {
+
+	/*
+	 * A supporting read along with what is needed to rank it
+	 */
+	static class Candidate
+	{
+		String seq;
+
+		// How far the alignment reaches past the variant on its shorter side (capped at RACON_BUFFER), or -1 if not known
+		long span = -1;
+
+		// The average phred base quality, or -1 if not known
+		double meanQuality = -1;
+
+		boolean reverse = false;
+
+		// Where the read was in the list of candidates, which breaks ties
+		int index;
+
+		Candidate(String seq)
+		{
+			this.seq = seq;
+		}
+	}
+
+	/*
+	 * Makes a candidate from an alignment of a read supporting a variant, whose sequence has already been extracted
+	 */
+	static Candidate fromRecord(BamReader.Record record, String seq, String key)
+	{
+		Candidate res = new Candidate(seq);
+		res.reverse = record.isReverse();
+
+		// BAM files use 0xff for every base when the qualities are missing
+		if(record.qual.length > 0 && record.qual[0] != (byte)0xff)
+		{
+			long total = 0;
+			for(byte q : record.qual)
+			{
+				total += q & 0xff;
+			}
+			res.meanQuality = 1.0 * total / record.qual.length;
+		}
+
+		long breakpointStart = IrisVcfEntry.getPosFromKey(key) - 1;
+		long breakpointEnd = breakpointStart;
+		if(IrisVcfEntry.getTypeFromKey(key).equals("DEL"))
+		{
+			Long length = PosStore.findLength("DEL", IrisVcfEntry.getChrFromKey(key), breakpointStart + 1);
+			if(length != null)
+			{
+				breakpointEnd += Math.abs(length);
+			}
+		}
+		long alignmentEnd = record.pos + BamReader.Record.referenceLength(record.cigar);
+		long span = Math.min(breakpointStart - record.pos, alignmentEnd - breakpointEnd);
+		res.span = Math.max(0, Math.min(IrisSettings.RACON_BUFFER, span));
+		return res;
+	}
+
+	/*
+	 * Makes a candidate from a FASTQ entry, which has no alignment, so only the base qualities can be used to rank it
+	 */
+	static Candidate fromFastq(String seq, String qual)
+	{
+		Candidate res = new Candidate(seq);
+		if(qual.length() > 0)
+		{
+			long total = 0;
+			for(int i = 0; i<qual.length(); i++)
+			{
+				total += qual.charAt(i) - 33;
+			}
+			res.meanQuality = 1.0 * total / qual.length();
+		}
+		return res;
+	}
+
+	/*
+	 * Reads which reach further past the variant come first, then ones with better base qualities
+	 */
+	static Comparator<Candidate> RANKING = new Comparator<Candidate>() {
+		public int compare(Candidate a, Candidate b)
+		{
+			if(a.span != b.span)
+			{
+				return Long.compare(b.span, a.span);
+			}
+			if(a.meanQuality != b.meanQuality)
+			{
+				return Double.compare(b.meanQuality, a.meanQuality);
+			}
+			return Integer.compare(a.index, b.index);
+		}
+	};
+
+	/*
+	 * Gets the sequences of the reads to use, which are all of them unless there are more than MAX_READS
+	 * The reads chosen are kept in the order they were found in
+	 */
+	static ArrayList<String> select(ArrayList<Candidate> candidates)
+	{
+		int max = IrisSettings.MAX_READS;
+		ArrayList<Candidate> chosen = candidates;
+		if(max > 0 && candidates.size() > max)
+		{
+			ArrayList<Candidate> forward = new ArrayList<Candidate>(), reverse = new ArrayList<Candidate>();
+			for(int i = 0; i<candidates.size(); i++)
+			{
+				Candidate c = candidates.get(i);
+				c.index = i;
+				(c.reverse ? reverse : forward).add(c);
+			}
+			Collections.sort(forward, RANKING);
+			Collections.sort(reverse, RANKING);
+
+			// Take half from each strand, with any left over going to the other one
+			int fromReverse = Math.min(reverse.size(), max / 2);
+			int fromForward = Math.min(forward.size(), max - fromReverse);
+			fromReverse = Math.min(reverse.size(), max - fromForward);
+
+			chosen = new ArrayList<Candidate>();
+			chosen.addAll(forward.subList(0, fromForward));
+			chosen.addAll(reverse.subList(0, fromReverse));
+			Collections.sort(chosen, new Comparator<Candidate>() {
+				public int compare(Candidate a, Candidate b)
+				{
+					return Integer.compare(a.index, b.index);
+				}
+			});
+			Metrics.add("iris_reads_left_out_total", "Supporting reads not used for polishing because their variant had more than max_reads",
+					candidates.size() - chosen.size());
+		}
+		ArrayList<String> res = new ArrayList<String>();
+		for(Candidate c : chosen)
+		{
+			res.add(c.seq);
+		}
+		return res;
+	}
+}
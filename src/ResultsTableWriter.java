@@ -17,7 +17,24 @@ public class ResultsTableWriter {
 	
 	void printEntry(IrisVcfEntry oldEntry, IrisGenomeQuery gq, NewSequenceMap.UpdatedEntry newEntry) throws Exception
 	{
-		out.println(new TableEntry(oldEntry, gq, newEntry));
+		out.println(makeEntry(oldEntry, gq, newEntry));
+	}
+	
+	/*
+	 * Prints rows which have already been formatted, such as those made by worker threads
+	 */
+	void print(String rows)
+	{
+		out.print(rows);
+		Metrics.add("iris_out_dir_bytes_written_total{file=\"results_table\"}", "Bytes written to files in the output directory", rows.length());
+	}
+	
+	/*
+	 * Makes the row of the table for a variant without writing it
+	 */
+	static String makeEntry(IrisVcfEntry oldEntry, IrisGenomeQuery gq, NewSequenceMap.UpdatedEntry newEntry) throws Exception
+	{
+		return new TableEntry(oldEntry, gq, newEntry).toString();
 	}
 	
 	void close()
@@ -27,25 +44,7 @@ public class ResultsTableWriter {
 	
 	static int editDistance(String from, String to)
 	{
-		int n = from.length();
-		int m = to.length();
-		int[][] dp = new int[2][m+1];
-		for(int i = 1; i<=m; i++)
-		{
-			dp[0][i] = i;
-		}
-		for(int i = 1; i <= n; i++)
-		{
-			for(int j = 1; j <= m; j++)
-			{
-				boolean sameChar = from.charAt(i-1) == to.charAt(j-1);
-				int min = (sameChar ? 0 : 1) + dp[(i-1)%2][j-1];
-				min = Math.min(min, 1 + dp[(i-1)%2][j]);
-				min = Math.min(min, 1 + dp[i%2][j-1]);
-				dp[i%2][j] = min;
-			}
-		}
-		return dp[n%2][m];
+		return EditDistance.distance(from, to);
 	}
 
 	static class TableEntry
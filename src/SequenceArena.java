@@ -0,0 +1,90 @@
+/*
+ * Off-heap storage for long refined sequences, so that the heap doesn't grow with the size of the callset.
+ * Sequences are appended to a memory-mapped scratch file which is read back when the output is written,
+ * and which the OS can page out if memory gets tight.  The file is deleted when the arena is closed.
+ */
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+public class SequenceArena {
+
+	// The file is mapped in chunks of this size, and a sequence never crosses from one chunk into the next
+	static final int CHUNK_SIZE = 1 << 26;
+
+	FileChannel channel;
+	ArrayList<MappedByteBuffer> chunks;
+
+	// The offset in the file where the next sequence will go
+	long end;
+
+	SequenceArena(String fn) throws Exception
+	{
+		channel = FileChannel.open(new File(fn).toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		chunks = new ArrayList<MappedByteBuffer>();
+		end = 0;
+	}
+
+	/*
+	 * Stores a sequence and returns its offset, or -1 if it is too long to fit in a chunk
+	 */
+	long put(String seq) throws Exception
+	{
+		byte[] bytes = seq.getBytes(StandardCharsets.ISO_8859_1);
+		if(bytes.length > CHUNK_SIZE)
+		{
+			return -1;
+		}
+		long offset;
+		ByteBuffer chunk;
+		synchronized(this)
+		{
+			if(end % CHUNK_SIZE + bytes.length > CHUNK_SIZE)
+			{
+				end = (end / CHUNK_SIZE + 1) * CHUNK_SIZE;
+			}
+			offset = end;
+			end += bytes.length;
+			int index = (int)(offset / CHUNK_SIZE);
+			while(chunks.size() <= index)
+			{
+				chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, (long)chunks.size() * CHUNK_SIZE, CHUNK_SIZE));
+			}
+			chunk = chunks.get(index).duplicate();
+		}
+		// Each sequence has its own range of the chunk, so the copy can happen outside the lock
+		chunk.position((int)(offset % CHUNK_SIZE));
+		chunk.put(bytes);
+		return offset;
+	}
+
+	/*
+	 * Reads back a sequence given its offset and length
+	 */
+	String get(long offset, int length)
+	{
+		ByteBuffer chunk;
+		synchronized(this)
+		{
+			chunk = chunks.get((int)(offset / CHUNK_SIZE)).duplicate();
+		}
+		byte[] bytes = new byte[length];
+		chunk.position((int)(offset % CHUNK_SIZE));
+		chunk.get(bytes);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/*
+	 * Closes and deletes the backing file
+	 */
+	synchronized void close() throws Exception
+	{
+		chunks.clear();
+		channel.close();
+	}
+}
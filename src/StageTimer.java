@@ -0,0 +1,176 @@
+/*
+ * Records how long each variant spends in each stage of refinement, for benchmarking.
+ * Timing is off unless a benchmark turns it on, in which case each stage's duration is
+ * added to a per-variant total so that latency distributions can be computed afterwards.
+ * When metrics are being collected, each stage's duration is also added to a histogram.
+ */
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class StageTimer {
+	
+	static final int READ_GATHERING = 0;
+	static final int RACON = 1;
+	static final int MINIMAP = 2;
+	static final int INSERT_FINDING = 3;
+	static final int VCF_EDITING = 4;
+	static final String[] STAGE_NAMES = new String[] {"read_gathering", "racon", "minimap", "insert_finding", "vcf_editing"};
+	
+	static volatile boolean enabled = false;
+	
+	// Nanoseconds spent in each stage by each variant
+	static ConcurrentHashMap<String, AtomicLongArray> times = new ConcurrentHashMap<String, AtomicLongArray>();
+	
+	/*
+	 * Starts timing and clears anything recorded previously
+	 */
+	static void enable()
+	{
+		times.clear();
+		enabled = true;
+	}
+	
+	static void disable()
+	{
+		enabled = false;
+	}
+	
+	/*
+	 * Gets the start time of a stage, or 0 when timing is off
+	 */
+	static long start()
+	{
+		return (enabled || Metrics.enabled) ? System.nanoTime() : 0;
+	}
+	
+	/*
+	 * Adds the time since startTime to a variant's total for a stage
+	 * Returns the stop time so it can be used as the start of the next stage
+	 */
+	static long stop(String key, int stage, long startTime)
+	{
+		if(!enabled && !Metrics.enabled)
+		{
+			return 0;
+		}
+		long now = System.nanoTime();
+		add(key, stage, now - startTime);
+		return now;
+	}
+	
+	static void add(String key, int stage, long nanos)
+	{
+		Metrics.observe("iris_stage_seconds{stage=\"" + STAGE_NAMES[stage] + "\"}", "Time spent in each stage of refinement by each variant",
+				Metrics.SECONDS_BUCKETS, nanos / 1e9);
+		if(!enabled)
+		{
+			return;
+		}
+		AtomicLongArray cur = times.get(key);
+		if(cur == null)
+		{
+			AtomicLongArray prev = times.putIfAbsent(key, cur = new AtomicLongArray(STAGE_NAMES.length));
+			if(prev != null)
+			{
+				cur = prev;
+			}
+		}
+		cur.addAndGet(stage, nanos);
+	}
+	
+	/*
+	 * The times in milliseconds of all variants which spent any time in a stage, in sorted order
+	 */
+	static double[] sortedStageTimes(int stage)
+	{
+		ArrayList<Double> list = new ArrayList<Double>();
+		for(AtomicLongArray cur : times.values())
+		{
+			long nanos = cur.get(stage);
+			if(nanos > 0)
+			{
+				list.add(nanos / 1e6);
+			}
+		}
+		double[] res = new double[list.size()];
+		for(int i = 0; i<res.length; i++)
+		{
+			res[i] = list.get(i);
+		}
+		Arrays.sort(res);
+		return res;
+	}
+	
+	/*
+	 * The nearest-rank percentile of a sorted list, or 0 if it is empty
+	 */
+	static double percentile(double[] sorted, double p)
+	{
+		if(sorted.length == 0)
+		{
+			return 0;
+		}
+		int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+	}
+	
+	/*
+	 * Writes the recorded times as a table with one row per variant and the nanoseconds spent in each stage
+	 */
+	static void write(String fn) throws Exception
+	{
+		PrintWriter out = new PrintWriter(fn);
+		StringBuilder header = new StringBuilder("#key");
+		for(String name : STAGE_NAMES)
+		{
+			header.append('\t').append(name);
+		}
+		out.println(header);
+		for(String key : times.keySet())
+		{
+			AtomicLongArray cur = times.get(key);
+			StringBuilder line = new StringBuilder(key);
+			for(int i = 0; i<STAGE_NAMES.length; i++)
+			{
+				line.append('\t').append(cur.get(i));
+			}
+			out.println(line);
+		}
+		out.close();
+	}
+	
+	/*
+	 * Replaces the recorded times with those in a table produced by write()
+	 */
+	static void read(String fn) throws Exception
+	{
+		times.clear();
+		BufferedReader input = new BufferedReader(new FileReader(fn));
+		String line;
+		while((line = input.readLine()) != null)
+		{
+			if(line.length() == 0 || line.startsWith("#"))
+			{
+				continue;
+			}
+			String[] tokens = line.split("\t");
+			if(tokens.length != STAGE_NAMES.length + 1)
+			{
+				input.close();
+				throw new Exception("malformed line in stage times file " + fn + ": " + line);
+			}
+			AtomicLongArray cur = new AtomicLongArray(STAGE_NAMES.length);
+			for(int i = 0; i<STAGE_NAMES.length; i++)
+			{
+				cur.set(i, Long.parseLong(tokens[i+1]));
+			}
+			times.put(tokens[0], cur);
+		}
+		input.close();
+	}
+}
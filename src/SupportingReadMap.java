@@ -1,15 +1,34 @@
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 
+/*
+ * The supporting read names and sequence of each variant being refined
+ * Read names are often shared between nearby variants and there can be millions of them, so each
+ * distinct name is stored once in a NameTable and variants hold arrays of int ids instead of strings.
+ * Variant sequences are packed into a single byte array as well.
+ */
 public class SupportingReadMap {
-	HashMap<String, ArrayList<String>> map;
-	HashMap<String, String> seqMap;
+	// The index of each variant in the arrays below
+	HashMap<String, Integer> index;
+	
+	// For each variant, its key and the ids of its supporting reads
+	ArrayList<String> keys;
+	ArrayList<int[]> readIds;
+	
+	NameTable names;
+	SequenceTable seqMap;
 	
 	SupportingReadMap(String filename) throws Exception
 	{
-		map = new HashMap<String, ArrayList<String>>();
-		seqMap = new HashMap<String, String>();
+		index = new HashMap<String, Integer>();
+		keys = new ArrayList<String>();
+		readIds = new ArrayList<int[]>();
+		names = new NameTable();
+		seqMap = new SequenceTable();
 		File f = new File(filename);
 		if(!f.exists())
 		{
@@ -20,6 +39,7 @@ public class SupportingReadMap {
 		PosStore.init(filename);
 		
 		VcfEntryIterator vei = new VcfEntryIterator(filename);
+		int[] ids = new int[16];
 		for(IrisVcfEntry ve : vei)
 		{
 			boolean shouldProcess = ve.getType().equals("INS");
@@ -39,18 +59,22 @@ public class SupportingReadMap {
 				String key = ve.getKey();
 				String supportingReadList = ve.getInfo(IrisSettings.RNAMES_FIELDNAME);
 				String[] nameTokens = supportingReadList.split(",");
-				ArrayList<String> val = new ArrayList<String>();
+				int numIds = 0;
 				for(String s : nameTokens)
 				{
 					if(s.length() != 0 && !s.equals("."))
 					{
-						val.add(s);
+						if(numIds == ids.length)
+						{
+							ids = Arrays.copyOf(ids, numIds * 2);
+						}
+						ids[numIds++] = names.intern(s);
 					}
 				}
 				
-				if(val.size() == 0)
+				if(numIds == 0)
 				{
-					Logger.log("Skipping " + key + " because of invalid read names field: " 
+					Logger.warn("Skipping " + key + " because of invalid read names field: " 
 						+ ve.getInfo(IrisSettings.RNAMES_FIELDNAME));
 					continue;
 				}
@@ -58,12 +82,20 @@ public class SupportingReadMap {
 				String seq = ve.getSeq();
 				if(seq.length() > 0 || !ve.getType().equals("INS"))
 				{
-					map.put(key, val);
-					seqMap.put(key, seq);
+					Integer idx = index.get(key);
+					if(idx == null)
+					{
+						idx = keys.size();
+						index.put(key, idx);
+						keys.add(key);
+						readIds.add(null);
+					}
+					readIds.set(idx, Arrays.copyOf(ids, numIds));
+					seqMap.put(idx, seq);
 				}
 				else
 				{
-					Logger.log("Skipping " + key + " because there is no sequence");
+					Logger.warn("Skipping " + key + " because there is no sequence");
 				}
 			}
 		}
@@ -72,23 +104,241 @@ public class SupportingReadMap {
 	
 	public boolean contains(String key)
 	{
-		return map.containsKey(key);
+		return index.containsKey(key);
 	}
 	
+	/*
+	 * Gets the names of a variant's supporting reads, or null if the variant isn't being refined
+	 */
 	public ArrayList<String> get(String key)
 	{
-		return map.get(key);
+		Integer idx = index.get(key);
+		if(idx == null)
+		{
+			return null;
+		}
+		int[] ids = readIds.get(idx);
+		ArrayList<String> res = new ArrayList<String>(ids.length);
+		for(int id : ids)
+		{
+			res.add(names.get(id));
+		}
+		return res;
 	}
 	
-	public String[] keyArray()
+	/*
+	 * A rough estimate of how long a variant will take to refine, for deciding which variants to start first
+	 * The reads are polished over a window around the variant, so the work grows with both the number of
+	 * supporting reads and the length of the variant plus the flanking sequence
+	 */
+	public long estimatedCost(String key)
 	{
-		String[] res = new String[map.size()];
-		int idx = 0;
-		for(String s : map.keySet())
+		Integer idx = index.get(key);
+		if(idx == null)
+		{
+			return 0;
+		}
+		long length = Math.abs(PosStore.getLength(IrisVcfEntry.getTypeFromKey(key), 
+				IrisVcfEntry.getChrFromKey(key), IrisVcfEntry.getPosFromKey(key)));
+		long reads = readIds.get(idx).length;
+		if(IrisSettings.MAX_READS > 0)
 		{
-			res[idx++] = s;
+			reads = Math.min(reads, IrisSettings.MAX_READS);
 		}
+		return reads * (length + 2 * IrisSettings.RACON_BUFFER);
+	}
+	
+	public String[] keyArray()
+	{
+		return keys.toArray(new String[0]);
+	}
+	
+	/*
+	 * Gets the variant keys sorted by chromosome and then position
+	 */
+	public String[] sortedKeyArray()
+	{
+		String[] res = keyArray();
+		Arrays.sort(res, new Comparator<String>() {
+			public int compare(String a, String b)
+			{
+				String chrA = IrisVcfEntry.getChrFromKey(a), chrB = IrisVcfEntry.getChrFromKey(b);
+				if(!chrA.equals(chrB))
+				{
+					return chrA.compareTo(chrB);
+				}
+				long posA = IrisVcfEntry.getPosFromKey(a), posB = IrisVcfEntry.getPosFromKey(b);
+				if(posA != posB)
+				{
+					return Long.compare(posA, posB);
+				}
+				return a.compareTo(b);
+			}
+		});
 		return res;
 	}
 	
+	/*
+	 * Interns strings into a single byte array, giving each distinct string an int id
+	 * The strings are looked up with an open-addressing hash table of ids, so there are no per-string objects
+	 */
+	static class NameTable
+	{
+		byte[] bytes = new byte[1 << 16];
+		int used = 0;
+		
+		// Where each string starts in bytes - it ends where the next one starts
+		int[] offsets = new int[1024];
+		int count = 0;
+		
+		// Each slot holds one more than the id of a string, or 0 if it is empty
+		int[] slots = new int[2048];
+		
+		int intern(String s) throws Exception
+		{
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			int mask = slots.length - 1;
+			int slot = hash(b) & mask;
+			while(slots[slot] != 0)
+			{
+				if(matches(slots[slot] - 1, b))
+				{
+					return slots[slot] - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+			
+			if((long)used + b.length > Integer.MAX_VALUE - 8)
+			{
+				throw new Exception("too many read names to store");
+			}
+			if(used + b.length > bytes.length)
+			{
+				bytes = Arrays.copyOf(bytes, (int)Math.min(Integer.MAX_VALUE - 8, Math.max(2L * bytes.length, used + b.length)));
+			}
+			if(count + 1 >= offsets.length)
+			{
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+			int id = count++;
+			offsets[id] = used;
+			System.arraycopy(b, 0, bytes, used, b.length);
+			used += b.length;
+			offsets[count] = used;
+			slots[slot] = id + 1;
+			
+			// Keep the table at most half full
+			if(2 * count > slots.length)
+			{
+				rehash();
+			}
+			return id;
+		}
+		
+		String get(int id)
+		{
+			return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+		}
+		
+		int size()
+		{
+			return count;
+		}
+		
+		boolean matches(int id, byte[] b)
+		{
+			int start = offsets[id];
+			if(offsets[id + 1] - start != b.length)
+			{
+				return false;
+			}
+			for(int i = 0; i<b.length; i++)
+			{
+				if(bytes[start + i] != b[i])
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		void rehash()
+		{
+			slots = new int[slots.length * 2];
+			int mask = slots.length - 1;
+			for(int id = 0; id<count; id++)
+			{
+				int slot = hash(bytes, offsets[id], offsets[id + 1]) & mask;
+				while(slots[slot] != 0)
+				{
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = id + 1;
+			}
+		}
+		
+		static int hash(byte[] b)
+		{
+			return hash(b, 0, b.length);
+		}
+		
+		static int hash(byte[] b, int start, int end)
+		{
+			int h = 0;
+			for(int i = start; i<end; i++)
+			{
+				h = 31 * h + b[i];
+			}
+			// Spread the bits since the table size is a power of two
+			return h ^ (h >>> 16);
+		}
+	}
+	
+	/*
+	 * The sequences of the variants, packed into a single byte array and looked up by variant key
+	 */
+	class SequenceTable
+	{
+		byte[] bytes = new byte[1 << 16];
+		int used = 0;
+		
+		// The start and length of each variant's sequence, by variant index
+		int[] starts = new int[1024];
+		int[] lengths = new int[1024];
+		
+		void put(int idx, String seq) throws Exception
+		{
+			byte[] b = seq.getBytes(StandardCharsets.UTF_8);
+			if((long)used + b.length > Integer.MAX_VALUE - 8)
+			{
+				throw new Exception("variant sequences are too long to store");
+			}
+			if(used + b.length > bytes.length)
+			{
+				bytes = Arrays.copyOf(bytes, (int)Math.min(Integer.MAX_VALUE - 8, Math.max(2L * bytes.length, used + b.length)));
+			}
+			if(idx >= starts.length)
+			{
+				starts = Arrays.copyOf(starts, Math.max(idx + 1, starts.length * 2));
+				lengths = Arrays.copyOf(lengths, starts.length);
+			}
+			System.arraycopy(b, 0, bytes, used, b.length);
+			starts[idx] = used;
+			lengths[idx] = b.length;
+			used += b.length;
+		}
+		
+		/*
+		 * Gets the sequence of a variant, or null if the variant isn't being refined
+		 */
+		String get(String key)
+		{
+			Integer idx = index.get(key);
+			if(idx == null)
+			{
+				return null;
+			}
+			return new String(bytes, starts[idx], lengths[idx], StandardCharsets.UTF_8);
+		}
+	}
 }
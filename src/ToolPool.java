@@ -0,0 +1,191 @@
+/*
+ * A pool of long-lived helper shells for running external tools.  Forking the JVM for every tool call
+ * gets expensive with a large heap, so instead the JVM starts a few small shells once and sends each
+ * of them one command at a time on standard input.  The shell runs the command (so only the shell forks)
+ * and replies with a marker line holding the exit code.
+ * Commands can't use the helper's standard input/output, so they must read and write files.
+ * A helper is replaced whenever it dies or is killed because a command ran past the tool timeout.
+ */
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ToolPool {
+
+	static final String DONE_MARKER = "__iris_tool_done__";
+
+	// Reads one command per line, runs it with no access to the helper's own input/output, and reports its exit code
+	static final String HELPER_SCRIPT = "while IFS= read -r cmd; do "
+			+ "/bin/sh -c \"$cmd\" </dev/null >/dev/null 2>&1; "
+			+ "echo \"" + DONE_MARKER + " $?\"; "
+			+ "done";
+
+	static ToolPool pool = null;
+
+	// Helpers which aren't running anything - NONE entries are slots whose helper needs to be started
+	LinkedBlockingQueue<Helper> idle;
+
+	// The number of helper slots, which shutdown has to get back from the idle queue
+	int size;
+
+	ToolPool(int size)
+	{
+		this.size = size;
+		idle = new LinkedBlockingQueue<Helper>();
+		for(int i = 0; i<size; i++)
+		{
+			idle.add(Helper.NONE);
+		}
+	}
+
+	static synchronized ToolPool get()
+	{
+		if(pool == null)
+		{
+			pool = new ToolPool(IrisSettings.TOOL_POOL_SIZE);
+		}
+		return pool;
+	}
+
+	/*
+	 * Stops all of the helper shells, waiting for any which are running commands
+	 */
+	static synchronized void shutdown() throws Exception
+	{
+		if(pool == null)
+		{
+			return;
+		}
+		for(int i = 0; i<pool.size; i++)
+		{
+			Helper helper = pool.idle.take();
+			if(helper != Helper.NONE)
+			{
+				helper.close();
+			}
+		}
+		pool = null;
+	}
+
+	/*
+	 * Runs a shell command on a free helper and returns its exit code
+	 */
+	int run(String tool, String command) throws Exception
+	{
+		if(command.indexOf('\n') != -1)
+		{
+			throw new Exception("tool commands can't contain newlines: " + command);
+		}
+		Helper helper = idle.take();
+		try {
+			// Start the helper if this slot doesn't have one yet or the last one died between commands
+			if(helper == Helper.NONE || !helper.process.isAlive())
+			{
+				helper = Helper.start();
+			}
+			int res = helper.run(tool, command);
+			idle.add(helper);
+			helper = null;
+			return res;
+		} finally {
+			if(helper != null)
+			{
+				// The command failed in a way which might have left the helper in a bad state, so replace it next time
+				if(helper != Helper.NONE)
+				{
+					helper.close();
+				}
+				idle.add(Helper.NONE);
+			}
+		}
+	}
+
+	/*
+	 * A single helper shell
+	 */
+	static class Helper
+	{
+		// Placeholder for a slot which doesn't have a running helper
+		static final Helper NONE = new Helper();
+
+		Process process;
+		Writer input;
+		BufferedReader output;
+
+		static Helper start() throws Exception
+		{
+			Helper res = new Helper();
+			res.process = new ProcessBuilder("/bin/sh", "-c", HELPER_SCRIPT)
+					.redirectError(ProcessBuilder.Redirect.DISCARD)
+					.start();
+			res.input = new OutputStreamWriter(res.process.getOutputStream());
+			res.output = new BufferedReader(new InputStreamReader(res.process.getInputStream()));
+			Metrics.inc("iris_tool_pool_starts_total", "Helper shells started for the tool pool");
+			return res;
+		}
+
+		/*
+		 * Sends a command to the shell and waits for its exit code
+		 * If the command runs past the timeout, the shell and everything it started is killed
+		 */
+		int run(String tool, String command) throws Exception
+		{
+			long startTime = System.nanoTime();
+			final AtomicBoolean timedOut = new AtomicBoolean(false);
+			ScheduledFuture<?> killer = ExternalTool.scheduleKill(tool, process.toHandle(), new Runnable() {
+				public void run() {
+					timedOut.set(true);
+				}
+			});
+			String line = null;
+			try {
+				input.write(command + "\n");
+				input.flush();
+				while((line = output.readLine()) != null && !line.startsWith(DONE_MARKER))
+				{
+					// Commands can't write to the helper's output, but skip anything unexpected just in case
+				}
+			} catch (Exception e) {
+				line = null;
+			} finally {
+				if(killer != null)
+				{
+					killer.cancel(false);
+				}
+			}
+			if(line == null || timedOut.get())
+			{
+				Metrics.toolRun(tool, startTime, -1);
+				if(timedOut.get())
+				{
+					throw ExternalTool.timedOut(tool);
+				}
+				throw new Exception("tool helper shell exited unexpectedly while running: " + command);
+			}
+			int exitCode = Integer.parseInt(line.substring(DONE_MARKER.length()).trim());
+			Metrics.toolRun(tool, startTime, exitCode);
+			return exitCode;
+		}
+
+		/*
+		 * Stops the shell by closing its input, killing it if it doesn't exit on its own
+		 */
+		void close()
+		{
+			try {
+				input.close();
+				if(!process.waitFor(1, TimeUnit.SECONDS))
+				{
+					ExternalTool.kill(process.toHandle());
+				}
+			} catch (Exception e) {
+				ExternalTool.kill(process.toHandle());
+			}
+		}
+	}
+}
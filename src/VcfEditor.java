@@ -1,7 +1,17 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.PrintWriter;
-import java.util.Scanner;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /*
  * Handles the creation of a new VCF file given the old file and map of updated insertion sequences 
@@ -14,6 +24,9 @@ public class VcfEditor {
 	NewSequenceMap nsm;
 	IrisGenomeQuery gq;
 	
+	// The number of records given to an output worker at a time
+	static final int OUTPUT_BATCH_SIZE = 256;
+	
 	/*
 	 * oldFile is the original VCF files produced by Sniffles
 	 * newFile is the name of the new VCF file to make
@@ -102,137 +115,74 @@ public class VcfEditor {
 	
 	void run() throws Exception
 	{
-		Scanner input = new Scanner(new FileInputStream(new File(oldFile)));
-		PrintWriter out = new PrintWriter(new File(newFile));
+		BufferedReader input = new BufferedReader(new FileReader(oldFile), 1 << 16);
+		BufferedWriter out = new BufferedWriter(new FileWriter(newFile), 1 << 16);
 		ResultsTableWriter tableOut = new ResultsTableWriter(tableFile);
 		
 		IrisVcfHeader header = new IrisVcfHeader();
 		boolean headerPrinted = false;
 		
-		while(input.hasNext())
-		{
-			String line = input.nextLine();
-			
-			// Handle header line separately
-			if(line.charAt(0) == '#')
-			{
-				header.addLine(line);
-			}
-			
-			else
+		// Records are processed in batches on a worker pool, and the finished batches are written in their original order
+		// Writing the oldest batch whenever the window is full bounds the number of records held in memory
+		int threads = IrisSettings.OUTPUT_THREADS > 0 ? IrisSettings.OUTPUT_THREADS : Math.max(1, IrisSettings.THREADS);
+		ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		int maxInFlight = Math.max(1, IrisSettings.OUTPUT_WINDOW / OUTPUT_BATCH_SIZE);
+		ArrayDeque<Future<OutputBatch>> inFlight = new ArrayDeque<Future<OutputBatch>>();
+		ArrayList<String> batch = new ArrayList<String>();
+		
+		try {
+			String line;
+			while((line = input.readLine()) != null)
 			{
-				if(!headerPrinted)
+				if(line.length() == 0)
 				{
-					headerPrinted = true;
-					header.addInfoField("IRIS_REFINED", "1", "String", "Whether or not a variant has been refined by Iris");
-					header.addInfoField("IRIS_PROCESSED", "1", "String", "Whether or not a variant has been considered by Iris for refinement");
-					header.print(out);
-				}
-				IrisVcfEntry ve = new IrisVcfEntry(line);
-				ve.setInfo("IRIS_PROCESSED", "1");
-				if(Math.abs(ve.getLength()) > IrisSettings.MAX_OUTPUT_LENGTH)
-				{
-					if(IrisSettings.KEEP_LONG_VARIANTS)
-					{
-						Logger.log("Printing original VCF entry for " + ve.getKey() + " because length is too long");
-						out.println(ve);
-					}
-					else
-					{
-						Logger.log("Not outputting SV for " + ve.getKey() + " because length is too long");
-					}
 					continue;
 				}
-				String key = ve.getKey();
 				
-				// Print the entry to the results table
-				NewSequenceMap.UpdatedEntry newEntry = null;
-				if(nsm.containsKey(key))
+				// Handle header line separately
+				if(line.charAt(0) == '#')
 				{
-					newEntry = new NewSequenceMap.UpdatedEntry(nsm.getSeq(key), nsm.getPos(key));
-				}
-				
-				try {
-					tableOut.printEntry(ve, gq, nsm.containsKey(key) ? newEntry : null);
-				} catch (Exception e) {
-					Logger.log("Failed to write " + ve + " to results table");
+					header.addLine(line);
 				}
 				
-				// If this variant is in the map, update its info according to the new sequence/position
-				if(nsm.containsKey(key) && nsm.getPos(key) != -1)
+				else
 				{
-					ve.setInfo("IRIS_REFINED", "1");
-					// Make necessary replacements
-					if(ve.getType().equals("INS"))
+					if(!headerPrinted)
 					{
-						Logger.log("Outputting refined insertion for " + key);
-						String newSeq = nsm.getSeq(key);
-						long newPos = nsm.getPos(key);
-						
-						ve.setPos(newPos);
-						if(ve.hasInfoField("END"))
+						headerPrinted = true;
+						header.addInfoField("IRIS_REFINED", "1", "String", "Whether or not a variant has been refined by Iris");
+						header.addInfoField("IRIS_PROCESSED", "1", "String", "Whether or not a variant has been considered by Iris for refinement");
+						if(!nsm.reasons.isEmpty())
 						{
-							ve.setInfo("END", ve.getPos() + "");
+							header.addInfoField("IRIS_REASON", "1", "String", "Why Iris kept a variant as it was called, if it was deliberate");
 						}
-						ve.updateInsertionSequence(newSeq);
-						updateBeforeAfter(ve);
-						
-						out.println(ve);
-					}
-					else if(ve.getType().equals("DEL"))
-					{
-						Logger.log("Outputting refined deletion for " + key);
-						int newLength = nsm.getSeq(key).length();
-						long newPos = nsm.getPos(key);
-						String newSeq = gq.genomeSubstring(ve.getChromosome(), newPos + 1, newPos + newLength);
-						
-						ve.setPos(newPos);
-						ve.updateDeletion(newSeq);
-						updateBeforeAfter(ve);
-						
-						out.println(ve);
+						header.print(out);
 					}
-				}
-				else
-				{
-					ve.setInfo("IRIS_REFINED", "0");
-					// When there is no sequence, don't change REF/ALT
-					if(ve.getSeq().length() == 0 && requiresSeq(ve.getType()))
+					batch.add(line);
+					if(batch.size() == OUTPUT_BATCH_SIZE)
 					{
-						out.println(ve);
-						continue;
-					}
-					if(ve.getType().equals("INS"))
-					{
-						Logger.log("Outputting original insertion for " + key);
-						String seq = ve.getSeq();
-						if(seq.length() != 0)
-						{
-							ve.setRef("");
-							ve.setAlt(seq);
-							updateBeforeAfter(ve);
-						}
-						ve.setLength(seq.length());
-						if(ve.hasInfoField("END"))
+						submitBatch(batch, pool, inFlight);
+						batch = new ArrayList<String>();
+						while(inFlight.size() >= maxInFlight)
 						{
-							ve.setInfo("END", ve.getPos() + "");
+							writeBatch(inFlight.poll(), out, tableOut);
 						}
 					}
-					else if(ve.getType().equals("DEL"))
-					{
-						Logger.log("Outputting original deletion for " + key);
-						String chr = ve.getChromosome();
-						// Fix off-by-one in indexing
-						long pos = ve.getPos() + 1;
-						ve.setRef(gq.genomeSubstring(chr, pos, pos + Math.abs(ve.getLength())));
-						ve.setAlt("");
-						updateBeforeAfter(ve);
-					}
-					out.println(ve);
 				}
 			}
-			
-			
+			if(batch.size() > 0)
+			{
+				submitBatch(batch, pool, inFlight);
+			}
+			while(!inFlight.isEmpty())
+			{
+				writeBatch(inFlight.poll(), out, tableOut);
+			}
+		} finally {
+			if(pool != null)
+			{
+				pool.shutdownNow();
+			}
 		}
 		
 		// This case only occurs when the VCF is only the header, so don't bother add new fields here
@@ -245,5 +195,178 @@ public class VcfEditor {
 		out.close();
 		input.close();
 	}
+	
+	/*
+	 * Starts processing a batch of records, running it right away if there is no worker pool
+	 */
+	void submitBatch(final ArrayList<String> lines, ExecutorService pool, ArrayDeque<Future<OutputBatch>> inFlight) throws Exception
+	{
+		Callable<OutputBatch> task = new Callable<OutputBatch>() {
+			public OutputBatch call() throws Exception
+			{
+				OutputBatch res = new OutputBatch();
+				for(String line : lines)
+				{
+					long startTime = StageTimer.start();
+					String key = processRecord(line, res.vcf, res.table);
+					if(key != null)
+					{
+						StageTimer.stop(key, StageTimer.VCF_EDITING, startTime);
+					}
+				}
+				return res;
+			}
+		};
+		if(pool == null)
+		{
+			FutureTask<OutputBatch> future = new FutureTask<OutputBatch>(task);
+			future.run();
+			inFlight.add(future);
+		}
+		else
+		{
+			inFlight.add(pool.submit(task));
+		}
+	}
+	
+	/*
+	 * Waits for a batch to finish and writes its VCF lines and results table rows
+	 */
+	static void writeBatch(Future<OutputBatch> future, Writer out, ResultsTableWriter tableOut) throws Exception
+	{
+		OutputBatch batch;
+		try {
+			batch = future.get();
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof Exception)
+			{
+				throw (Exception)e.getCause();
+			}
+			throw e;
+		}
+		out.write(batch.vcf.toString());
+		tableOut.print(batch.table.toString());
+	}
+	
+	/*
+	 * Processes a single VCF record, adding its updated line to vcfOut and its results table row to tableOut
+	 * Returns the variant's key, or null if it was too long to output
+	 */
+	String processRecord(String line, StringBuilder vcfOut, StringBuilder tableOut) throws Exception
+	{
+		IrisVcfEntry ve = new IrisVcfEntry(line);
+		ve.setInfo("IRIS_PROCESSED", "1");
+		if(Math.abs(ve.getLength()) > IrisSettings.MAX_OUTPUT_LENGTH)
+		{
+			if(IrisSettings.KEEP_LONG_VARIANTS)
+			{
+				Logger.debug("Printing original VCF entry for " + ve.getKey() + " because length is too long");
+				vcfOut.append(ve).append('\n');
+			}
+			else
+			{
+				Logger.warn("Not outputting SV for " + ve.getKey() + " because length is too long");
+			}
+			return null;
+		}
+		String key = ve.getKey();
+		
+		// Print the entry to the results table
+		NewSequenceMap.UpdatedEntry newEntry = nsm.get(key);
+		
+		try {
+			tableOut.append(ResultsTableWriter.makeEntry(ve, gq, newEntry)).append('\n');
+		} catch (Exception e) {
+			Logger.warn("Failed to write " + ve + " to results table");
+		}
+		
+		// If this variant is in the map, update its info according to the new sequence/position
+		if(newEntry != null && newEntry.pos != -1)
+		{
+			ve.setInfo("IRIS_REFINED", "1");
+			// Make necessary replacements
+			if(ve.getType().equals("INS"))
+			{
+				Logger.debug("Outputting refined insertion for " + key);
+				String newSeq = newEntry.seq;
+				long newPos = newEntry.pos;
+				
+				ve.setPos(newPos);
+				if(ve.hasInfoField("END"))
+				{
+					ve.setInfo("END", ve.getPos() + "");
+				}
+				ve.updateInsertionSequence(newSeq);
+				updateBeforeAfter(ve);
+				
+				vcfOut.append(ve).append('\n');
+			}
+			else if(ve.getType().equals("DEL"))
+			{
+				Logger.debug("Outputting refined deletion for " + key);
+				int newLength = newEntry.seq.length();
+				long newPos = newEntry.pos;
+				String newSeq = gq.genomeSubstring(ve.getChromosome(), newPos + 1, newPos + newLength);
+				
+				ve.setPos(newPos);
+				ve.updateDeletion(newSeq);
+				updateBeforeAfter(ve);
+				
+				vcfOut.append(ve).append('\n');
+			}
+		}
+		else
+		{
+			ve.setInfo("IRIS_REFINED", "0");
+			String reason = nsm.getReason(key);
+			if(reason != null)
+			{
+				ve.setInfo("IRIS_REASON", reason);
+			}
+			// When there is no sequence, don't change REF/ALT
+			if(ve.getSeq().length() == 0 && requiresSeq(ve.getType()))
+			{
+				vcfOut.append(ve).append('\n');
+				return key;
+			}
+			if(ve.getType().equals("INS"))
+			{
+				Logger.debug("Outputting original insertion for " + key);
+				String seq = ve.getSeq();
+				if(seq.length() != 0)
+				{
+					ve.setRef("");
+					ve.setAlt(seq);
+					updateBeforeAfter(ve);
+				}
+				ve.setLength(seq.length());
+				if(ve.hasInfoField("END"))
+				{
+					ve.setInfo("END", ve.getPos() + "");
+				}
+			}
+			else if(ve.getType().equals("DEL"))
+			{
+				Logger.debug("Outputting original deletion for " + key);
+				String chr = ve.getChromosome();
+				// Fix off-by-one in indexing
+				long pos = ve.getPos() + 1;
+				ve.setRef(gq.genomeSubstring(chr, pos, pos + Math.abs(ve.getLength())));
+				ve.setAlt("");
+				updateBeforeAfter(ve);
+			}
+			vcfOut.append(ve).append('\n');
+		}
+		return key;
+	}
+	
+	/*
+	 * The output produced for a batch of records
+	 */
+	static class OutputBatch
+	{
+		StringBuilder vcf = new StringBuilder();
+		StringBuilder table = new StringBuilder();
+	}
 
 }
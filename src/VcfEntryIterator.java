@@ -1,15 +1,14 @@
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.util.Iterator;
-import java.util.Scanner;
 
 class VcfEntryIterator implements Iterable<IrisVcfEntry> 
 {
-	Scanner input;
+	BufferedReader input;
 	String last;
 	VcfEntryIterator(String fn) throws Exception
 	{
-		input = new Scanner(new FileInputStream(new File(fn)));
+		input = new BufferedReader(new FileReader(fn), 1 << 16);
 		last = null;
 	}
 	@Override
@@ -22,14 +21,24 @@ class VcfEntryIterator implements Iterable<IrisVcfEntry>
 				{
 					return true;
 				}
-				while(input.hasNext() && last == null)
-				{
-					String cur = input.nextLine();
-					if(cur.length() == 0 || cur.charAt(0) == '#')
+				try {
+					while(last == null)
 					{
-						continue;
+						String cur = input.readLine();
+						if(cur == null)
+						{
+							input.close();
+							break;
+						}
+						if(cur.length() == 0 || cur.charAt(0) == '#')
+						{
+							continue;
+						}
+						last = cur;
 					}
-					last = cur;
+				} catch(Exception e) {
+					e.printStackTrace();
+					return false;
 				}
 				return last != null;
 			}
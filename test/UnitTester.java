@@ -1,8 +1,12 @@
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -45,6 +49,18 @@ public class UnitTester {
 		new File(vcfFile).delete();
 	}
 	
+	@Test public void testNameTable() throws Exception
+	{
+		SupportingReadMap.NameTable names = new SupportingReadMap.NameTable();
+		for(int i = 0; i<10000; i++)
+		{
+			assertEquals(names.intern("read" + i), i);
+		}
+		assertEquals(names.intern("read1234"), 1234);
+		assertEquals(names.get(9999), "read9999");
+		assertEquals(names.size(), 10000);
+	}
+	
 	@Test public void testPadding() throws Exception
 	{
 		// First produce a genome file
@@ -101,6 +117,499 @@ public class UnitTester {
 		assert(count == 1);
 	}
 	
+	@Test public void testGenomeQuery() throws Exception
+	{
+		// Genome file with multiple lines per chromosome and a short final line
+		String genomeFn = "multiline.fa";
+		PrintWriter out = new PrintWriter(new File(genomeFn));
+		out.println(">chrA description");
+		out.println("ACGTA");
+		out.println("CCGGT");
+		out.println("TT");
+		out.println(">chrB");
+		out.println("GGGCC");
+		out.close();
+		
+		IrisGenomeQuery gq = new IrisGenomeQuery(genomeFn);
+		assertEquals(gq.genomeSubstring("chrA", 1, 12), "ACGTACCGGTTT");
+		assertEquals(gq.genomeSubstring("chrA", 4, 7), "TACC");
+		assertEquals(gq.genomeSubstring("chrA", 10, 100), "TTT");
+		assertEquals(gq.genomeSubstring("chrA", -5, 2), "AC");
+		assertEquals(gq.genomeSubstring("chrB", 2, 4), "GGC");
+		assertEquals(gq.genomeSubstring("chrB", 4, 3), "");
+		
+		new File(genomeFn).delete();
+		new File(genomeFn + ".fai").delete();
+	}
+
+	@Test public void testEmbeddedAligner() throws Exception
+	{
+		String left = "ACGTTGCATGCCATGATCGATCGGATCCTAGCTAGGCTTACGATCGAT";
+		String right = "TTGACCGTAGCATGCATCGGACTTAGCAGTCGATGCATCGATCCGATA";
+		String ins = "GGGGGCCCCCGGGGGCCCCCGGGGG";
+
+		// Insertion with an unaligned base on the query's left end
+		EmbeddedAligner.Alignment aln = EmbeddedAligner.align("T" + left + ins + right, "CC" + left + right);
+		assertEquals(aln.refStart, 2);
+		assertEquals(AlignmentRecord.cigarString(aln.cigar), "1S48M25I48M");
+
+		// Deletion of the same sequence
+		aln = EmbeddedAligner.align(left + right, left + ins + right);
+		assertEquals(aln.refStart, 0);
+		assertEquals(AlignmentRecord.cigarString(aln.cigar), "48M25D48M");
+
+		// An insertion longer than the flanks around it is still aligned through rather than soft-clipped
+		Random rand = new Random(7);
+		String flank1 = EditDistanceBenchmark.randomSequence(rand, 1000);
+		String longIns = EditDistanceBenchmark.randomSequence(rand, 2500);
+		String flank2 = EditDistanceBenchmark.randomSequence(rand, 1000);
+		aln = EmbeddedAligner.align(flank1 + longIns + flank2, flank1 + flank2);
+		assertEquals(aln.refStart, 0);
+		assertEquals(AlignmentRecord.cigarString(aln.cigar), "1000M2500I1000M");
+	}
+
+	@Test public void testAlignmentRecord() throws Exception
+	{
+		AlignmentRecord record = AlignmentRecord.parse("consensus0\t0\tchr1\t101\t60\t2S3M4I2M30D3M\t*\t0\t0\tTTACGGGGGTACCGT\t*");
+		assertEquals(record.pos, 101L);
+		assertEquals(AlignmentRecord.referenceLength(record.cigar), 38L);
+		assertEquals(AlignmentRecord.cigarString(record.cigar), "2S3M4I2M30D3M");
+
+		ArrayList<NewSequenceMap.UpdatedEntry> ins = BestInsertFinder.getSVsByType(record, 'I');
+		assertEquals(ins.size(), 1);
+		assertEquals(ins.get(0).seq, "GGGG");
+		assertEquals(ins.get(0).pos, 104L);
+
+		ArrayList<NewSequenceMap.UpdatedEntry> del = BestInsertFinder.getSVsByType(record, 'D');
+		assertEquals(del.size(), 1);
+		assertEquals(del.get(0).seq.length(), 30);
+		assertEquals(del.get(0).pos, 106L);
+	}
+	
+	@Test public void testBamReader() throws Exception
+	{
+		// All of the alignments overlapping chr1:6900-6960, in file order - positions are 0-based
+		BamReader.RegionIterator it = BamReader.get("test/smallsimtest/aln_sorted.bam").query("chr1", 6900, 6960);
+		ArrayList<BamReader.Record> records = new ArrayList<BamReader.Record>();
+		BamReader.Record record;
+		while((record = it.next(null)) != null)
+		{
+			records.add(record);
+		}
+		it.close();
+		assertEquals(records.size(), 39);
+		assertEquals(records.get(0).name, "CHR1_320_+");
+		assertEquals(records.get(0).pos, 456L);
+		assertEquals(records.get(38).name, "CHR1_320_+");
+		assertEquals(records.get(38).pos, 6949L);
+		
+		// A reverse-strand alignment, whose sequence is given back in the read's own orientation
+		record = records.get(2);
+		assertEquals(record.name, "CHR1_686_-");
+		assertEquals(record.flag, 16);
+		String original = record.originalSequence();
+		assertEquals(original.length(), 7800);
+		assertEquals(original.substring(0, 30), "ATTACATGAACATGAAAAGACCAGACCAAA");
+		assertEquals(original.substring(7770), "AGCAAGGTCAGGTAGCGGTGCGGCCTGTAG");
+		
+		// A supplementary alignment with hard clipping - 2480H9M1D...2I15M
+		record = records.get(36);
+		assertEquals(record.name, "CHR1_4663_+");
+		assertEquals(record.flag, 2048);
+		assertEquals(record.pos, 6935L);
+		assertEquals(record.cigar.length, 54);
+		assertEquals(record.cigar[0], 2480 << 4 | 5);
+		assertEquals(record.cigar[1], 9 << 4 | 0);
+		assertEquals(record.cigar[2], 1 << 4 | 2);
+		assertEquals(record.cigar[53], 15 << 4 | 0);
+		assertEquals(BamReader.Record.referenceLength(record.cigar), 343L);
+		assertEquals(new String(record.seq).substring(0, 30), "AGCTTTCATGCCAGGCGCGGGCTCACGCTC");
+	}
+	
+	@Test public void testReadTrimming() throws Exception
+	{
+		BamReader.Record record = new BamReader.Record();
+		record.pos = 100;
+		record.cigar = AlignmentRecord.parseCigar("5S10M3I10M4D10M5S");
+		record.seq = "AAAAACCCCCGGGGGTTTACGTACGTACTTTTTGGGGGCCCCC".getBytes();
+		assertEquals(record.windowSequence(105, 115, 0), "GGGGGTTTACGTA");
+		assertEquals(record.windowSequence(121, 126, 0), "TT");
+
+		// Past the ends of the alignment, the clipped bases are kept as well
+		assertEquals(record.windowSequence(98, 102, 1), "AAACC");
+		assertEquals(record.windowSequence(90, 140, 2), new String(record.seq));
+
+		record.flag = 16;
+		assertEquals(record.windowSequence(105, 115, 0), "TACGTAAACCCCC");
+
+		// A deletion longer than the window still keeps the read's bases past the deleted ones
+		String seq = EditDistanceBenchmark.randomSequence(new Random(5), 8000);
+		record = new BamReader.Record();
+		record.pos = 0;
+		record.cigar = AlignmentRecord.parseCigar("4000M2000D4000M");
+		record.seq = seq.getBytes();
+		HashMap<String, HashMap<String, PosStore.Positions>> oldPositions = PosStore.positions;
+		int oldBuffer = IrisSettings.RACON_BUFFER, oldMargin = IrisSettings.TRIM_MARGIN;
+		try {
+			PosStore.positions = new HashMap<String, HashMap<String, PosStore.Positions>>();
+			PosStore.add("DEL", "chrT", 4001, -2000);
+			PosStore.get("DEL", "chrT").finish();
+			IrisSettings.RACON_BUFFER = 1000;
+			IrisSettings.TRIM_MARGIN = 0;
+			assertEquals(ReadGathering.readSequence(record, "chrT:4001:DEL:del1"), seq.substring(3000, 5000));
+		} finally {
+			PosStore.positions = oldPositions;
+			IrisSettings.RACON_BUFFER = oldBuffer;
+			IrisSettings.TRIM_MARGIN = oldMargin;
+		}
+	}
+
+	@Test public void testReadSelection() throws Exception
+	{
+		ArrayList<ReadSelection.Candidate> candidates = new ArrayList<ReadSelection.Candidate>();
+		long[] spans = new long[] {1000, 200, 1000, 1000, 1000, 1000};
+		double[] qualities = new double[] {20, 40, 30, 20, 10, 25};
+		boolean[] reverse = new boolean[] {false, false, false, false, true, true};
+		for(int i = 0; i<spans.length; i++)
+		{
+			ReadSelection.Candidate c = new ReadSelection.Candidate("read" + i);
+			c.span = spans[i];
+			c.meanQuality = qualities[i];
+			c.reverse = reverse[i];
+			candidates.add(c);
+		}
+		int oldMax = IrisSettings.MAX_READS;
+		try {
+			IrisSettings.MAX_READS = 0;
+			assertEquals(ReadSelection.select(candidates).size(), 6);
+
+			// The best forward reads, with ties on span broken by quality and then order, and the best reverse ones
+			IrisSettings.MAX_READS = 4;
+			assertEquals(ReadSelection.select(candidates).toString(), "[read0, read2, read4, read5]");
+
+			// Only two reverse reads, so the rest come from the forward strand
+			IrisSettings.MAX_READS = 5;
+			assertEquals(ReadSelection.select(candidates).toString(), "[read0, read2, read3, read4, read5]");
+		} finally {
+			IrisSettings.MAX_READS = oldMax;
+		}
+	}
+
+	@Test public void testIndexCacheEviction() throws Exception
+	{
+		long oldBudget = IrisSettings.INDEX_CACHE_BYTES;
+		IrisSettings.INDEX_CACHE_BYTES = 12;
+		try {
+			MinimapIndexCache cache = new MinimapIndexCache();
+			for(int i = 0; i<3; i++)
+			{
+				MinimapIndexCache.Index index = new MinimapIndexCache.Index("chr1", 1, 100, "indextest" + i + ".mmi");
+				new PrintWriter(new File(index.fileName)).close();
+				index.bytes = 6;
+				index.built = true;
+				cache.indexes.put("chr1_" + i, index);
+				cache.totalBytes += index.bytes;
+			}
+
+			// The oldest index is still being used, so the next oldest goes first
+			cache.indexes.get("chr1_0").users = 1;
+			cache.indexes.get("chr1_2");
+			cache.evict();
+			assertEquals(cache.indexes.keySet().toString(), "[chr1_0, chr1_2]");
+			assertFalse(new File("indextest1.mmi").exists());
+
+			// Looking up an index makes it the most recently used
+			IrisSettings.INDEX_CACHE_BYTES = 6;
+			cache.release(cache.indexes.get("chr1_0"));
+			assertEquals(cache.indexes.keySet().toString(), "[chr1_0]");
+			assertEquals(cache.totalBytes, 6);
+		} finally {
+			IrisSettings.INDEX_CACHE_BYTES = oldBudget;
+			for(int i = 0; i<3; i++)
+			{
+				new File("indextest" + i + ".mmi").delete();
+			}
+		}
+	}
+
+	@Test public void testDraftCheck() throws Exception
+	{
+		String genome = EditDistanceBenchmark.randomSequence(new Random(5), 600);
+		String genomeFn = "draftcheck.fa";
+		PrintWriter out = new PrintWriter(new File(genomeFn));
+		out.println(">chrA");
+		out.println(genome);
+		out.close();
+		IrisGenomeQuery gq = new IrisGenomeQuery(genomeFn);
+
+		// Reads with the called insertion after position 300, one of them on the other strand, and a read without it
+		String ins = "GGGGGCCCCCGGGGGCCCCCGGGGGCCCCCAAAAATTTTT";
+		String withIns = genome.substring(0, 300) + ins + genome.substring(300);
+		ArrayList<String> reads = new ArrayList<String>();
+		reads.add(withIns.substring(50, 550));
+		reads.add(new String(DraftCheck.reverseComplement(withIns.substring(100, 600).getBytes())));
+		reads.add(genome.substring(50, 550));
+
+		double oldSupport = IrisSettings.DRAFT_SUPPORT;
+		try {
+			IrisSettings.DRAFT_SUPPORT = 0.6;
+			assertTrue(DraftCheck.isSupported("chrA:301:INS:a", ins, gq, reads));
+
+			// A different called sequence isn't supported
+			assertFalse(DraftCheck.isSupported("chrA:301:INS:a", "ACGTTGCATTACGATCAGTCAGTTGACATGCAGTACGTCA", gq, reads));
+
+			IrisSettings.DRAFT_SUPPORT = 0.9;
+			assertFalse(DraftCheck.isSupported("chrA:301:INS:a", ins, gq, reads));
+		} finally {
+			IrisSettings.DRAFT_SUPPORT = oldSupport;
+			new File(genomeFn).delete();
+			new File(genomeFn + ".fai").delete();
+		}
+	}
+
+	@Test public void testEditDistance() throws Exception
+	{
+		java.util.Random r = new java.util.Random(1);
+		for(int iter = 0; iter < 300; iter++)
+		{
+			// Lengths around block boundaries
+			String a = EditDistanceBenchmark.randomSequence(r, r.nextInt(200));
+			String b = EditDistanceBenchmark.mutate(r, a, r.nextDouble() * 0.5);
+			if(iter % 10 == 0)
+			{
+				b = EditDistanceBenchmark.randomSequence(r, r.nextInt(200));
+			}
+			int expected = EditDistance.simpleDistance(a, b);
+			assertEquals(EditDistance.distance(a, b), expected);
+
+			// With a cutoff, anything past it is reported as one more than the cutoff
+			int k = r.nextInt(expected + 5);
+			assertEquals(EditDistance.distance(a.getBytes(), b.getBytes(), k), Math.min(expected, k + 1));
+
+			String text = EditDistanceBenchmark.randomSequence(r, r.nextInt(50)) + b.toLowerCase()
+					+ EditDistanceBenchmark.randomSequence(r, r.nextInt(50));
+			assertEquals(EditDistance.searchDistance(a, text), EditDistance.simpleSearchDistance(a, text));
+		}
+	}
+
+	@Test public void testMetrics() throws Exception
+	{
+		Metrics.metrics.clear();
+		Metrics.enabled = true;
+		try {
+			Metrics.inc("test_total{reason=\"a\"}", "A test counter");
+			Metrics.add("test_total{reason=\"a\"}", "A test counter", 2);
+			Metrics.observe("test_size", "A test histogram", new double[] {1, 10}, 5);
+			Metrics.observe("test_size", "A test histogram", new double[] {1, 10}, 20);
+			String expected = "# HELP test_size A test histogram\n"
+					+ "# TYPE test_size histogram\n"
+					+ "test_size_bucket{le=\"1\"} 0\n"
+					+ "test_size_bucket{le=\"10\"} 1\n"
+					+ "test_size_bucket{le=\"+Inf\"} 2\n"
+					+ "test_size_sum 25\n"
+					+ "test_size_count 2\n"
+					+ "# HELP test_total A test counter\n"
+					+ "# TYPE test_total counter\n"
+					+ "test_total{reason=\"a\"} 3\n";
+			assertEquals(Metrics.render(), expected);
+		} finally {
+			Metrics.enabled = false;
+			Metrics.metrics.clear();
+		}
+	}
+
+	@Test public void testLogger() throws Exception
+	{
+		String logFn = "logtest.log";
+		int oldLevel = Logger.level;
+		try {
+			Logger.init(logFn);
+			Logger.setLevel("info");
+			Logger.debug("hidden");
+			Logger.log("first");
+			Logger.warn("second");
+			Logger.close();
+		} finally {
+			Logger.level = oldLevel;
+		}
+		java.util.List<String> lines = java.nio.file.Files.readAllLines(new File(logFn).toPath());
+		assertEquals(lines.size(), 2);
+		assertTrue(lines.get(0).startsWith("first (time = 00:00:00:00."));
+		assertTrue(lines.get(1).startsWith("second (time = "));
+		new File(logFn).delete();
+	}
+
+	@Test public void testToolPool() throws Exception
+	{
+		int oldSize = IrisSettings.TOOL_POOL_SIZE;
+		IrisSettings.TOOL_POOL_SIZE = 1;
+		String outFn = "toolpool.txt";
+		try {
+			assertEquals(ExternalTool.runShell("test", "echo hello > " + outFn), 0);
+			assertEquals(ExternalTool.runShell("test", "exit 3"), 3);
+			assertEquals(new String(java.nio.file.Files.readAllBytes(new File(outFn).toPath())), "hello\n");
+		} finally {
+			ToolPool.shutdown();
+			IrisSettings.TOOL_POOL_SIZE = oldSize;
+			new File(outFn).delete();
+		}
+	}
+
+	@Test public void testToolThreads() throws Exception
+	{
+		int oldThreads = IrisSettings.THREADS, oldBudget = IrisSettings.CORE_BUDGET;
+		IrisSettings.THREADS = 4;
+		IrisSettings.CORE_BUDGET = -1;
+		try {
+			// Every tool gets the usual number of threads while variants are still waiting
+			ExternalTool.queueDrained = false;
+			ExternalTool.activeWorkers.set(4);
+			int a = ExternalTool.claimThreads();
+			assertEquals(a, IrisSettings.ALIGNMENT_THREADS);
+			ExternalTool.releaseThreads(a);
+			
+			// Once only one worker is left it can use the whole budget, and a second tool waits for it rather than going over
+			ExternalTool.queueDrained = true;
+			ExternalTool.activeWorkers.set(1);
+			int b = ExternalTool.claimThreads();
+			assertEquals(b, 4);
+			final int[] c = new int[] {0};
+			Thread waiting = new Thread() {
+				public void run()
+				{
+					try {
+						c[0] = ExternalTool.claimThreads();
+					} catch(InterruptedException e) {
+						c[0] = -1;
+					}
+				}
+			};
+			waiting.start();
+			waiting.join(200);
+			assertEquals(waiting.isAlive(), true);
+			assertEquals(ExternalTool.coresInUse.get(), 4);
+			ExternalTool.releaseThreads(b);
+			waiting.join();
+			assertEquals(c[0], 4);
+			ExternalTool.releaseThreads(c[0]);
+			assertEquals(ExternalTool.coresInUse.get(), 0);
+		} finally {
+			ExternalTool.queueDrained = false;
+			ExternalTool.activeWorkers.set(0);
+			IrisSettings.THREADS = oldThreads;
+			IrisSettings.CORE_BUDGET = oldBudget;
+		}
+	}
+
+	@Test public void testResultsStore() throws Exception
+	{
+		String storeFn = "resultstest.bin", legacyFn = "resultstest.txt";
+		PrintWriter legacy = new PrintWriter(new File(legacyFn));
+		legacy.println("1:100:INS:a\tACGT\t101\t0\t$");
+		legacy.println("1:200:INS:b\tX\t-1\t0\t$");
+		legacy.close();
+		try {
+			// Results from an older text store are copied into the new log
+			IntermediateResultsStore irs = new IntermediateResultsStore(storeFn, legacyFn, true);
+			irs.addVariant("1:300:INS:c", "GGG", 302);
+			irs.close();
+			long length = new File(storeFn).length();
+			
+			// Simulate a crash partway through writing a record
+			java.io.FileOutputStream torn = new java.io.FileOutputStream(storeFn, true);
+			torn.write(new byte[] {0, 0, 0, 40, 1, 2, 3});
+			torn.close();
+			
+			irs = new IntermediateResultsStore(storeFn, legacyFn, true);
+			assertEquals(new File(storeFn).length(), length);
+			assertEquals(irs.set.size(), 3);
+			NewSequenceMap nsm = new NewSequenceMap();
+			irs.fillMapFromStore(nsm);
+			assertEquals(nsm.getSeq("1:100:INS:a"), "ACGT");
+			assertEquals(nsm.getPos("1:300:INS:c").longValue(), 302);
+			assertFalse(nsm.containsKey("1:200:INS:b"));
+		} finally {
+			new File(storeFn).delete();
+			new File(legacyFn).delete();
+		}
+	}
+
+	@Test public void testSpilledSequences() throws Exception
+	{
+		int oldSpill = IrisSettings.SPILL_LENGTH;
+		IrisSettings.SPILL_LENGTH = 4;
+		NewSequenceMap nsm = new NewSequenceMap();
+		try {
+			nsm.add("1:100:INS:a", "ACG", 100);
+			nsm.add("1:200:INS:b", "ACGTACGT", 201);
+			assertFalse(nsm.map.get("1:100:INS:a") instanceof NewSequenceMap.SpilledEntry);
+			assertTrue(nsm.map.get("1:200:INS:b") instanceof NewSequenceMap.SpilledEntry);
+			assertEquals(nsm.getSeq("1:100:INS:a"), "ACG");
+			assertEquals(nsm.getSeq("1:200:INS:b"), "ACGTACGT");
+			assertEquals(nsm.get("1:200:INS:b").pos, 201);
+		} finally {
+			nsm.close();
+			IrisSettings.SPILL_LENGTH = oldSpill;
+		}
+		assertFalse(new File("spilled_sequences.bin").exists());
+	}
+
+	@Test public void testPoaConsensus() throws Exception
+	{
+		Random rand = new Random(17);
+		String genome = EditDistanceBenchmark.randomSequence(rand, 1600);
+		String truth = genome.substring(300, 1300);
+
+		// A draft with a missing stretch and a wrong base, polished by reads which extend past it on both sides
+		String draft = truth.substring(0, 400) + truth.substring(406, 700) + "A" + truth.substring(701);
+		if(truth.charAt(700) == 'A')
+		{
+			draft = truth.substring(0, 400) + truth.substring(406, 700) + "C" + truth.substring(701);
+		}
+		ArrayList<String> reads = new ArrayList<String>();
+		for(int i = 0; i<6; i++)
+		{
+			String read = genome.substring(100 + 30 * i, 1500 - 20 * i);
+			reads.add(i % 2 == 0 ? read : new String(PoaConsensus.reverseComplement(read.getBytes())));
+		}
+		int oldIters = IrisSettings.RACON_ITERS;
+		IrisSettings.RACON_ITERS = 1;
+		try {
+			assertEquals(PoaConsensus.getConsensusSequences("1:300:INS:a", draft, reads).get(0), truth);
+
+			// A 2.5 kbp insertion whose draft is 20% short
+			String[] parts = new String[5];
+			int[] lengths = new int[] {200, 1000, 2500, 1000, 200};
+			for(int p = 0; p<parts.length; p++)
+			{
+				parts[p] = EditDistanceBenchmark.randomSequence(rand, lengths[p]);
+			}
+			truth = parts[1] + parts[2] + parts[3];
+			draft = parts[1] + parts[2].substring(0, 2000) + parts[3];
+			reads.clear();
+			for(int i = 0; i<6; i++)
+			{
+				String read = parts[0].substring(10 * i) + truth + parts[4].substring(0, 200 - 10 * i);
+				reads.add(i % 2 == 0 ? read : new String(PoaConsensus.reverseComplement(read.getBytes())));
+			}
+			assertEquals(PoaConsensus.getConsensusSequences("1:1000:INS:b", draft, reads).get(0), truth);
+
+			// A 2 kbp insertion with only 100 bp of it in the draft
+			String insertion = parts[2].substring(0, 2000);
+			truth = parts[1] + insertion + parts[3];
+			draft = parts[1] + insertion.substring(0, 100) + parts[3];
+			reads.clear();
+			for(int i = 0; i<6; i++)
+			{
+				String read = parts[0].substring(10 * i) + truth + parts[4].substring(0, 200 - 10 * i);
+				reads.add(i % 2 == 0 ? read : new String(PoaConsensus.reverseComplement(read.getBytes())));
+			}
+			assertEquals(PoaConsensus.getConsensusSequences("1:1000:INS:c", draft, reads).get(0), truth);
+		} finally {
+			IrisSettings.RACON_ITERS = oldIters;
+		}
+	}
+
 	@Test
 	public void IrisVcfEntryFields() throws Exception
 	{